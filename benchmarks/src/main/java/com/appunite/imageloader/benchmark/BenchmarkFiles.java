@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2013 Appunite.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.appunite.imageloader.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Temporary directories and copy baseline used by benchmarks
+ */
+class BenchmarkFiles {
+
+    private BenchmarkFiles() {
+    }
+
+    static File createTempDirectory(String prefix) throws IOException {
+        File file = File.createTempFile("imageloader-" + prefix, "");
+        if (!file.delete() || !file.mkdirs()) {
+            throw new IOException("Could not create directory " + file);
+        }
+        return file;
+    }
+
+    /**
+     * Copy loop of HttpFetcher before buffers were pooled, baseline of
+     * {@link com.appunite.imageloader.StreamUtils#copy}
+     */
+    static long copyThroughSmallBuffer(InputStream inputStream,
+                                       OutputStream outputStream) throws IOException {
+        byte[] buffer = new byte[1024];
+        long total = 0;
+        int bytesRead;
+        while ((bytesRead = inputStream.read(buffer)) != -1) {
+            outputStream.write(buffer, 0, bytesRead);
+            total += bytesRead;
+        }
+        return total;
+    }
+
+    static void delete(File file) {
+        if (file == null) {
+            return;
+        }
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        //noinspection ResultOfMethodCallIgnored
+        file.delete();
+    }
+}
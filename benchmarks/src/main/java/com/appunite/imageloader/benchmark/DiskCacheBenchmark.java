@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2013 Appunite.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.appunite.imageloader.benchmark;
+
+import com.appunite.imageloader.FileCache;
+import com.appunite.imageloader.StreamUtils;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Disk cache read/write throughput of {@link StreamUtils#copy} against a
+ * temporary directory. Time is reported per file, divide file size by it
+ * to get throughput.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class DiskCacheBenchmark {
+
+    /**
+     * Size of cached file in bytes
+     */
+    @Param({"16384", "262144", "2097152"})
+    public int fileSize;
+
+    private File mDirectory;
+    private FileCache mFileCache;
+    private byte[] mData;
+    private File mReadFile;
+    private int mWriteCounter;
+
+    @Setup
+    public void setUp() throws IOException {
+        mDirectory = BenchmarkFiles.createTempDirectory("disk");
+        mFileCache = new FileCache(mDirectory, ".tmp");
+        mData = new byte[fileSize];
+        new Random(42).nextBytes(mData);
+        mReadFile = mFileCache.getCacheFile("read");
+        write(mReadFile);
+    }
+
+    @TearDown
+    public void tearDown() {
+        BenchmarkFiles.delete(mDirectory);
+    }
+
+    private long write(File file) throws IOException {
+        InputStream inputStream = new ByteArrayInputStream(mData);
+        OutputStream outputStream = new FileOutputStream(file);
+        try {
+            return StreamUtils.copy(inputStream, outputStream);
+        } finally {
+            outputStream.close();
+        }
+    }
+
+    /**
+     * Download stored to disk cache, files are rotated so directory does
+     * not grow
+     */
+    @Benchmark
+    public long write() throws IOException {
+        mWriteCounter = (mWriteCounter + 1) % 16;
+        return write(mFileCache.getCacheFile("write" + mWriteCounter));
+    }
+
+    /**
+     * Cached file read into memory through pooled buffer
+     */
+    @Benchmark
+    public long readToMemory() throws IOException {
+        InputStream inputStream = new FileInputStream(mReadFile);
+        try {
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream(fileSize);
+            return StreamUtils.copy(inputStream, outputStream);
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    /**
+     * Cached file copied to another file, transferred by channels
+     */
+    @Benchmark
+    public long fileToFile() throws IOException {
+        InputStream inputStream = new FileInputStream(mReadFile);
+        try {
+            OutputStream outputStream = new FileOutputStream(
+                    mFileCache.getCacheFile("copy"));
+            try {
+                return StreamUtils.copy(inputStream, outputStream);
+            } finally {
+                outputStream.close();
+            }
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    /**
+     * Cached file copied to another file through 1 KB array, baseline of
+     * {@link #fileToFile()}
+     */
+    @Benchmark
+    public long fileToFileSmallBuffer() throws IOException {
+        InputStream inputStream = new FileInputStream(mReadFile);
+        try {
+            OutputStream outputStream = new FileOutputStream(
+                    mFileCache.getCacheFile("copy"));
+            try {
+                return BenchmarkFiles.copyThroughSmallBuffer(inputStream, outputStream);
+            } finally {
+                outputStream.close();
+            }
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    /**
+     * Pure copy through pooled buffer, without disk
+     */
+    @Benchmark
+    public long memoryToMemory() throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream(fileSize);
+        return StreamUtils.copy(new ByteArrayInputStream(mData), outputStream);
+    }
+}
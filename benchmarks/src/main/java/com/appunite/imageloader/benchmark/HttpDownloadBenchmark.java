@@ -0,0 +1,176 @@
+/*
+ * Copyright (C) 2013 Appunite.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.appunite.imageloader.benchmark;
+
+import com.appunite.imageloader.ByteArrayPool;
+import com.appunite.imageloader.FileCache;
+import com.appunite.imageloader.HttpDownloader;
+import com.appunite.imageloader.HttpTransport;
+import com.appunite.imageloader.ImageLimits;
+import com.appunite.imageloader.StreamUtils;
+import com.appunite.imageloader.UrlConnectionTransport;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Download throughput from in-process http stub to disk cache. Copy
+ * through the 1 KB array used before buffers were pooled is the baseline
+ * of pooled 32 KB buffer, {@link HttpDownloader#download(String)} adds
+ * header sniffing and keeping small images in memory. Time is reported per
+ * file, divide file size by it to get throughput.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class HttpDownloadBenchmark {
+
+    private static final int TIMEOUT_MILLIS = 10 * 1000;
+
+    /**
+     * Size of downloaded file in bytes
+     */
+    @Param({"16384", "262144", "2097152"})
+    public int fileSize;
+
+    private HttpServer mServer;
+    private ExecutorService mExecutor;
+    private File mDirectory;
+    private FileCache mFileCache;
+    private HttpTransport mTransport;
+    private HttpDownloader mDownloader;
+    private String mUrl;
+    private File mFile;
+
+    @Setup
+    public void setUp() throws IOException {
+        final byte[] data = new byte[fileSize];
+        new Random(42).nextBytes(data);
+        // otherwise small responses wait for delayed ack of their headers
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+        mServer = HttpServer.create(new InetSocketAddress(
+                InetAddress.getByName("127.0.0.1"), 0), 0);
+        mServer.createContext("/image", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    exchange.getResponseHeaders().set("Content-Type",
+                            "application/octet-stream");
+                    exchange.sendResponseHeaders(200, data.length);
+                    exchange.getResponseBody().write(data);
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+        mExecutor = Executors.newCachedThreadPool();
+        mServer.setExecutor(mExecutor);
+        mServer.start();
+        mUrl = "http://127.0.0.1:" + mServer.getAddress().getPort() + "/image";
+
+        mDirectory = BenchmarkFiles.createTempDirectory("http");
+        mFileCache = new FileCache(mDirectory, ".tmp");
+        mTransport = new UrlConnectionTransport(TIMEOUT_MILLIS, TIMEOUT_MILLIS,
+                TIMEOUT_MILLIS, TIMEOUT_MILLIS, 2);
+        mDownloader = new HttpDownloader(mFileCache, mTransport,
+                ByteArrayPool.getDefault(), ImageLimits.getDefault());
+        mFile = mFileCache.getCacheFile(mUrl);
+    }
+
+    @TearDown
+    public void tearDown() {
+        mServer.stop(0);
+        mExecutor.shutdownNow();
+        BenchmarkFiles.delete(mDirectory);
+    }
+
+    /**
+     * Response copied to file through 1 KB array, as before buffers were
+     * pooled
+     */
+    @Benchmark
+    public long smallBufferCopy() throws IOException {
+        HttpTransport.Response response = mTransport.execute(mUrl);
+        try {
+            OutputStream outputStream = new FileOutputStream(mFile);
+            try {
+                return BenchmarkFiles.copyThroughSmallBuffer(
+                        response.getInputStream(), outputStream);
+            } finally {
+                outputStream.close();
+            }
+        } finally {
+            response.close();
+        }
+    }
+
+    /**
+     * Response copied to file through pooled buffer
+     */
+    @Benchmark
+    public long pooledBufferCopy() throws IOException {
+        HttpTransport.Response response = mTransport.execute(mUrl);
+        try {
+            OutputStream outputStream = new FileOutputStream(mFile);
+            try {
+                return StreamUtils.copy(response.getInputStream(), outputStream);
+            } finally {
+                outputStream.close();
+            }
+        } finally {
+            response.close();
+        }
+    }
+
+    /**
+     * Whole download to disk cache, cache file is deleted first so it is
+     * not served as hit
+     */
+    @Benchmark
+    public long download() throws IOException {
+        //noinspection ResultOfMethodCallIgnored
+        mFile.delete();
+        return mDownloader.download(mUrl).getReceivedBytes();
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2013 Appunite.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.appunite.imageloader.benchmark;
+
+import com.appunite.imageloader.FileCache;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Building memory cache keys and hashing them into disk cache file names
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class KeyHashingBenchmark {
+
+    private static final String RESOURCE =
+            "http://example.com/images/photos/2013/05/21/IMG_20130521_111409.jpg";
+
+    private File mDirectory;
+    private FileCache mFileCache;
+    private String mKey;
+
+    @Setup
+    public void setUp() throws IOException {
+        mDirectory = BenchmarkFiles.createTempDirectory("key");
+        mFileCache = new FileCache(mDirectory);
+        mKey = memoryKey(320, 240, false);
+    }
+
+    @TearDown
+    public void tearDown() {
+        BenchmarkFiles.delete(mDirectory);
+    }
+
+    /**
+     * Same as RemoteImageLoader#getInMemoryKey
+     */
+    private static String memoryKey(int width, int height, boolean centerCrop) {
+        String key = RESOURCE + "_" + width + "x" + height;
+        return centerCrop ? key + "_crop" : key;
+    }
+
+    @Benchmark
+    public String memoryKey() {
+        return memoryKey(320, 240, true);
+    }
+
+    @Benchmark
+    public int memoryKeyHashCode() {
+        // new instance, so string hash code is not cached
+        return new String(mKey).hashCode();
+    }
+
+    @Benchmark
+    public File diskKey() {
+        return mFileCache.getCacheFile(RESOURCE);
+    }
+
+    /**
+     * File names are hashed under lock of shared digest
+     */
+    @Benchmark
+    @Threads(4)
+    public File diskKey4Threads() {
+        return mFileCache.getCacheFile(RESOURCE);
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2013 Appunite.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.appunite.imageloader.benchmark;
+
+import com.appunite.imageloader.LoadQueue;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Load queue churn during fast fling: every visible holder is rebound to
+ * a new image (cancelling its previous request) while workers complete
+ * only a few requests per frame. Every few frames list scrolls back so
+ * requests are deduplicated against queued ones.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class LoadQueueBenchmark {
+
+    /**
+     * Number of views visible on screen
+     */
+    @Param({"10", "30"})
+    public int visibleHolders;
+
+    /**
+     * Number of requests completed by workers during one frame
+     */
+    @Param({"1", "3"})
+    public int completedPerFrame;
+
+    private LoadQueue<String, Object> mQueue;
+    private Object[] mHolders;
+    private List<LoadQueue.Token<Object>> mTokens;
+    private int mPosition;
+    private int mFrame;
+
+    @Setup
+    public void setUp() {
+        mQueue = new LoadQueue<String, Object>();
+        mHolders = new Object[visibleHolders];
+        mTokens = new ArrayList<LoadQueue.Token<Object>>(visibleHolders);
+        for (int i = 0; i < mHolders.length; i++) {
+            mHolders[i] = new Object();
+            mTokens.add(null);
+        }
+        mPosition = 0;
+        mFrame = 0;
+    }
+
+    @Benchmark
+    public int fling() throws InterruptedException {
+        mFrame++;
+        // scroll back by one screen every fourth frame
+        if (mFrame % 4 == 0 && mPosition >= visibleHolders) {
+            mPosition -= visibleHolders;
+        }
+        for (int i = 0; i < mHolders.length; i++) {
+            // recycled holder releases its previous binding
+            mQueue.remove(mTokens.get(i));
+            String key = "http://example.com/image/" + mPosition + ".jpg";
+            mTokens.set(i, mQueue.put(key, key, mHolders[i]));
+            mPosition++;
+        }
+        int completed = 0;
+        for (int i = 0; i < completedPerFrame && mQueue.queuedCount() > 0; i++) {
+            String request = mQueue.take();
+            List<LoadQueue.Token<Object>> tokens = mQueue.finish(request);
+            completed += tokens.size();
+        }
+        return completed;
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2013 Appunite.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.appunite.imageloader.benchmark;
+
+import com.appunite.imageloader.LruCache;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Memory cache get/put mix. Keys are drawn from a range larger than the
+ * cache, so part of gets miss and part of puts evict.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LruCacheBenchmark {
+
+    private static final int ENTRY_SIZE = 64 * 1024;
+
+    /**
+     * Percent of operations which are gets
+     */
+    @Param({"90", "50"})
+    public int getPercent;
+
+    /**
+     * Number of distinct keys relative to cache capacity in percent
+     */
+    @Param({"150"})
+    public int keyRangePercent;
+
+    @Param({"512"})
+    public int capacity;
+
+    private LruCache<String, byte[]> mCache;
+    private String[] mKeys;
+    private byte[] mValue;
+
+    @State(Scope.Thread)
+    public static class ThreadState {
+        final Random random = new Random(42);
+    }
+
+    @Setup
+    public void setUp() {
+        mCache = new LruCache<String, byte[]>(capacity * ENTRY_SIZE) {
+            @Override
+            protected int sizeOf(String key, byte[] value) {
+                return ENTRY_SIZE;
+            }
+        };
+        mKeys = new String[capacity * keyRangePercent / 100];
+        for (int i = 0; i < mKeys.length; i++) {
+            mKeys[i] = String.format("http://example.com/image/%d.jpg_%d_%d",
+                    i, 320, 240);
+        }
+        mValue = new byte[16];
+        for (int i = 0; i < capacity; i++) {
+            mCache.put(mKeys[i], mValue);
+        }
+    }
+
+    private Object operation(ThreadState state) {
+        String key = mKeys[state.random.nextInt(mKeys.length)];
+        if (state.random.nextInt(100) < getPercent) {
+            return mCache.get(key);
+        }
+        return mCache.put(key, mValue);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public Object mix1Thread(ThreadState state) {
+        return operation(state);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Object mix4Threads(ThreadState state) {
+        return operation(state);
+    }
+
+    @Benchmark
+    @Threads(16)
+    public Object mix16Threads(ThreadState state) {
+        return operation(state);
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2013 Appunite.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.appunite.imageloader;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Pool of equally sized byte buffers shared by download threads, so copying
+ * uses large buffers without allocating them for every image.
+ */
+@SuppressWarnings("UnusedDeclaration")
+public class ByteArrayPool implements MemoryArbiter.Participant {
+
+    public static final int DEFAULT_BUFFER_SIZE = 32 * 1024;
+    private static final int DEFAULT_MAX_POOLED_BUFFERS = 4;
+
+    private static ByteArrayPool sDefault;
+
+    private final int mBufferSize;
+    private int mMaxPooledBuffers;
+    private final List<byte[]> mBuffers = new ArrayList<byte[]>();
+    private long mReuseCount;
+    private long mAllocationCount;
+    private long mReleaseCount;
+    private long mDropCount;
+
+    /**
+     * @param bufferSize
+     *            size of every buffer
+     * @param maxPooledBuffers
+     *            maximal number of buffers kept when not used
+     */
+    public ByteArrayPool(int bufferSize, int maxPooledBuffers) {
+        if (bufferSize <= 0 || maxPooledBuffers < 0) {
+            throw new IllegalArgumentException("Wrong pool size");
+        }
+        mBufferSize = bufferSize;
+        mMaxPooledBuffers = maxPooledBuffers;
+    }
+
+    /**
+     * @return pool shared by all loaders
+     */
+    public static synchronized ByteArrayPool getDefault() {
+        if (sDefault == null) {
+            sDefault = new ByteArrayPool(DEFAULT_BUFFER_SIZE, DEFAULT_MAX_POOLED_BUFFERS);
+        }
+        return sDefault;
+    }
+
+    public int getBufferSize() {
+        return mBufferSize;
+    }
+
+    /**
+     * @return pooled or new buffer, has to be given back by
+     *         {@link #release(byte[])}
+     */
+    public synchronized byte[] acquire() {
+        int size = mBuffers.size();
+        if (size > 0) {
+            mReuseCount++;
+            return mBuffers.remove(size - 1);
+        }
+        mAllocationCount++;
+        return new byte[mBufferSize];
+    }
+
+    public synchronized void release(byte[] buffer) {
+        if (buffer == null || buffer.length != mBufferSize) {
+            return;
+        }
+        if (mBuffers.size() >= mMaxPooledBuffers) {
+            mDropCount++;
+            return;
+        }
+        mReleaseCount++;
+        mBuffers.add(buffer);
+    }
+
+    /**
+     * Change number of kept buffers, surplus unused buffers are dropped
+     *
+     * @param maxPooledBuffers
+     *            maximal number of buffers kept when not used
+     */
+    public synchronized void resize(int maxPooledBuffers) {
+        if (maxPooledBuffers < 0) {
+            throw new IllegalArgumentException("Wrong pool size");
+        }
+        mMaxPooledBuffers = maxPooledBuffers;
+        while (mBuffers.size() > maxPooledBuffers) {
+            mBuffers.remove(mBuffers.size() - 1);
+        }
+    }
+
+    /**
+     * Keep as many buffers as fit in budget
+     */
+    @Override
+    public void setMemoryBudget(long budgetBytes) {
+        resize((int) Math.min(budgetBytes / mBufferSize, Integer.MAX_VALUE));
+    }
+
+    /**
+     * Drop all unused buffers
+     */
+    public synchronized void clear() {
+        mBuffers.clear();
+    }
+
+    /**
+     * @return reused buffers as hits, allocations as misses, kept buffers as
+     *         puts and buffers dropped because pool was full as evictions
+     */
+    public synchronized CacheStats stats() {
+        return new CacheStats(mReuseCount, mAllocationCount, mReleaseCount,
+                mDropCount, mBuffers.size(), (long) mBuffers.size() * mBufferSize,
+                (long) mMaxPooledBuffers * mBufferSize);
+    }
+}
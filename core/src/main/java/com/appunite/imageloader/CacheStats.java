@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2013 Appunite.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.appunite.imageloader;
+
+import java.util.Locale;
+
+/**
+ * Immutable snapshot of counters of one cache tier
+ */
+@SuppressWarnings("UnusedDeclaration")
+public class CacheStats {
+
+    /**
+     * Value of sizes that are not known or not limited
+     */
+    public static final long UNKNOWN = -1;
+
+    private final long mHitCount;
+    private final long mMissCount;
+    private final long mPutCount;
+    private final long mEvictionCount;
+    private final long mEntryCount;
+    private final long mSize;
+    private final long mMaxSize;
+
+    /**
+     * @param size
+     *            used size in bytes (or units of cache) or {@link #UNKNOWN}
+     * @param maxSize
+     *            budget of cache or {@link #UNKNOWN} if not limited
+     */
+    public CacheStats(long hitCount, long missCount, long putCount,
+                      long evictionCount, long entryCount, long size, long maxSize) {
+        mHitCount = hitCount;
+        mMissCount = missCount;
+        mPutCount = putCount;
+        mEvictionCount = evictionCount;
+        mEntryCount = entryCount;
+        mSize = size;
+        mMaxSize = maxSize;
+    }
+
+    public long getHitCount() {
+        return mHitCount;
+    }
+
+    public long getMissCount() {
+        return mMissCount;
+    }
+
+    /**
+     * @return hits divided by all lookups or 0 if there were no lookups
+     */
+    public double getHitRate() {
+        long lookups = mHitCount + mMissCount;
+        return lookups == 0 ? 0.0 : (double) mHitCount / lookups;
+    }
+
+    public long getPutCount() {
+        return mPutCount;
+    }
+
+    public long getEvictionCount() {
+        return mEvictionCount;
+    }
+
+    public long getEntryCount() {
+        return mEntryCount;
+    }
+
+    public long getSize() {
+        return mSize;
+    }
+
+    public long getMaxSize() {
+        return mMaxSize;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US,
+                "CacheStats[hits=%d,misses=%d,puts=%d,evictions=%d,entries=%d,size=%d,maxSize=%d]",
+                mHitCount, mMissCount, mPutCount, mEvictionCount, mEntryCount,
+                mSize, mMaxSize);
+    }
+}
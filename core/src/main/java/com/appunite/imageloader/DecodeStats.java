@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2013 Appunite.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.appunite.imageloader;
+
+import java.util.Locale;
+
+/**
+ * Counters of decoded bitmaps
+ */
+@SuppressWarnings("UnusedDeclaration")
+public class DecodeStats {
+
+    private int mDecodeCount;
+    private int mExactSizeCount;
+    private int mReducedConfigCount;
+    private int mCroppedCount;
+    private long mBytesDecoded;
+    private long mBytesSaved;
+
+    /**
+     * @param bytes
+     *            size of decoded bitmap
+     * @param savedBytes
+     *            bytes saved compared to power of two sampled ARGB_8888
+     *            bitmap
+     * @param exactSize
+     *            true if bitmap was scaled to exact size
+     * @param reducedConfig
+     *            true if bitmap was decoded with config smaller than
+     *            ARGB_8888
+     */
+    synchronized void onDecoded(long bytes, long savedBytes, boolean exactSize,
+                                boolean reducedConfig) {
+        mDecodeCount++;
+        mBytesDecoded += bytes;
+        mBytesSaved += savedBytes;
+        if (exactSize) {
+            mExactSizeCount++;
+        }
+        if (reducedConfig) {
+            mReducedConfigCount++;
+        }
+    }
+
+    synchronized void onCropped() {
+        mCroppedCount++;
+    }
+
+    public synchronized int decodeCount() {
+        return mDecodeCount;
+    }
+
+    /**
+     * Returns the number of bitmaps scaled to exact size
+     */
+    public synchronized int exactSizeCount() {
+        return mExactSizeCount;
+    }
+
+    /**
+     * Returns the number of bitmaps decoded with config smaller than
+     * ARGB_8888
+     */
+    public synchronized int reducedConfigCount() {
+        return mReducedConfigCount;
+    }
+
+    /**
+     * Returns the number of bitmaps decoded only in visible region
+     */
+    public synchronized int croppedCount() {
+        return mCroppedCount;
+    }
+
+    public synchronized long bytesDecoded() {
+        return mBytesDecoded;
+    }
+
+    /**
+     * Returns memory saved by exact size decoding, cropping and reduced
+     * configs compared to whole power of two sampled ARGB_8888 bitmaps
+     */
+    public synchronized long bytesSaved() {
+        return mBytesSaved;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format(Locale.US,
+                "DecodeStats[decodes=%d,exactSize=%d,reducedConfig=%d,cropped=%d," +
+                        "bytesDecoded=%d,bytesSaved=%d]",
+                mDecodeCount, mExactSizeCount, mReducedConfigCount, mCroppedCount,
+                mBytesDecoded, mBytesSaved);
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2013 Appunite.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.appunite.imageloader;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Resources that failed recently and should not be retried until their
+ * failure expires
+ */
+@SuppressWarnings("UnusedDeclaration")
+public class FailureCache {
+
+    private final Clock mClock;
+    /**
+     * Failed resources with time until they should not be retried
+     */
+    private final Map<String, Long> mFails = new HashMap<String, Long>();
+    private long mHitCount;
+    private long mMissCount;
+    private long mPutCount;
+    private long mExpiredCount;
+
+    public FailureCache(Clock clock) {
+        if (clock == null) {
+            throw new IllegalArgumentException("Clock could not be null");
+        }
+        mClock = clock;
+    }
+
+    /**
+     * @param durationMillis
+     *            time for which resource should not be retried
+     */
+    public synchronized void put(String resource, long durationMillis) {
+        mFails.put(resource, mClock.currentTimeMillis() + durationMillis);
+        mPutCount++;
+    }
+
+    /**
+     * @return true if resource failed and its failure has not expired yet
+     */
+    public synchronized boolean contains(String resource) {
+        Long failedUntil = mFails.get(resource);
+        if (failedUntil == null) {
+            mMissCount++;
+            return false;
+        }
+        if (mClock.currentTimeMillis() < failedUntil) {
+            mHitCount++;
+            return true;
+        }
+        mFails.remove(resource);
+        mExpiredCount++;
+        mMissCount++;
+        return false;
+    }
+
+    /**
+     * Same as {@link #contains(String)} but does not count hit or miss, so
+     * background probes do not skew stats
+     */
+    public synchronized boolean peek(String resource) {
+        Long failedUntil = mFails.get(resource);
+        return failedUntil != null && mClock.currentTimeMillis() < failedUntil;
+    }
+
+    public synchronized void remove(String resource) {
+        mFails.remove(resource);
+    }
+
+    public synchronized void clear() {
+        mFails.clear();
+    }
+
+    /**
+     * @return lookups of failed resources as hits, expired failures as
+     *         evictions, sizes in entries
+     */
+    public synchronized CacheStats stats() {
+        return new CacheStats(mHitCount, mMissCount, mPutCount, mExpiredCount,
+                mFails.size(), mFails.size(), CacheStats.UNKNOWN);
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2013 Appunite.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.appunite.imageloader;
+
+import java.io.File;
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Directory of cached files named by hash of their keys
+ */
+@SuppressWarnings("UnusedDeclaration")
+public class FileCache {
+
+	private final File mBaseDirectory;
+	private final String mPostfix;
+	private MessageDigest mHash;
+	private long mHitCount;
+	private long mMissCount;
+	private long mPutCount;
+
+	public FileCache(File baseDirectory) {
+		this(baseDirectory, "");
+	}
+
+	public FileCache(File baseDirectory, String postfix) {
+		this.mBaseDirectory = baseDirectory;
+		this.mPostfix = postfix;
+		if (!this.mBaseDirectory.exists()) {
+			//noinspection ResultOfMethodCallIgnored
+			this.mBaseDirectory.mkdirs();
+		}
+		this.createDigest();
+	}
+
+	private void createDigest() {
+		try {
+			this.mHash = MessageDigest.getInstance("SHA-1");
+
+		} catch (final NoSuchAlgorithmException noShaExc) {
+			try {
+				this.mHash = MessageDigest.getInstance("MD5");
+			} catch (final NoSuchAlgorithmException noMd5Exc) {
+				throw new RuntimeException("No available sha-1/md5 algorithms");
+			}
+		}
+	}
+
+	public File getBaseDirectory() {
+		return mBaseDirectory;
+	}
+
+	public synchronized File getCacheFile(String key) {
+		this.mHash.update(key.getBytes());
+		byte[] digest = this.mHash.digest();
+		BigInteger digestBigInteger = new BigInteger(1, digest);
+		String hash = digestBigInteger.toString(16);
+
+		return new File(this.mBaseDirectory, hash + this.mPostfix);
+	}
+
+	synchronized void recordHit() {
+		mHitCount++;
+	}
+
+	synchronized void recordMiss() {
+		mMissCount++;
+	}
+
+	synchronized void recordPut() {
+		mPutCount++;
+	}
+
+	/**
+	 * Snapshot of counters with size of files in cache directory, reads
+	 * directory so it should not be called on ui thread
+	 */
+	public CacheStats stats() {
+		long size = 0;
+		int entries = 0;
+		File[] files = mBaseDirectory.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				if (file.isFile()) {
+					size += file.length();
+					entries++;
+				}
+			}
+		}
+		synchronized (this) {
+			return new CacheStats(mHitCount, mMissCount, mPutCount, 0, entries,
+					size, CacheStats.UNKNOWN);
+		}
+	}
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2013 Appunite.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.appunite.imageloader;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * File with keys of most recently used images, so memory cache can be
+ * warmed up after process restart.
+ *
+ * Keys are stored one per line in given order. File is replaced atomically
+ * by renaming temporary file.
+ */
+@SuppressWarnings("UnusedDeclaration")
+public class HotKeyStore {
+
+    private static final String CHARSET = "UTF-8";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private final File mFile;
+    private final int mMaxKeys;
+
+    /**
+     * @param file
+     *            file with keys
+     * @param maxKeys
+     *            maximal number of stored keys, further keys are ignored
+     */
+    public HotKeyStore(File file, int maxKeys) {
+        if (file == null) {
+            throw new IllegalArgumentException("File could not be null");
+        }
+        if (maxKeys <= 0) {
+            throw new IllegalArgumentException("Max keys have to be grater than 0");
+        }
+        mFile = file;
+        mMaxKeys = maxKeys;
+    }
+
+    public File getFile() {
+        return mFile;
+    }
+
+    /**
+     * Replace stored keys
+     *
+     * @param keys
+     *            keys in order of importance, keys containing line breaks are
+     *            skipped
+     */
+    public synchronized void save(List<String> keys) throws IOException {
+        File temp = new File(mFile.getPath() + TEMP_SUFFIX);
+        BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(temp), CHARSET));
+        try {
+            int count = 0;
+            for (String key : keys) {
+                if (count >= mMaxKeys) {
+                    break;
+                }
+                if (key.indexOf('\n') >= 0 || key.indexOf('\r') >= 0) {
+                    continue;
+                }
+                writer.write(key);
+                writer.write('\n');
+                count++;
+            }
+        } finally {
+            writer.close();
+        }
+        if (!temp.renameTo(mFile)) {
+            //noinspection ResultOfMethodCallIgnored
+            temp.delete();
+            throw new IOException("Could not rename " + temp + " to " + mFile);
+        }
+    }
+
+    /**
+     * @return stored keys in order they were saved, empty if nothing was
+     *         saved
+     */
+    public synchronized List<String> load() throws IOException {
+        List<String> keys = new ArrayList<String>();
+        BufferedReader reader;
+        try {
+            reader = new BufferedReader(new InputStreamReader(
+                    new FileInputStream(mFile), CHARSET));
+        } catch (FileNotFoundException e) {
+            return keys;
+        }
+        try {
+            String line;
+            while ((line = reader.readLine()) != null && keys.size() < mMaxKeys) {
+                if (line.length() > 0) {
+                    keys.add(line);
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return keys;
+    }
+}
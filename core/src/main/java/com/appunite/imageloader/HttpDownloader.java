@@ -0,0 +1,674 @@
+/*
+ * Copyright (C) 2013 Appunite.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.appunite.imageloader;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Downloads http and https resources through {@link HttpTransport} and keeps
+ * them in {@link FileCache}.
+ *
+ * Response is written to partial file that becomes cache entry when whole
+ * body arrives. If download fails and server gave strong ETag or
+ * Last-Modified validator, partial file is kept and next fetch resumes it
+ * with Range request. If server ignores Range or resource has changed, full
+ * response is fetched again.
+ *
+ * Downloads are aborted with {@link ImageRejectedException} as soon as
+ * Content-Length, received bytes or dimensions sniffed from header exceed
+ * {@link ImageLimits}, or when response turns out to be text (e.g. html
+ * error page served with status 200).
+ *
+ * Only one download of a cache file runs at once in the process, other
+ * callers wait for it and get the cached file.
+ */
+public class HttpDownloader {
+
+	private static final int MAX_IN_MEMORY_SIZE = 4 * 1024 * 1024;
+	private static final int DEFAULT_IN_MEMORY_SIZE = 32 * 1024;
+	private static final int MAX_VALIDATOR_LENGTH = 1024;
+	private static final int HTTP_RANGE_NOT_SATISFIABLE = 416;
+	private static final int SNIFF_INITIAL_SIZE = 4 * 1024;
+	private static final int SNIFF_MAX_SIZE = 128 * 1024;
+	private static final int TEXT_SNIFF_LENGTH = 64;
+
+	private static final String PARTIAL_SUFFIX = ".part";
+	private static final String VALIDATOR_SUFFIX = ".validator";
+
+	/**
+	 * Locks of cache files being downloaded by path, shared by all
+	 * downloaders
+	 */
+	private static final Map<String, DownloadLock> sDownloadLocks =
+			new HashMap<String, DownloadLock>();
+
+	private static class DownloadLock extends ReentrantLock {
+		private static final long serialVersionUID = 1L;
+
+		int mUsers = 0;
+	}
+
+	/**
+	 * Output stream that gives access to its buffer without copying
+	 */
+	private static class ImageBuffer extends ByteArrayOutputStream {
+		ImageBuffer(int size) {
+			super(size);
+		}
+
+		byte[] getBuffer() {
+			return buf;
+		}
+	}
+
+	/**
+	 * Collects beginning of response and checks parsed header against limits
+	 */
+	private static class HeaderSniffer {
+		private final ImageHeaderParser mHeader = new ImageHeaderParser();
+		private final ImageLimits mLimits;
+		private final String mResource;
+		private byte[] mData = new byte[SNIFF_INITIAL_SIZE];
+		private int mLength = 0;
+		private boolean mDone = false;
+
+		HeaderSniffer(ImageLimits limits, String resource) {
+			mLimits = limits;
+			mResource = resource;
+		}
+
+		void update(byte[] buffer, int count) {
+			int offset = 0;
+			while (!mDone && offset < count) {
+				if (mLength >= SNIFF_MAX_SIZE && !dropParsed()) {
+					// single jpeg segment is shorter than window, so this
+					// is a broken file
+					finish();
+					return;
+				}
+				int toCopy = Math.min(count - offset, SNIFF_MAX_SIZE - mLength);
+				if (mLength + toCopy > mData.length) {
+					int newSize = Math.min(Math.max(mData.length * 2, mLength + toCopy),
+							SNIFF_MAX_SIZE);
+					byte[] newData = new byte[newSize];
+					System.arraycopy(mData, 0, newData, 0, mLength);
+					mData = newData;
+				}
+				System.arraycopy(buffer, offset, mData, mLength, toCopy);
+				offset += toCopy;
+				mLength += toCopy;
+				mHeader.update(mData, mLength);
+				if (mHeader.isComplete()) {
+					mDone = true;
+					check();
+				}
+			}
+		}
+
+		/**
+		 * Drop already parsed jpeg segments from full window, so frame
+		 * header behind large exif or thumbnails is still checked
+		 *
+		 * @return true if some bytes were dropped
+		 */
+		private boolean dropParsed() {
+			int parsed = Math.min(mHeader.getParsedLength(), mLength);
+			if (parsed == 0) {
+				return false;
+			}
+			System.arraycopy(mData, parsed, mData, 0, mLength - parsed);
+			mLength -= parsed;
+			mHeader.discard(parsed);
+			return true;
+		}
+
+		private void check() {
+			if (mHeader.getFormat() == ImageHeaderParser.FORMAT_UNKNOWN
+					&& looksLikeText()) {
+				throw new ImageRejectedException("Response is not an image: " + mResource);
+			}
+			if (mHeader.hasDimensions()) {
+				mLimits.checkDimensions(mHeader.getWidth(), mHeader.getHeight(), mResource);
+			}
+		}
+
+		private boolean looksLikeText() {
+			int length = Math.min(mLength, TEXT_SNIFF_LENGTH);
+			for (int i = 0; i < length; i++) {
+				int c = mData[i] & 0xff;
+				if (c >= 0x7f || (c < 0x20 && c != '\t' && c != '\n' && c != '\r')) {
+					return false;
+				}
+			}
+			return length > 0;
+		}
+
+		/**
+		 * @return true if header was checked and more data is not needed
+		 */
+		boolean isDone() {
+			return mDone;
+		}
+
+		/**
+		 * Check header of responses shorter than header
+		 */
+		void finish() {
+			if (!mDone) {
+				mDone = true;
+				check();
+			}
+		}
+
+		ImageHeaderParser getHeader() {
+			return mHeader;
+		}
+	}
+
+	/**
+	 * Downloaded resource
+	 */
+	public static class Result {
+		private final File mFile;
+		private final byte[] mData;
+		private final int mLength;
+		private final ImageHeaderParser mHeader;
+		private final boolean mCached;
+		private final long mReceivedBytes;
+
+		Result(File file, byte[] data, int length, ImageHeaderParser header,
+				boolean cached, long receivedBytes) {
+			mFile = file;
+			mData = data;
+			mLength = length;
+			mHeader = header;
+			mCached = cached;
+			mReceivedBytes = receivedBytes;
+		}
+
+		/**
+		 * @return cache file with whole resource
+		 */
+		public File getFile() {
+			return mFile;
+		}
+
+		/**
+		 * @return bytes of resource kept in memory while downloading or null
+		 *         if resource was already cached or is too large
+		 */
+		public byte[] getData() {
+			return mData;
+		}
+
+		/**
+		 * @return number of valid bytes in data
+		 */
+		public int getLength() {
+			return mLength;
+		}
+
+		/**
+		 * @return header parsed while downloading or null
+		 */
+		public ImageHeaderParser getHeader() {
+			return mHeader;
+		}
+
+		/**
+		 * @return true if resource was already cached and nothing was
+		 *         downloaded
+		 */
+		public boolean isCached() {
+			return mCached;
+		}
+
+		/**
+		 * @return number of body bytes received from network
+		 */
+		public long getReceivedBytes() {
+			return mReceivedBytes;
+		}
+	}
+
+	private final FileCache mFileCache;
+	private final HttpTransport mHttpTransport;
+	private final ByteArrayPool mBufferPool;
+	private final ImageLimits mLimits;
+
+	public HttpDownloader(FileCache fileCache, HttpTransport httpTransport) {
+		this(fileCache, httpTransport, ByteArrayPool.getDefault(),
+				ImageLimits.getDefault());
+	}
+
+	/**
+	 * @param bufferPool
+	 *            pool of buffers used for copying response
+	 * @param limits
+	 *            limits of downloaded images
+	 */
+	public HttpDownloader(FileCache fileCache, HttpTransport httpTransport,
+			ByteArrayPool bufferPool, ImageLimits limits) {
+		mFileCache = fileCache;
+		mHttpTransport = httpTransport;
+		mBufferPool = bufferPool;
+		mLimits = limits;
+	}
+
+	/**
+	 * Download resource unless it is already cached
+	 *
+	 * @param resource
+	 *            url of resource
+	 * @return downloaded resource
+	 * @throws IOException
+	 *             when resource could not be downloaded
+	 * @throws ImageRejectedException
+	 *             when resource exceeds limits or is not an image
+	 */
+	public Result download(String resource) throws IOException {
+		File cacheFile = mFileCache.getCacheFile(resource);
+		if (cacheFile.exists()) {
+			mFileCache.recordHit();
+			return new Result(cacheFile, null, 0, null, true, 0);
+		}
+		String path = cacheFile.getPath();
+		DownloadLock lock = acquireLock(path);
+		try {
+			try {
+				lock.lockInterruptibly();
+			} catch (InterruptedException e) {
+				throw new InterruptedIOException("Interrupted while waiting for download of " +
+						resource);
+			}
+			try {
+				// other thread could download it while we were waiting
+				if (cacheFile.exists()) {
+					mFileCache.recordHit();
+					return new Result(cacheFile, null, 0, null, true, 0);
+				}
+				return downloadLocked(resource, cacheFile);
+			} finally {
+				lock.unlock();
+			}
+		} finally {
+			releaseLock(path, lock);
+		}
+	}
+
+	private static DownloadLock acquireLock(String path) {
+		synchronized (sDownloadLocks) {
+			DownloadLock lock = sDownloadLocks.get(path);
+			if (lock == null) {
+				lock = new DownloadLock();
+				sDownloadLocks.put(path, lock);
+			}
+			lock.mUsers++;
+			return lock;
+		}
+	}
+
+	private static void releaseLock(String path, DownloadLock lock) {
+		synchronized (sDownloadLocks) {
+			lock.mUsers--;
+			if (lock.mUsers == 0) {
+				sDownloadLocks.remove(path);
+			}
+		}
+	}
+
+	/**
+	 * Download resource holding lock of its cache file
+	 */
+	private Result downloadLocked(String resource, File cacheFile) throws IOException {
+		mFileCache.recordMiss();
+		File partialFile = new File(cacheFile.getPath() + PARTIAL_SUFFIX);
+		File validatorFile = new File(cacheFile.getPath() + VALIDATOR_SUFFIX);
+
+		long offset = 0;
+		String validator = null;
+		if (partialFile.length() > 0) {
+			validator = readValidator(validatorFile);
+			if (validator != null) {
+				offset = partialFile.length();
+			}
+		}
+
+		HttpTransport.Response response;
+		try {
+			response = mHttpTransport.execute(resource,
+					getRequestHeaders(offset, validator));
+		} catch (HttpTransport.HttpResponseException e) {
+			if (offset == 0 || e.getResponseCode() != HTTP_RANGE_NOT_SATISFIABLE) {
+				throw e;
+			}
+			offset = 0;
+			response = mHttpTransport.execute(resource, getRequestHeaders(0, null));
+		}
+		try {
+			checkResponse(response, resource, offset);
+			if (offset > 0
+					&& response.getResponseCode() == HttpURLConnection.HTTP_PARTIAL) {
+				if (getContentRangeStart(response) != offset) {
+					deletePartial(partialFile, validatorFile);
+					throw new IOException("Unexpected Content-Range for: " + resource);
+				}
+				// previous attempt could fail before header was complete
+				HeaderSniffer sniffer = new HeaderSniffer(mLimits, resource);
+				sniffPartial(partialFile, sniffer);
+				long receivedBytes = appendToPartial(response.getInputStream(),
+						partialFile, offset, resource, sniffer,
+						response.getContentLength());
+				commitPartial(partialFile, validatorFile, cacheFile);
+				mFileCache.recordPut();
+				return new Result(cacheFile, null, 0, sniffer.getHeader(), false,
+						receivedBytes);
+			}
+			// server sent whole body
+			boolean resumable = writeValidator(validatorFile, getValidator(response));
+			return saveInDiskCache(response.getInputStream(), resource,
+					partialFile, validatorFile, cacheFile,
+					response.getContentLength(), resumable);
+		} catch (ImageRejectedException e) {
+			deletePartial(partialFile, validatorFile);
+			throw e;
+		} finally {
+			response.close();
+		}
+	}
+
+	/**
+	 * Reject response before reading its body
+	 *
+	 * @param offset
+	 *            number of bytes already downloaded
+	 */
+	private void checkResponse(HttpTransport.Response response,
+			String resource, long offset) {
+		String contentType = response.getHeader("Content-Type");
+		if (contentType != null && contentType.startsWith("text/")) {
+			throw new ImageRejectedException("Response has content type "
+					+ contentType + ": " + resource);
+		}
+		long contentLength = response.getContentLength();
+		if (contentLength < 0) {
+			return;
+		}
+		if (response.getResponseCode() == HttpURLConnection.HTTP_PARTIAL) {
+			contentLength += offset;
+		}
+		mLimits.checkBytes(contentLength, resource);
+	}
+
+	private static Map<String, String> getRequestHeaders(long offset, String validator) {
+		Map<String, String> headers = new HashMap<String, String>();
+		// transparent compression would break byte ranges
+		headers.put("Accept-Encoding", "identity");
+		if (offset > 0) {
+			headers.put("Range", "bytes=" + offset + "-");
+			headers.put("If-Range", validator);
+		}
+		return headers;
+	}
+
+	/**
+	 * @return strong validator usable in If-Range header or null
+	 */
+	private static String getValidator(HttpTransport.Response response) {
+		String eTag = response.getHeader("ETag");
+		if (eTag != null && !eTag.startsWith("W/")) {
+			return eTag;
+		}
+		return response.getHeader("Last-Modified");
+	}
+
+	/**
+	 * @return Content-Range start position or -1 if header is missing
+	 */
+	private static long getContentRangeStart(HttpTransport.Response response) {
+		// bytes 100-999/1000
+		String contentRange = response.getHeader("Content-Range");
+		if (contentRange == null || !contentRange.startsWith("bytes ")) {
+			return -1;
+		}
+		int dash = contentRange.indexOf('-');
+		if (dash < 0) {
+			return -1;
+		}
+		try {
+			return Long.parseLong(contentRange.substring("bytes ".length(), dash).trim());
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	private static String readValidator(File validatorFile) {
+		long length = validatorFile.length();
+		if (length <= 0 || length > MAX_VALIDATOR_LENGTH) {
+			return null;
+		}
+		byte[] data = new byte[(int) length];
+		try {
+			InputStream inputStream = new FileInputStream(validatorFile);
+			try {
+				int offset = 0;
+				while (offset < data.length) {
+					int read = inputStream.read(data, offset, data.length - offset);
+					if (read < 0) {
+						return null;
+					}
+					offset += read;
+				}
+			} finally {
+				inputStream.close();
+			}
+			return new String(data, "UTF-8");
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * @return true if validator was saved and download can be resumed
+	 */
+	private static boolean writeValidator(File validatorFile, String validator) {
+		if (validator == null) {
+			//noinspection ResultOfMethodCallIgnored
+			validatorFile.delete();
+			return false;
+		}
+		try {
+			OutputStream outputStream = new FileOutputStream(validatorFile);
+			try {
+				outputStream.write(validator.getBytes("UTF-8"));
+			} finally {
+				outputStream.close();
+			}
+			return true;
+		} catch (IOException e) {
+			//noinspection ResultOfMethodCallIgnored
+			validatorFile.delete();
+			return false;
+		}
+	}
+
+	private static void deletePartial(File partialFile, File validatorFile) {
+		//noinspection ResultOfMethodCallIgnored
+		partialFile.delete();
+		//noinspection ResultOfMethodCallIgnored
+		validatorFile.delete();
+	}
+
+	private static void commitPartial(File partialFile, File validatorFile,
+			File cacheFile) throws IOException {
+		if (!partialFile.renameTo(cacheFile)) {
+			deletePartial(partialFile, validatorFile);
+			throw new IOException("Could not rename: " + partialFile);
+		}
+		//noinspection ResultOfMethodCallIgnored
+		validatorFile.delete();
+	}
+
+	/**
+	 * Pass beginning of partial file to sniffer until header is checked
+	 */
+	private void sniffPartial(File partialFile, HeaderSniffer sniffer)
+			throws IOException {
+		InputStream inputStream = new FileInputStream(partialFile);
+		byte[] buffer = mBufferPool.acquire();
+		try {
+			int bytesRead;
+			while (!sniffer.isDone() && (bytesRead = inputStream.read(buffer)) != -1) {
+				sniffer.update(buffer, bytesRead);
+			}
+		} finally {
+			mBufferPool.release(buffer);
+			inputStream.close();
+		}
+	}
+
+	/**
+	 * Append rest of body to partial file. Partial file is kept on failure,
+	 * written bytes are always valid prefix of resource.
+	 *
+	 * @param sniffer
+	 *            sniffer that already got bytes of partial file
+	 * @param expectedLength
+	 *            expected number of appended bytes or -1 if unknown
+	 * @return number of appended bytes
+	 */
+	private long appendToPartial(InputStream reader, File partialFile,
+			long offset, String resource, HeaderSniffer sniffer,
+			long expectedLength) throws IOException {
+		OutputStream outputStream = new FileOutputStream(partialFile, true);
+		byte[] buffer = mBufferPool.acquire();
+		try {
+			long total = offset;
+			int bytesRead;
+			while ((bytesRead = reader.read(buffer)) != -1) {
+				total += bytesRead;
+				mLimits.checkBytes(total, resource);
+				sniffer.update(buffer, bytesRead);
+				outputStream.write(buffer, 0, bytesRead);
+			}
+			outputStream.flush();
+			checkComplete(total - offset, expectedLength, resource);
+			sniffer.finish();
+			return total - offset;
+		} finally {
+			mBufferPool.release(buffer);
+			outputStream.close();
+		}
+	}
+
+	/**
+	 * Some transports (e.g. HttpURLConnection of desktop JVM) report
+	 * connection closed in the middle of body as its end
+	 *
+	 * @throws IOException
+	 *             if fewer bytes than Content-Length were received
+	 */
+	private static void checkComplete(long received, long expectedLength,
+			String resource) throws IOException {
+		if (expectedLength >= 0 && received != expectedLength) {
+			throw new IOException(String.format(Locale.US,
+					"Received %d of %d bytes: %s", received, expectedLength, resource));
+		}
+	}
+
+	private static int getMaxInMemorySize() {
+		long heapLimit = Runtime.getRuntime().maxMemory() / 16;
+		return (int) Math.min(MAX_IN_MEMORY_SIZE, heapLimit);
+	}
+
+	/**
+	 * Save stream to disk cache and at the same time keep its bytes in memory
+	 * and parse its header, so image can be decoded as soon as last byte
+	 * arrives. Images larger than in-memory limit are only written to file.
+	 *
+	 * @param expectedLength
+	 *            expected number of bytes or -1 if unknown
+	 * @param resumable
+	 *            true if partial file should be kept on failure
+	 */
+	private Result saveInDiskCache(InputStream reader, String resource,
+			File partialFile, File validatorFile, File cacheFile,
+			long expectedLength, boolean resumable) throws IOException {
+		boolean success = false;
+		int maxInMemorySize = getMaxInMemorySize();
+		ImageBuffer memory = null;
+		if (expectedLength <= maxInMemorySize) {
+			memory = new ImageBuffer(expectedLength > 0
+					? (int) expectedLength : DEFAULT_IN_MEMORY_SIZE);
+		}
+		HeaderSniffer sniffer = new HeaderSniffer(mLimits, resource);
+		long total = 0;
+		try {
+
+            OutputStream outputStream = new FileOutputStream(partialFile);
+			byte[] buffer = mBufferPool.acquire();
+			try {
+                int bytesRead;
+				while ((bytesRead = reader.read(buffer)) != -1) {
+					total += bytesRead;
+					mLimits.checkBytes(total, resource);
+					sniffer.update(buffer, bytesRead);
+					outputStream.write(buffer, 0, bytesRead);
+					if (memory == null) {
+						continue;
+					}
+					if (memory.size() + bytesRead > maxInMemorySize) {
+						memory = null;
+						continue;
+					}
+					memory.write(buffer, 0, bytesRead);
+				}
+				outputStream.flush();
+				checkComplete(total, expectedLength, resource);
+				sniffer.finish();
+			} finally {
+				mBufferPool.release(buffer);
+				outputStream.close();
+			}
+			commitPartial(partialFile, validatorFile, cacheFile);
+			mFileCache.recordPut();
+			success = true;
+			if (memory == null) {
+				return new Result(cacheFile, null, 0, sniffer.getHeader(),
+						false, total);
+			}
+			return new Result(cacheFile, memory.getBuffer(), memory.size(),
+					sniffer.getHeader(), false, total);
+		} finally {
+			if (!success && !resumable) {
+				deletePartial(partialFile, validatorFile);
+			}
+		}
+	}
+}
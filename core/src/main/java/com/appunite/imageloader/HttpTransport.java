@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2013 Appunite.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.appunite.imageloader;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+
+/**
+ * Transport used by {@link HttpDownloader} to fetch http and https resources.
+ *
+ * Implementations have to be thread safe, one instance is shared by all
+ * download threads of a loader.
+ */
+public interface HttpTransport {
+
+    /**
+     * Thrown when server responds with unexpected status code
+     */
+    public static class HttpResponseException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        private final int mResponseCode;
+
+        public HttpResponseException(int responseCode, String url) {
+            super("Unexpected response code " + responseCode + " for: " + url);
+            mResponseCode = responseCode;
+        }
+
+        public int getResponseCode() {
+            return mResponseCode;
+        }
+    }
+
+    public static interface Response {
+        /**
+         * @return http status code of response
+         */
+        int getResponseCode();
+
+        /**
+         * @return value of Content-Length header or -1 if unknown
+         */
+        long getContentLength();
+
+        /**
+         * @param name header name
+         * @return header value or null if header is not present
+         */
+        String getHeader(String name);
+
+        InputStream getInputStream() throws IOException;
+
+        /**
+         * Release response. Have to be always called, even if input stream
+         * was not read. Connection can be reused only if body was fully read.
+         */
+        void close();
+    }
+
+    /**
+     * Execute GET request
+     *
+     * @param url
+     *            http or https url
+     * @return response with successful (2xx) status code, never null
+     * @throws IOException
+     *             when connection fails, times out or server returns error
+     *             ({@link HttpResponseException})
+     */
+    Response execute(String url) throws IOException;
+
+    /**
+     * Execute GET request with additional headers
+     *
+     * @param url
+     *            http or https url
+     * @param requestHeaders
+     *            headers added to request, can be null
+     * @return response with successful (2xx) status code, never null
+     * @throws IOException
+     *             when connection fails, times out or server returns error
+     *             ({@link HttpResponseException})
+     */
+    Response execute(String url, Map<String, String> requestHeaders) throws IOException;
+}
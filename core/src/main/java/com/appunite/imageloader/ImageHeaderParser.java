@@ -0,0 +1,352 @@
+/*
+ * Copyright (C) 2013 Appunite.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.appunite.imageloader;
+
+/**
+ * Incremental parser of image headers.
+ *
+ * Parser is fed with growing prefix of image data and detects format,
+ * dimensions and for jpeg files exif orientation, without decoding image.
+ * Jpeg markers are walked until start of frame, exif orientation is read
+ * from APP1 segment.
+ */
+public class ImageHeaderParser {
+
+    public static final int FORMAT_UNKNOWN = 0;
+    public static final int FORMAT_JPEG = 1;
+    public static final int FORMAT_PNG = 2;
+    public static final int FORMAT_GIF = 3;
+    public static final int FORMAT_WEBP = 4;
+    public static final int FORMAT_BMP = 5;
+
+    /**
+     * Same values as {@code android.media.ExifInterface} orientation constants
+     */
+    public static final int ORIENTATION_NORMAL = 1;
+    private static final int ORIENTATION_TRANSPOSE = 5;
+    private static final int ORIENTATION_ROTATE_270 = 8;
+
+    private static final int MIN_SIGNATURE_LENGTH = 12;
+
+    private static final int MARKER_SOI = 0xd8;
+    private static final int MARKER_EOI = 0xd9;
+    private static final int MARKER_SOS = 0xda;
+    private static final int MARKER_APP1 = 0xe1;
+    private static final int MARKER_TEM = 0x01;
+    private static final int MARKER_RST0 = 0xd0;
+    private static final int MARKER_RST7 = 0xd7;
+
+    private static final int EXIF_TAG_ORIENTATION = 0x0112;
+
+    private int mFormat = FORMAT_UNKNOWN;
+    private int mWidth = -1;
+    private int mHeight = -1;
+    private int mOrientation = ORIENTATION_NORMAL;
+    private boolean mComplete = false;
+    private int mPosition = 0;
+
+    /**
+     * Parse data
+     *
+     * @param data
+     *            image data from its beginning, previous calls have to get
+     *            prefix of this data
+     * @param length
+     *            number of valid bytes in data
+     * @return true if parsing is complete and more data is not needed
+     */
+    public boolean update(byte[] data, int length) {
+        if (mComplete) {
+            return true;
+        }
+        if (mFormat == FORMAT_UNKNOWN) {
+            if (length < MIN_SIGNATURE_LENGTH) {
+                return false;
+            }
+            mFormat = detectFormat(data);
+            if (mFormat == FORMAT_UNKNOWN) {
+                mComplete = true;
+                return true;
+            }
+        }
+        switch (mFormat) {
+            case FORMAT_JPEG:
+                parseJpeg(data, length);
+                break;
+            case FORMAT_PNG:
+                parsePng(data, length);
+                break;
+            case FORMAT_GIF:
+                parseGif(data);
+                break;
+            case FORMAT_BMP:
+                parseBmp(data, length);
+                break;
+            default:
+                // dimensions of other formats have to be decoded by BitmapFactory
+                mComplete = true;
+                break;
+        }
+        return mComplete;
+    }
+
+    public boolean isComplete() {
+        return mComplete;
+    }
+
+    /**
+     * @return number of bytes from the beginning of data that will not be
+     *         read again, caller may drop them with {@link #discard(int)}
+     */
+    int getParsedLength() {
+        return mFormat == FORMAT_JPEG ? mPosition : 0;
+    }
+
+    /**
+     * Forget parsed prefix of data, next calls get data without it
+     *
+     * @param count
+     *            number of bytes dropped, not greater than
+     *            {@link #getParsedLength()}
+     */
+    void discard(int count) {
+        if (count > getParsedLength()) {
+            throw new IllegalArgumentException("Could not discard unparsed data");
+        }
+        mPosition -= count;
+    }
+
+    public int getFormat() {
+        return mFormat;
+    }
+
+    /**
+     * @return true if parser found image dimensions
+     */
+    public boolean hasDimensions() {
+        return mWidth > 0 && mHeight > 0;
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    /**
+     * @return true if image can not contain transparent pixels, other
+     *         formats may carry alpha channel or transparency chunks
+     */
+    public boolean isOpaque() {
+        return mFormat == FORMAT_JPEG;
+    }
+
+    /**
+     * @return exif orientation, {@link #ORIENTATION_NORMAL} if not present
+     */
+    public int getExifOrientation() {
+        return mOrientation;
+    }
+
+    /**
+     * @return true if exif orientation swaps width and height of image
+     */
+    public boolean isTransposed() {
+        return mOrientation >= ORIENTATION_TRANSPOSE
+                && mOrientation <= ORIENTATION_ROTATE_270;
+    }
+
+    private static int detectFormat(byte[] data) {
+        if (unsigned(data[0]) == 0xff && unsigned(data[1]) == MARKER_SOI) {
+            return FORMAT_JPEG;
+        }
+        if (unsigned(data[0]) == 0x89 && data[1] == 'P' && data[2] == 'N' && data[3] == 'G') {
+            return FORMAT_PNG;
+        }
+        if (data[0] == 'G' && data[1] == 'I' && data[2] == 'F' && data[3] == '8') {
+            return FORMAT_GIF;
+        }
+        if (data[0] == 'B' && data[1] == 'M') {
+            return FORMAT_BMP;
+        }
+        if (data[0] == 'R' && data[1] == 'I' && data[2] == 'F' && data[3] == 'F'
+                && data[8] == 'W' && data[9] == 'E' && data[10] == 'B' && data[11] == 'P') {
+            return FORMAT_WEBP;
+        }
+        return FORMAT_UNKNOWN;
+    }
+
+    private void parsePng(byte[] data, int length) {
+        // signature (8), IHDR chunk length (4), chunk type (4), width (4), height (4)
+        if (length < 24) {
+            return;
+        }
+        mWidth = readInt(data, 16, true);
+        mHeight = readInt(data, 20, true);
+        mComplete = true;
+    }
+
+    private void parseGif(byte[] data) {
+        mWidth = readUnsignedShort(data, 6, false);
+        mHeight = readUnsignedShort(data, 8, false);
+        mComplete = true;
+    }
+
+    private void parseBmp(byte[] data, int length) {
+        // file header (14), info header size (4), width (4), height (4)
+        if (length < 26) {
+            return;
+        }
+        mWidth = readInt(data, 18, false);
+        // negative height means top-down bitmap
+        mHeight = Math.abs(readInt(data, 22, false));
+        mComplete = true;
+    }
+
+    private static boolean isStartOfFrame(int marker) {
+        return marker >= 0xc0 && marker <= 0xcf
+                && marker != 0xc4 // DHT
+                && marker != 0xc8 // JPG
+                && marker != 0xcc; // DAC
+    }
+
+    private void parseJpeg(byte[] data, int length) {
+        if (mPosition == 0) {
+            mPosition = 2; // skip SOI
+        }
+        while (true) {
+            int position = mPosition;
+            if (position >= length) {
+                return;
+            }
+            if (unsigned(data[position]) != 0xff) {
+                // broken file
+                mComplete = true;
+                return;
+            }
+            while (position < length && unsigned(data[position]) == 0xff) {
+                position++;
+            }
+            if (position >= length) {
+                return;
+            }
+            int marker = unsigned(data[position]);
+            position++;
+            if (marker == MARKER_SOI || marker == MARKER_TEM
+                    || (marker >= MARKER_RST0 && marker <= MARKER_RST7)) {
+                // markers without payload
+                mPosition = position;
+                continue;
+            }
+            if (marker == MARKER_SOS || marker == MARKER_EOI) {
+                // image data begins, there will be no more headers
+                mComplete = true;
+                return;
+            }
+            if (position + 2 > length) {
+                return;
+            }
+            int segmentLength = readUnsignedShort(data, position, true);
+            if (segmentLength < 2) {
+                mComplete = true;
+                return;
+            }
+            int segmentStart = position + 2;
+            int segmentEnd = position + segmentLength;
+            if (isStartOfFrame(marker)) {
+                // precision (1), height (2), width (2)
+                if (segmentStart + 5 > length) {
+                    return;
+                }
+                mHeight = readUnsignedShort(data, segmentStart + 1, true);
+                mWidth = readUnsignedShort(data, segmentStart + 3, true);
+                mComplete = true;
+                return;
+            }
+            if (marker == MARKER_APP1) {
+                if (segmentEnd > length) {
+                    return;
+                }
+                parseExif(data, segmentStart, segmentEnd);
+            }
+            mPosition = segmentEnd;
+        }
+    }
+
+    private void parseExif(byte[] data, int start, int end) {
+        if (end - start < 14 || data[start] != 'E' || data[start + 1] != 'x'
+                || data[start + 2] != 'i' || data[start + 3] != 'f'
+                || data[start + 4] != 0 || data[start + 5] != 0) {
+            return;
+        }
+        int tiff = start + 6;
+        boolean bigEndian;
+        if (data[tiff] == 'M' && data[tiff + 1] == 'M') {
+            bigEndian = true;
+        } else if (data[tiff] == 'I' && data[tiff + 1] == 'I') {
+            bigEndian = false;
+        } else {
+            return;
+        }
+        if (readUnsignedShort(data, tiff + 2, bigEndian) != 42) {
+            return;
+        }
+        int ifdOffset = readInt(data, tiff + 4, bigEndian);
+        if (ifdOffset < 8 || ifdOffset > end - tiff - 2) {
+            return;
+        }
+        int ifd = tiff + ifdOffset;
+        int entries = readUnsignedShort(data, ifd, bigEndian);
+        for (int i = 0; i < entries; i++) {
+            int entry = ifd + 2 + i * 12;
+            if (entry + 12 > end) {
+                return;
+            }
+            if (readUnsignedShort(data, entry, bigEndian) == EXIF_TAG_ORIENTATION) {
+                int orientation = readUnsignedShort(data, entry + 8, bigEndian);
+                if (orientation >= 1 && orientation <= 8) {
+                    mOrientation = orientation;
+                }
+                return;
+            }
+        }
+    }
+
+    private static int unsigned(byte value) {
+        return value & 0xff;
+    }
+
+    private static int readUnsignedShort(byte[] data, int offset, boolean bigEndian) {
+        if (bigEndian) {
+            return (unsigned(data[offset]) << 8) | unsigned(data[offset + 1]);
+        } else {
+            return unsigned(data[offset]) | (unsigned(data[offset + 1]) << 8);
+        }
+    }
+
+    private static int readInt(byte[] data, int offset, boolean bigEndian) {
+        if (bigEndian) {
+            return (readUnsignedShort(data, offset, true) << 16)
+                    | readUnsignedShort(data, offset + 2, true);
+        } else {
+            return readUnsignedShort(data, offset, false)
+                    | (readUnsignedShort(data, offset + 2, false) << 16);
+        }
+    }
+}
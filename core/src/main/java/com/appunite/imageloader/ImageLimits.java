@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2013 Appunite.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.appunite.imageloader;
+
+import java.util.Locale;
+
+/**
+ * Limits of fetched images. Http downloads are aborted as soon as
+ * Content-Length, number of received bytes or dimensions sniffed from image
+ * header exceed limits.
+ *
+ * Global limits are returned by {@link #getDefault()}, limits of one loader
+ * can be changed by {@code RemoteImageLoader.setImageLimits(ImageLimits)}.
+ */
+@SuppressWarnings("UnusedDeclaration")
+public class ImageLimits {
+
+    public static final long UNLIMITED = Long.MAX_VALUE;
+
+    public static final long DEFAULT_MAX_BYTES = 16 * 1024 * 1024;
+    public static final long DEFAULT_MAX_PIXELS = 50L * 1000 * 1000;
+
+    private static ImageLimits sDefault = new ImageLimits(DEFAULT_MAX_BYTES,
+            DEFAULT_MAX_PIXELS);
+
+    private final long mMaxBytes;
+    private final long mMaxPixels;
+
+    /**
+     * @param maxBytes
+     *            maximal size of resource or {@link #UNLIMITED}
+     * @param maxPixels
+     *            maximal number of pixels of source image (before scaling) or
+     *            {@link #UNLIMITED}
+     */
+    public ImageLimits(long maxBytes, long maxPixels) {
+        if (maxBytes <= 0 || maxPixels <= 0) {
+            throw new IllegalArgumentException("Limits have to be grater than 0");
+        }
+        mMaxBytes = maxBytes;
+        mMaxPixels = maxPixels;
+    }
+
+    public static synchronized ImageLimits getDefault() {
+        return sDefault;
+    }
+
+    /**
+     * Change limits of all loaders that do not have own limits. Takes
+     * effect on next {@code RemoteImageLoader.onActivityResume()}.
+     */
+    public static synchronized void setDefault(ImageLimits limits) {
+        if (limits == null) {
+            throw new IllegalArgumentException("Limits could not be null");
+        }
+        sDefault = limits;
+    }
+
+    public long getMaxBytes() {
+        return mMaxBytes;
+    }
+
+    public long getMaxPixels() {
+        return mMaxPixels;
+    }
+
+    /**
+     * @throws ImageRejectedException
+     *             if image has more bytes than allowed
+     */
+    public void checkBytes(long bytes, String resource) {
+        if (bytes > mMaxBytes) {
+            throw new ImageRejectedException(String.format(Locale.US,
+                    "Image has more than %d bytes: %s", mMaxBytes, resource));
+        }
+    }
+
+    /**
+     * @throws ImageRejectedException
+     *             if image has more pixels than allowed
+     */
+    public void checkDimensions(int width, int height, String resource) {
+        if ((long) width * (long) height > mMaxPixels) {
+            throw new ImageRejectedException(String.format(Locale.US,
+                    "Image %dx%d has more than %d pixels: %s", width, height,
+                    mMaxPixels, resource));
+        }
+    }
+}
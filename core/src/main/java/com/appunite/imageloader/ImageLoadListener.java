@@ -0,0 +1,31 @@
+/*
+ * Copyright (C) 2013 Appunite.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.appunite.imageloader;
+
+/**
+ * Receives trace of every finished image load, e.g. to collect metrics or
+ * log slow loads.
+ *
+ * Listener is called on thread which finished load (ui thread for loads
+ * delivered to holders), so it should return quickly.
+ *
+ * @see LoadMetrics
+ */
+public interface ImageLoadListener {
+
+    void onImageLoaded(LoadEvent event);
+}
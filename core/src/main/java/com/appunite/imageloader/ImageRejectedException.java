@@ -0,0 +1,30 @@
+/*
+ * Copyright (C) 2013 Appunite.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.appunite.imageloader;
+
+/**
+ * Thrown when fetched resource exceeds {@link ImageLimits} or is not an image.
+ * Download is aborted as soon as this is detected and resource is remembered
+ * as failed for longer time than other failures.
+ */
+public class ImageRejectedException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    public ImageRejectedException(String message) {
+        super(message);
+    }
+}
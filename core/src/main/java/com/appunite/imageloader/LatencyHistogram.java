@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2013 Appunite.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.appunite.imageloader;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed size histogram of latencies with relative precision of about 6%,
+ * bucketed the same way as HdrHistogram.
+ *
+ * Values below 32 have own buckets, every next power of two range is split
+ * into 16 buckets. Recording is lock free and does not allocate, so
+ * histogram can stay enabled in production. Percentiles read while values
+ * are recorded are approximate.
+ */
+@SuppressWarnings("UnusedDeclaration")
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_COUNT = 32;
+    private static final int SUB_BUCKET_HALF_COUNT = SUB_BUCKET_COUNT / 2;
+    private static final int SUB_BUCKET_HALF_BITS = 4;
+    /**
+     * Values above are recorded as this value (about 19 hours in
+     * microseconds)
+     */
+    private static final long MAX_VALUE = (1L << 36) - 1;
+    private static final int BUCKET_COUNT = getBucketIndex(MAX_VALUE) + 1;
+
+    private final AtomicLongArray mCounts = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong mTotalCount = new AtomicLong();
+    private final AtomicLong mMax = new AtomicLong();
+
+    static int getBucketIndex(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        // shift so value >> shift is in [16, 32)
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_HALF_BITS;
+        return SUB_BUCKET_COUNT + (shift - 1) * SUB_BUCKET_HALF_COUNT
+                + (int) (value >> shift) - SUB_BUCKET_HALF_COUNT;
+    }
+
+    /**
+     * @return highest value recorded in bucket
+     */
+    static long getBucketHighestValue(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        int shift = (index - SUB_BUCKET_COUNT) / SUB_BUCKET_HALF_COUNT + 1;
+        long subBucket = (index - SUB_BUCKET_COUNT) % SUB_BUCKET_HALF_COUNT
+                + SUB_BUCKET_HALF_COUNT;
+        return ((subBucket + 1) << shift) - 1;
+    }
+
+    /**
+     * @param value
+     *            non negative value, e.g. latency in microseconds
+     */
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        } else if (value > MAX_VALUE) {
+            value = MAX_VALUE;
+        }
+        mCounts.incrementAndGet(getBucketIndex(value));
+        mTotalCount.incrementAndGet();
+        long max = mMax.get();
+        while (value > max && !mMax.compareAndSet(max, value)) {
+            max = mMax.get();
+        }
+    }
+
+    public long getCount() {
+        return mTotalCount.get();
+    }
+
+    public long getMax() {
+        return mMax.get();
+    }
+
+    /**
+     * @param percentile
+     *            percentile from 0 to 100, e.g. 99.9
+     * @return value that given percent of recorded values does not exceed,
+     *         0 if nothing was recorded
+     */
+    public long getValueAtPercentile(double percentile) {
+        long totalCount = mTotalCount.get();
+        if (totalCount == 0) {
+            return 0;
+        }
+        double clamped = Math.min(Math.max(percentile, 0.0), 100.0);
+        long countAtPercentile = Math.max(1,
+                (long) Math.ceil(clamped / 100.0 * totalCount));
+        long count = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            count += mCounts.get(i);
+            if (count >= countAtPercentile) {
+                return Math.min(getBucketHighestValue(i), getMax());
+            }
+        }
+        return getMax();
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            mCounts.set(i, 0);
+        }
+        mTotalCount.set(0);
+        mMax.set(0);
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US,
+                "LatencyHistogram[count=%d,p50=%d,p95=%d,p99=%d,max=%d]",
+                getCount(), getValueAtPercentile(50), getValueAtPercentile(95),
+                getValueAtPercentile(99), getMax());
+    }
+}
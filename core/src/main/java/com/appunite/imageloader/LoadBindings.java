@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2013 Appunite.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.appunite.imageloader;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Current bindings of holders to requests of {@link LoadQueue}.
+ *
+ * Holder is bound to at most one request, binding it again releases
+ * previous binding, so holder never gets result of request it no longer
+ * waits for. Holders implementing {@link TokenHolder} keep their token
+ * themselves, tokens of other holders are kept in identity map, so holders
+ * that override equals do not share bindings.
+ *
+ * Not thread safe, owner calls it under its own lock or from single thread.
+ *
+ * @param <R>
+ *            request type
+ * @param <H>
+ *            holder type
+ */
+@SuppressWarnings("UnusedDeclaration")
+public class LoadBindings<R, H> {
+
+    /**
+     * Holder that keeps its current token, so binding does not need map
+     * lookup
+     */
+    public interface TokenHolder<H> {
+        LoadQueue.Token<H> getLoadToken();
+
+        void setLoadToken(LoadQueue.Token<H> token);
+    }
+
+    private final LoadQueue<R, H> mQueue;
+    private final Map<H, LoadQueue.Token<H>> mTokens =
+            new IdentityHashMap<H, LoadQueue.Token<H>>();
+
+    public LoadBindings(LoadQueue<R, H> queue) {
+        if (queue == null) {
+            throw new IllegalArgumentException("Queue could not be null");
+        }
+        mQueue = queue;
+    }
+
+    public LoadQueue<R, H> getQueue() {
+        return mQueue;
+    }
+
+    /**
+     * Bind holder to request, previous binding of holder is released
+     *
+     * @param urgent
+     *            true if request should be taken before not urgent ones
+     * @return token of this binding
+     */
+    public LoadQueue.Token<H> bind(H holder, String key, R request, boolean urgent) {
+        unbind(holder);
+        LoadQueue.Token<H> token = mQueue.put(key, request, holder, urgent);
+        setToken(holder, token);
+        return token;
+    }
+
+    /**
+     * Release current binding of holder
+     *
+     * @return true if holder was bound
+     */
+    public boolean unbind(H holder) {
+        LoadQueue.Token<H> token = getToken(holder);
+        if (token == null) {
+            return false;
+        }
+        setToken(holder, null);
+        mQueue.remove(token);
+        return true;
+    }
+
+    /**
+     * Complete request and release bindings of holders waiting for it
+     *
+     * @return holders that should get result of request
+     */
+    public List<H> finish(String key) {
+        List<LoadQueue.Token<H>> tokens = mQueue.finish(key);
+        List<H> holders = new ArrayList<H>(tokens.size());
+        for (LoadQueue.Token<H> token : tokens) {
+            // finished tokens are always current, previous ones were unbound
+            H holder = token.getHolder();
+            setToken(holder, null);
+            holders.add(holder);
+        }
+        return holders;
+    }
+
+    /**
+     * @return current token of holder or null if it is not bound
+     */
+    public LoadQueue.Token<H> getToken(H holder) {
+        if (holder instanceof TokenHolder) {
+            @SuppressWarnings("unchecked")
+            TokenHolder<H> tokenHolder = (TokenHolder<H>) holder;
+            return tokenHolder.getLoadToken();
+        }
+        return mTokens.get(holder);
+    }
+
+    private void setToken(H holder, LoadQueue.Token<H> token) {
+        if (holder instanceof TokenHolder) {
+            @SuppressWarnings("unchecked")
+            TokenHolder<H> tokenHolder = (TokenHolder<H>) holder;
+            tokenHolder.setLoadToken(token);
+        } else if (token == null) {
+            mTokens.remove(holder);
+        } else {
+            mTokens.put(holder, token);
+        }
+    }
+
+    /**
+     * Returns the number of bound holders that do not keep their tokens
+     */
+    public int mappedCount() {
+        return mTokens.size();
+    }
+}
@@ -0,0 +1,374 @@
+/*
+ * Copyright (C) 2013 Appunite.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.appunite.imageloader;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Lifecycle of image requests of holders.
+ *
+ * Holder bound to request gets image from memory cache at once, failure at
+ * once if resource failed recently, otherwise placeholder while request
+ * waits in {@link LoadQueue}. Worker that loaded request passes result to
+ * {@link #deliver(Request, Object, LoadEvent.Outcome)}, it is cached and
+ * shown through {@link Dispatcher} by holders still bound to it. Holder
+ * loaded with preview gets image cached with other size or result of
+ * preview request, only while it still waits for its full image.
+ *
+ * Caching and showing images is left to {@link Handler}, so the same code
+ * runs in loader and outside of device. Holders should be bound on thread
+ * of dispatcher.
+ *
+ * @param <R>
+ *            request type
+ * @param <H>
+ *            holder type
+ * @param <B>
+ *            image type
+ */
+@SuppressWarnings("UnusedDeclaration")
+public class LoadCoordinator<R extends LoadCoordinator.Request, H, B> {
+
+    /**
+     * Image requested by holder
+     */
+    public interface Request {
+        String getResource();
+
+        /**
+         * @return memory cache key, requests with the same key are loaded
+         *         once
+         */
+        String getKey();
+
+        /**
+         * @return trace of load, finished when request is delivered
+         */
+        LoadEvent getEvent();
+    }
+
+    /**
+     * Caches images and shows them in holders. Methods are called under
+     * coordinator lock unless noted otherwise, code that fills the same
+     * cache elsewhere should synchronize on coordinator.
+     */
+    public interface Handler<R, H, B> {
+        /**
+         * @return image of request from memory cache or null
+         */
+        B getCached(R request);
+
+        /**
+         * @return image of resource of request cached with other size, shown
+         *         as preview, or null
+         */
+        B getCachedVariant(R request);
+
+        /**
+         * Called before request is queued
+         */
+        void onQueued(R request);
+
+        /**
+         * Called on dispatcher thread before holders get result of request
+         *
+         * @param image
+         *            loaded image, null if loading failed
+         */
+        void onFinished(R request, B image, LoadEvent.Outcome outcome);
+
+        void setImage(H holder, B image, boolean immediately);
+
+        void setFailure(H holder, boolean immediately);
+
+        void setPlaceholder(H holder, boolean immediately);
+
+        /**
+         * Called with trace of every finished load, without coordinator lock
+         * for delivered requests
+         */
+        void onImageLoaded(LoadEvent event);
+    }
+
+    /**
+     * Preview request bound for holder waiting for its full image
+     */
+    private static class Preview<H> {
+        final H mHolder;
+        final H mTarget;
+        final LoadQueue.Token<H> mTargetToken;
+
+        Preview(H holder, H target, LoadQueue.Token<H> targetToken) {
+            mHolder = holder;
+            mTarget = target;
+            mTargetToken = targetToken;
+        }
+    }
+
+    private final Dispatcher mDispatcher;
+    private final FailureCache mFails;
+    private final long mFailTimeMillis;
+    private final long mRejectedFailTimeMillis;
+    private final Handler<R, H, B> mHandler;
+    private final LoadQueue<R, H> mQueue = new LoadQueue<R, H>();
+    private final LoadBindings<R, H> mBindings = new LoadBindings<R, H>(mQueue);
+    /**
+     * Pending previews by holders waiting for full image
+     */
+    private final Map<H, Preview<H>> mPreviews = new IdentityHashMap<H, Preview<H>>();
+    /**
+     * Pending previews by holders bound to preview requests
+     */
+    private final Map<H, Preview<H>> mPreviewHolders =
+            new IdentityHashMap<H, Preview<H>>();
+
+    /**
+     * @param dispatcher
+     *            dispatcher of thread that binds holders
+     * @param clock
+     *            clock of failure cache
+     * @param failTimeMillis
+     *            time for which failed resource is not retried
+     * @param rejectedFailTimeMillis
+     *            time for which rejected resource is not retried
+     */
+    public LoadCoordinator(Dispatcher dispatcher, Clock clock, long failTimeMillis,
+                           long rejectedFailTimeMillis, Handler<R, H, B> handler) {
+        if (dispatcher == null) {
+            throw new IllegalArgumentException("Dispatcher could not be null");
+        }
+        if (handler == null) {
+            throw new IllegalArgumentException("Handler could not be null");
+        }
+        mDispatcher = dispatcher;
+        mFails = new FailureCache(clock);
+        mFailTimeMillis = failTimeMillis;
+        mRejectedFailTimeMillis = rejectedFailTimeMillis;
+        mHandler = handler;
+    }
+
+    /**
+     * @return queue of requests, taken by workers
+     */
+    public LoadQueue<R, H> getQueue() {
+        return mQueue;
+    }
+
+    public FailureCache getFailureCache() {
+        return mFails;
+    }
+
+    /**
+     * Bind holder to request, previous binding of holder is released
+     *
+     * @param request
+     *            request or null to show placeholder
+     * @param urgent
+     *            true if request should be taken before other requests
+     * @return token of queued request or null if holder got image, failure
+     *         or placeholder at once
+     */
+    public synchronized LoadQueue.Token<H> load(H holder, R request, boolean urgent,
+                                                boolean immediately) {
+        unbind(holder);
+        if (request == null) {
+            mHandler.setPlaceholder(holder, immediately);
+            return null;
+        }
+        B cached = mHandler.getCached(request);
+        if (cached != null) {
+            showCached(holder, request, cached, immediately);
+            return null;
+        }
+        if (mFails.contains(request.getResource())) {
+            mHandler.setFailure(holder, immediately);
+            return null;
+        }
+        mHandler.setPlaceholder(holder, immediately);
+        return queue(holder, request, urgent);
+    }
+
+    /**
+     * Bind holder to request and show preview until request is delivered.
+     * Preview is variant cached with other size or result of urgent preview
+     * request, which is dropped when holder is rebound or gets full image.
+     *
+     * @param previewHolder
+     *            holder bound to preview request on behalf of holder, never
+     *            shows images itself
+     * @param previewRequest
+     *            preview request or null
+     */
+    public synchronized void loadWithPreview(H holder, R request, H previewHolder,
+                                             R previewRequest, boolean immediately) {
+        LoadQueue.Token<H> token = load(holder, request, false, immediately);
+        if (token == null) {
+            // loaded from cache, failed or empty
+            return;
+        }
+        B variant = mHandler.getCachedVariant(request);
+        if (variant != null) {
+            mHandler.setImage(holder, variant, immediately);
+            return;
+        }
+        if (previewRequest == null) {
+            return;
+        }
+        if (previewHolder == null) {
+            throw new IllegalArgumentException("Preview holder could not be null");
+        }
+        B cached = mHandler.getCached(previewRequest);
+        if (cached != null) {
+            showCached(holder, previewRequest, cached, immediately);
+            return;
+        }
+        if (mFails.contains(previewRequest.getResource())) {
+            // holder keeps placeholder until its full image is loaded
+            return;
+        }
+        queue(previewHolder, previewRequest, true);
+        Preview<H> preview = new Preview<H>(previewHolder, holder, token);
+        mPreviews.put(holder, preview);
+        mPreviewHolders.put(previewHolder, preview);
+    }
+
+    private void showCached(H holder, R request, B cached, boolean immediately) {
+        LoadEvent event = request.getEvent();
+        event.setSource(LoadEvent.Source.MEMORY);
+        event.startStage(LoadEvent.Stage.DELIVERY);
+        mHandler.setImage(holder, cached, immediately);
+        event.endStage(LoadEvent.Stage.DELIVERY);
+        event.finish(LoadEvent.Outcome.SUCCESS);
+        mHandler.onImageLoaded(event);
+    }
+
+    private LoadQueue.Token<H> queue(H holder, R request, boolean urgent) {
+        mHandler.onQueued(request);
+        request.getEvent().startStage(LoadEvent.Stage.QUEUE);
+        return mBindings.bind(holder, request.getKey(), request, urgent);
+    }
+
+    /**
+     * Holder stops waiting for its image and preview. Request that is not
+     * needed by any holder is dropped from queue.
+     */
+    public synchronized void unbind(H holder) {
+        unbindPreview(holder);
+        mBindings.unbind(holder);
+    }
+
+    private void unbindPreview(H holder) {
+        Preview<H> preview = mPreviews.remove(holder);
+        if (preview != null) {
+            mPreviewHolders.remove(preview.mHolder);
+            mBindings.unbind(preview.mHolder);
+        }
+    }
+
+    /**
+     * Pass result of request taken from queue to holders waiting for it,
+     * called by worker
+     *
+     * @param image
+     *            loaded image, null if loading failed
+     * @param outcome
+     *            outcome of load, failed resources are not retried for
+     *            fail time
+     */
+    public void deliver(final R request, final B image, final LoadEvent.Outcome outcome) {
+        request.getEvent().startStage(LoadEvent.Stage.DELIVERY);
+        mDispatcher.dispatch(new Runnable() {
+            @Override
+            public void run() {
+                finish(request, image, outcome);
+            }
+        });
+    }
+
+    private void finish(R request, B image, LoadEvent.Outcome outcome) {
+        List<H> holders;
+        List<Preview<H>> previews = new ArrayList<Preview<H>>();
+        synchronized (this) {
+            mHandler.onFinished(request, image, outcome);
+            if (image == null) {
+                mFails.put(request.getResource(), outcome == LoadEvent.Outcome.REJECTED
+                        ? mRejectedFailTimeMillis : mFailTimeMillis);
+            } else {
+                mFails.remove(request.getResource());
+            }
+            holders = mBindings.finish(request.getKey());
+            Iterator<H> iterator = holders.iterator();
+            while (iterator.hasNext()) {
+                H holder = iterator.next();
+                Preview<H> preview = mPreviewHolders.remove(holder);
+                if (preview != null) {
+                    mPreviews.remove(preview.mTarget);
+                    previews.add(preview);
+                    iterator.remove();
+                } else {
+                    // preview is useless after full image
+                    unbindPreview(holder);
+                }
+            }
+        }
+        for (H holder : holders) {
+            if (image != null) {
+                mHandler.setImage(holder, image, false);
+            } else {
+                mHandler.setFailure(holder, false);
+            }
+        }
+        if (image != null) {
+            for (Preview<H> preview : previews) {
+                // failed preview leaves placeholder of target
+                if (isWaiting(preview)) {
+                    mHandler.setImage(preview.mTarget, image, false);
+                }
+            }
+        }
+        LoadEvent event = request.getEvent();
+        event.endStage(LoadEvent.Stage.DELIVERY);
+        event.finish(outcome);
+        mHandler.onImageLoaded(event);
+    }
+
+    /**
+     * @return true if target of preview still waits for full image it was
+     *         bound to with preview
+     */
+    private synchronized boolean isWaiting(Preview<H> preview) {
+        return mBindings.getToken(preview.mTarget) == preview.mTargetToken;
+    }
+
+    /**
+     * Returns the number of bound preview requests
+     */
+    public synchronized int previewCount() {
+        return mPreviewHolders.size();
+    }
+
+    /**
+     * Returns the number of bound holders that do not keep their tokens
+     */
+    public synchronized int mappedCount() {
+        return mBindings.mappedCount();
+    }
+}
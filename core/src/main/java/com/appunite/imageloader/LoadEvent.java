@@ -0,0 +1,275 @@
+/*
+ * Copyright (C) 2013 Appunite.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.appunite.imageloader;
+
+import java.util.Locale;
+
+/**
+ * Trace of single image load: when each stage of pipeline started and
+ * ended, where image came from, how many bytes were involved and how load
+ * ended. Stages that were not executed (e.g. fetch of image found in memory
+ * cache) have no duration.
+ *
+ * Event is filled by loader threads and passed to {@link ImageLoadListener}
+ * when load finishes, listener should not modify it.
+ */
+@SuppressWarnings("UnusedDeclaration")
+public class LoadEvent {
+
+    public static enum Stage {
+        /**
+         * Waiting in queue for loader thread
+         */
+        QUEUE,
+        /**
+         * Fetching image from disk cache, network or other source
+         */
+        FETCH,
+        /**
+         * Decoding bitmap
+         */
+        DECODE,
+        /**
+         * Rotating decoded bitmap
+         */
+        TRANSFORM,
+        /**
+         * Posting result to ui thread and displaying it
+         */
+        DELIVERY
+    }
+
+    public static enum Source {
+        /**
+         * Image was already in memory cache
+         */
+        MEMORY,
+        /**
+         * Image was in disk cache
+         */
+        DISK,
+        /**
+         * Image was downloaded
+         */
+        NETWORK,
+        /**
+         * Image was read from local file, content provider, assets or data
+         * uri
+         */
+        LOCAL
+    }
+
+    public static enum Outcome {
+        SUCCESS,
+        /**
+         * Image could not be fetched or decoded
+         */
+        FAILED,
+        /**
+         * Image exceeded limits or was not an image
+         */
+        REJECTED,
+        /**
+         * There was not enough memory to decode image
+         */
+        OUT_OF_MEMORY
+    }
+
+    private static final int STAGES = Stage.values().length;
+
+    private final String mResource;
+    private final Clock mClock;
+    private final long mRequestTime;
+    private final long mRequestNanos;
+    private final long[] mStageStart = new long[STAGES];
+    private final long[] mStageEnd = new long[STAGES];
+    private final boolean[] mStarted = new boolean[STAGES];
+    private final boolean[] mEnded = new boolean[STAGES];
+    private long mFinishNanos = -1;
+    private Source mSource;
+    private Outcome mOutcome;
+    private long mFetchedBytes = -1;
+    private long mNetworkBytes = 0;
+    private long mDecodedBytes = -1;
+
+    /**
+     * @param resource
+     *            loaded resource
+     * @param clock
+     *            clock used for timestamps
+     */
+    public LoadEvent(String resource, Clock clock) {
+        if (clock == null) {
+            throw new IllegalArgumentException("Clock could not be null");
+        }
+        mResource = resource;
+        mClock = clock;
+        mRequestTime = clock.currentTimeMillis();
+        mRequestNanos = clock.nanoTime();
+    }
+
+    public String getResource() {
+        return mResource;
+    }
+
+    /**
+     * @return wall clock time of request in milliseconds
+     */
+    public long getRequestTime() {
+        return mRequestTime;
+    }
+
+    public synchronized void startStage(Stage stage) {
+        mStageStart[stage.ordinal()] = mClock.nanoTime();
+        mStarted[stage.ordinal()] = true;
+        mEnded[stage.ordinal()] = false;
+    }
+
+    public synchronized void endStage(Stage stage) {
+        if (!mStarted[stage.ordinal()]) {
+            return;
+        }
+        mStageEnd[stage.ordinal()] = mClock.nanoTime();
+        mEnded[stage.ordinal()] = true;
+    }
+
+    /**
+     * @return true if stage was started and ended
+     */
+    public synchronized boolean hasStage(Stage stage) {
+        return mEnded[stage.ordinal()];
+    }
+
+    /**
+     * @return start of stage in nanoseconds since request or -1 if stage was
+     *         not executed
+     */
+    public synchronized long getStageOffsetNanos(Stage stage) {
+        if (!mEnded[stage.ordinal()]) {
+            return -1;
+        }
+        return mStageStart[stage.ordinal()] - mRequestNanos;
+    }
+
+    /**
+     * @return duration of stage in nanoseconds or -1 if stage was not
+     *         executed
+     */
+    public synchronized long getStageNanos(Stage stage) {
+        if (!mEnded[stage.ordinal()]) {
+            return -1;
+        }
+        return mStageEnd[stage.ordinal()] - mStageStart[stage.ordinal()];
+    }
+
+    /**
+     * Mark load as finished
+     */
+    public synchronized void finish(Outcome outcome) {
+        if (outcome == null) {
+            throw new IllegalArgumentException("Outcome could not be null");
+        }
+        mOutcome = outcome;
+        mFinishNanos = mClock.nanoTime();
+    }
+
+    /**
+     * @return time from request to finish in nanoseconds or -1 if load has
+     *         not finished
+     */
+    public synchronized long getTotalNanos() {
+        if (mFinishNanos < 0) {
+            return -1;
+        }
+        return mFinishNanos - mRequestNanos;
+    }
+
+    /**
+     * @return outcome or null if load has not finished
+     */
+    public synchronized Outcome getOutcome() {
+        return mOutcome;
+    }
+
+    public synchronized void setSource(Source source) {
+        mSource = source;
+    }
+
+    /**
+     * @return source of image or null if image was not fetched
+     */
+    public synchronized Source getSource() {
+        return mSource;
+    }
+
+    /**
+     * @param fetchedBytes
+     *            size of encoded image or -1 if unknown
+     * @param networkBytes
+     *            number of bytes received from network
+     */
+    public synchronized void setFetchedBytes(long fetchedBytes, long networkBytes) {
+        mFetchedBytes = fetchedBytes;
+        mNetworkBytes = networkBytes;
+    }
+
+    /**
+     * @return size of encoded image or -1 if unknown
+     */
+    public synchronized long getFetchedBytes() {
+        return mFetchedBytes;
+    }
+
+    /**
+     * @return number of bytes received from network
+     */
+    public synchronized long getNetworkBytes() {
+        return mNetworkBytes;
+    }
+
+    public synchronized void setDecodedBytes(long decodedBytes) {
+        mDecodedBytes = decodedBytes;
+    }
+
+    /**
+     * @return size of decoded bitmap or -1 if unknown
+     */
+    public synchronized long getDecodedBytes() {
+        return mDecodedBytes;
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append(String.format(Locale.US,
+                "LoadEvent[resource=%s,source=%s,outcome=%s,totalUs=%d,fetchedBytes=%d,networkBytes=%d,decodedBytes=%d",
+                mResource, mSource, mOutcome, toMicros(getTotalNanos()),
+                mFetchedBytes, mNetworkBytes, mDecodedBytes));
+        for (Stage stage : Stage.values()) {
+            if (mEnded[stage.ordinal()]) {
+                builder.append(String.format(Locale.US, ",%sUs=%d",
+                        stage.name().toLowerCase(Locale.US),
+                        toMicros(getStageNanos(stage))));
+            }
+        }
+        return builder.append(']').toString();
+    }
+
+    private static long toMicros(long nanos) {
+        return nanos < 0 ? -1 : nanos / 1000;
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2013 Appunite.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.appunite.imageloader;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Listener aggregating load events into latency histograms (in
+ * microseconds) of every stage and of whole load, and counters of sources
+ * and outcomes.
+ */
+@SuppressWarnings("UnusedDeclaration")
+public class LoadMetrics implements ImageLoadListener {
+
+    private final LatencyHistogram[] mStages =
+            new LatencyHistogram[LoadEvent.Stage.values().length];
+    private final LatencyHistogram mTotal = new LatencyHistogram();
+    private final AtomicLongArray mSources =
+            new AtomicLongArray(LoadEvent.Source.values().length);
+    private final AtomicLongArray mOutcomes =
+            new AtomicLongArray(LoadEvent.Outcome.values().length);
+    private final AtomicLong mNetworkBytes = new AtomicLong();
+
+    public LoadMetrics() {
+        for (int i = 0; i < mStages.length; i++) {
+            mStages[i] = new LatencyHistogram();
+        }
+    }
+
+    @Override
+    public void onImageLoaded(LoadEvent event) {
+        for (LoadEvent.Stage stage : LoadEvent.Stage.values()) {
+            long nanos = event.getStageNanos(stage);
+            if (nanos >= 0) {
+                mStages[stage.ordinal()].record(nanos / 1000);
+            }
+        }
+        long total = event.getTotalNanos();
+        if (total >= 0) {
+            mTotal.record(total / 1000);
+        }
+        LoadEvent.Source source = event.getSource();
+        if (source != null) {
+            mSources.incrementAndGet(source.ordinal());
+        }
+        LoadEvent.Outcome outcome = event.getOutcome();
+        if (outcome != null) {
+            mOutcomes.incrementAndGet(outcome.ordinal());
+        }
+        mNetworkBytes.addAndGet(event.getNetworkBytes());
+    }
+
+    /**
+     * @return latencies of stage in microseconds
+     */
+    public LatencyHistogram getStageHistogram(LoadEvent.Stage stage) {
+        return mStages[stage.ordinal()];
+    }
+
+    /**
+     * @return latencies from request to finish in microseconds
+     */
+    public LatencyHistogram getTotalHistogram() {
+        return mTotal;
+    }
+
+    public long getSourceCount(LoadEvent.Source source) {
+        return mSources.get(source.ordinal());
+    }
+
+    public long getOutcomeCount(LoadEvent.Outcome outcome) {
+        return mOutcomes.get(outcome.ordinal());
+    }
+
+    /**
+     * @return total number of bytes received from network
+     */
+    public long getNetworkBytes() {
+        return mNetworkBytes.get();
+    }
+
+    public void reset() {
+        for (LatencyHistogram histogram : mStages) {
+            histogram.reset();
+        }
+        mTotal.reset();
+        for (int i = 0; i < mSources.length(); i++) {
+            mSources.set(i, 0);
+        }
+        for (int i = 0; i < mOutcomes.length(); i++) {
+            mOutcomes.set(i, 0);
+        }
+        mNetworkBytes.set(0);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("LoadMetrics[total=")
+                .append(mTotal);
+        for (LoadEvent.Stage stage : LoadEvent.Stage.values()) {
+            builder.append(',').append(stage.name().toLowerCase(Locale.US))
+                    .append('=').append(mStages[stage.ordinal()]);
+        }
+        for (LoadEvent.Source source : LoadEvent.Source.values()) {
+            builder.append(',').append(source.name().toLowerCase(Locale.US))
+                    .append('=').append(getSourceCount(source));
+        }
+        for (LoadEvent.Outcome outcome : LoadEvent.Outcome.values()) {
+            builder.append(',').append(outcome.name().toLowerCase(Locale.US))
+                    .append('=').append(getOutcomeCount(outcome));
+        }
+        return builder.append(",networkBytes=").append(getNetworkBytes())
+                .append(']').toString();
+    }
+}
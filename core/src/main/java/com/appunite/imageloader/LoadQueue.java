@@ -0,0 +1,321 @@
+/*
+ * Copyright (C) 2013 Appunite.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.appunite.imageloader;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Queue of load requests shared by loader threads.
+ *
+ * Requests are identified by keys. Every bind of holder to request creates
+ * new {@link Token}, holders bound to the same key share one request, so
+ * request is queued only once. Holder keeps its latest token and
+ * releases it with {@link #remove(Token)} when it is rebound or no longer
+ * needs the image. Request is dropped from queue when its last token is
+ * released before processing starts. Urgent requests, e.g. cheap previews,
+ * are taken before other queued requests. Finished request is delivered only to
+ * tokens that are still active, so stale results are dropped without looking
+ * up holders.
+ *
+ * @param <R>
+ *            request type
+ * @param <H>
+ *            holder type
+ */
+@SuppressWarnings("UnusedDeclaration")
+public class LoadQueue<R, H> {
+
+    /**
+     * Binding of holder to request made by one
+     * {@link LoadQueue#put(String, Object, Object)}
+     */
+    public static final class Token<H> {
+        private final H mHolder;
+        private final String mKey;
+        /**
+         * Guarded by queue lock
+         */
+        private boolean mActive = true;
+
+        private Token(H holder, String key) {
+            mHolder = holder;
+            mKey = key;
+        }
+
+        public H getHolder() {
+            return mHolder;
+        }
+
+        public String getKey() {
+            return mKey;
+        }
+    }
+
+    private static class Entry<R, H> {
+        final R mRequest;
+        final List<Token<H>> mTokens = new ArrayList<Token<H>>(1);
+        boolean mProcessing = false;
+
+        Entry(R request) {
+            mRequest = request;
+        }
+    }
+
+    private final Lock mLock = new ReentrantLock();
+    private final Condition mNotEmpty = mLock.newCondition();
+    /**
+     * Queued and processed requests by their keys
+     */
+    private final Map<String, Entry<R, H>> mEntries = new HashMap<String, Entry<R, H>>();
+    /**
+     * Keys of queued requests in order of queueing
+     */
+    private final Set<String> mQueue = new LinkedHashSet<String>();
+    /**
+     * Keys of queued urgent requests in order of queueing
+     */
+    private final Set<String> mUrgent = new LinkedHashSet<String>();
+    private int mProcessingCount = 0;
+    private int mTokenCount = 0;
+
+    /**
+     * Bind holder to request. Request is queued unless request with the same
+     * key is already queued or processed. Previous token of holder should be
+     * removed first.
+     *
+     * @return token of this binding
+     */
+    public Token<H> put(String key, R request, H holder) {
+        return put(key, request, holder, false);
+    }
+
+    /**
+     * Bind holder to request
+     *
+     * @param urgent
+     *            true if request should be taken before not urgent ones,
+     *            queued request with the same key is moved ahead
+     * @return token of this binding
+     * @see #put(String, Object, Object)
+     */
+    public Token<H> put(String key, R request, H holder, boolean urgent) {
+        mLock.lock();
+        try {
+            Entry<R, H> entry = mEntries.get(key);
+            if (entry == null) {
+                entry = new Entry<R, H>(request);
+                mEntries.put(key, entry);
+                (urgent ? mUrgent : mQueue).add(key);
+                mNotEmpty.signal();
+            } else if (urgent && mQueue.remove(key)) {
+                mUrgent.add(key);
+            }
+            Token<H> token = new Token<H>(holder, key);
+            entry.mTokens.add(token);
+            mTokenCount++;
+            return token;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Wait for queued request and mark it as processed. Processed request
+     * has to be completed with {@link #finish(String)}.
+     */
+    public R take() throws InterruptedException {
+        mLock.lock();
+        try {
+            while (mQueue.isEmpty() && mUrgent.isEmpty()) {
+                mNotEmpty.await();
+            }
+            return takeLocked();
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Same as {@link #take()} but does not wait
+     *
+     * @return queued request or null if there is none
+     */
+    public R poll() {
+        mLock.lock();
+        try {
+            if (mQueue.isEmpty() && mUrgent.isEmpty()) {
+                return null;
+            }
+            return takeLocked();
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    private R takeLocked() {
+        Iterator<String> iterator = mUrgent.isEmpty()
+                ? mQueue.iterator() : mUrgent.iterator();
+        String key = iterator.next();
+        iterator.remove();
+        Entry<R, H> entry = mEntries.get(key);
+        entry.mProcessing = true;
+        mProcessingCount++;
+        return entry.mRequest;
+    }
+
+    /**
+     * Release binding, holder will not get result of its request. Request is
+     * dropped if it is still queued and no other binding waits for it.
+     *
+     * @param token
+     *            token of binding, can be null or already released
+     */
+    public void remove(Token<H> token) {
+        if (token == null) {
+            return;
+        }
+        mLock.lock();
+        try {
+            if (!token.mActive) {
+                return;
+            }
+            token.mActive = false;
+            mTokenCount--;
+            Entry<R, H> entry = mEntries.get(token.mKey);
+            entry.mTokens.remove(token);
+            if (entry.mTokens.isEmpty() && !entry.mProcessing) {
+                mEntries.remove(token.mKey);
+                if (!mQueue.remove(token.mKey)) {
+                    mUrgent.remove(token.mKey);
+                }
+            }
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Put processed request back to queue, e.g. when its worker was stopped
+     * before request could be loaded. Request is dropped if no binding waits
+     * for it.
+     */
+    public void requeue(String key) {
+        mLock.lock();
+        try {
+            Entry<R, H> entry = mEntries.get(key);
+            if (entry == null || !entry.mProcessing) {
+                return;
+            }
+            entry.mProcessing = false;
+            mProcessingCount--;
+            if (entry.mTokens.isEmpty()) {
+                mEntries.remove(key);
+                return;
+            }
+            mQueue.add(key);
+            mNotEmpty.signal();
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * @return true if binding was not released nor finished
+     */
+    public boolean isActive(Token<H> token) {
+        mLock.lock();
+        try {
+            return token.mActive;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Complete processed request
+     *
+     * @return active bindings of request, they become inactive
+     */
+    public List<Token<H>> finish(String key) {
+        mLock.lock();
+        try {
+            Entry<R, H> entry = mEntries.remove(key);
+            if (entry == null) {
+                return Collections.emptyList();
+            }
+            if (entry.mProcessing) {
+                mProcessingCount--;
+            } else if (!mQueue.remove(key)) {
+                mUrgent.remove(key);
+            }
+            for (Token<H> token : entry.mTokens) {
+                token.mActive = false;
+            }
+            mTokenCount -= entry.mTokens.size();
+            return entry.mTokens;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of requests waiting for processing
+     */
+    public int queuedCount() {
+        mLock.lock();
+        try {
+            return mQueue.size() + mUrgent.size();
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of active bindings, i.e. holders waiting for queued
+     * or processed requests
+     */
+    public int holderCount() {
+        mLock.lock();
+        try {
+            return mTokenCount;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of requests being processed
+     */
+    public int processingCount() {
+        mLock.lock();
+        try {
+            return mProcessingCount;
+        } finally {
+            mLock.unlock();
+        }
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2013 Appunite.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.appunite.imageloader;
+
+/**
+ * Thread processing requests of {@link LoadQueue}
+ *
+ * @param <R>
+ *            request type
+ */
+public class LoadWorker<R> extends Thread {
+
+    /**
+     * Loads one request, e.g. fetches and decodes image and dispatches it to
+     * holders
+     */
+    public interface Handler<R> {
+        void handle(R request);
+    }
+
+    private final LoadQueue<R, ?> mQueue;
+    private final Handler<R> mHandler;
+    private boolean mStop = false;
+
+    public LoadWorker(LoadQueue<R, ?> queue, Handler<R> handler) {
+        if (queue == null) {
+            throw new IllegalArgumentException("Queue could not be null");
+        }
+        if (handler == null) {
+            throw new IllegalArgumentException("Handler could not be null");
+        }
+        mQueue = queue;
+        mHandler = handler;
+    }
+
+    synchronized boolean isStopped() {
+        return mStop;
+    }
+
+    @Override
+    public void run() {
+        while (!isStopped()) {
+            try {
+                mHandler.handle(mQueue.take());
+            } catch (InterruptedException ignored) {
+            }
+        }
+    }
+
+    /**
+     * Stop after current request, call {@link #interrupt()} to stop waiting
+     * for request
+     */
+    public synchronized void stopSelf() {
+        mStop = true;
+    }
+}
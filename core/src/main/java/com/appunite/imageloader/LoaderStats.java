@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2013 Appunite.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.appunite.imageloader;
+
+import java.util.Locale;
+
+/**
+ * Immutable snapshot of all loader caches and its queue
+ */
+@SuppressWarnings("UnusedDeclaration")
+public class LoaderStats {
+
+    private final long mTime;
+    private final CacheStats mMemoryCache;
+    private final CacheStats mBufferPool;
+    private final CacheStats mDiskCache;
+    private final CacheStats mFailureCache;
+    private final int mQueuedCount;
+    private final int mProcessingCount;
+    private final int mWaitingHolderCount;
+
+    /**
+     * @param time
+     *            time of snapshot in milliseconds
+     * @param memoryCache
+     *            decoded bitmaps, sizes in bytes
+     * @param bufferPool
+     *            pool of copy buffers, sizes in bytes
+     * @param diskCache
+     *            downloaded files, sizes in bytes
+     * @param failureCache
+     *            negative cache of failed resources, sizes in entries
+     */
+    public LoaderStats(long time, CacheStats memoryCache, CacheStats bufferPool,
+                       CacheStats diskCache, CacheStats failureCache,
+                       int queuedCount, int processingCount, int waitingHolderCount) {
+        mTime = time;
+        mMemoryCache = memoryCache;
+        mBufferPool = bufferPool;
+        mDiskCache = diskCache;
+        mFailureCache = failureCache;
+        mQueuedCount = queuedCount;
+        mProcessingCount = processingCount;
+        mWaitingHolderCount = waitingHolderCount;
+    }
+
+    public long getTime() {
+        return mTime;
+    }
+
+    public CacheStats getMemoryCache() {
+        return mMemoryCache;
+    }
+
+    public CacheStats getBufferPool() {
+        return mBufferPool;
+    }
+
+    public CacheStats getDiskCache() {
+        return mDiskCache;
+    }
+
+    public CacheStats getFailureCache() {
+        return mFailureCache;
+    }
+
+    /**
+     * @return number of requests waiting for loader thread
+     */
+    public int getQueuedCount() {
+        return mQueuedCount;
+    }
+
+    /**
+     * @return number of requests being loaded
+     */
+    public int getProcessingCount() {
+        return mProcessingCount;
+    }
+
+    /**
+     * @return number of holders waiting for queued or processed requests
+     */
+    public int getWaitingHolderCount() {
+        return mWaitingHolderCount;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US,
+                "LoaderStats[time=%d,memory=%s,bufferPool=%s,disk=%s,failures=%s,queued=%d,processing=%d,waitingHolders=%d]",
+                mTime, mMemoryCache, mBufferPool, mDiskCache, mFailureCache,
+                mQueuedCount, mProcessingCount, mWaitingHolderCount);
+    }
+}
@@ -33,7 +33,7 @@ public class LruCache<K, V> {
 
 	/** Size of this cache in units. Not necessarily the number of elements. */
 	private int size;
-	private final int maxSize;
+	private int maxSize;
 
 	private int putCount;
 	private int createCount;
@@ -188,6 +188,24 @@ public class LruCache<K, V> {
 		return this.maxSize;
 	}
 
+	/**
+	 * Sets the size of the cache. Entries are evicted if the cache exceeds
+	 * new size.
+	 * 
+	 * @param maxSize
+	 *            the new maximum size
+	 */
+	public void resize(int maxSize) {
+		if (maxSize <= 0) {
+			throw new IllegalArgumentException("maxSize <= 0");
+		}
+
+		synchronized (this) {
+			this.maxSize = maxSize;
+		}
+		this.trimToSize(maxSize);
+	}
+
 	/**
 	 * Returns the number of times {@link #get} returned null or required a new
 	 * value to be created.
@@ -295,6 +313,25 @@ public class LruCache<K, V> {
 		return new LinkedHashMap<K, V>(this.map);
 	}
 
+	/**
+	 * Returns true if {@code key} is cached. Unlike {@link #get} it does not
+	 * count hit or miss nor move entry to the head of the queue.
+	 */
+	public synchronized final boolean containsKey(K key) {
+		if (key == null) {
+			throw new NullPointerException("key == null");
+		}
+		return this.map.containsKey(key);
+	}
+
+	/**
+	 * Returns consistent snapshot of all counters and sizes of this cache.
+	 */
+	public synchronized final CacheStats stats() {
+		return new CacheStats(this.hitCount, this.missCount, this.putCount,
+				this.evictionCount, this.map.size(), this.size, this.maxSize);
+	}
+
 	@Override
 	public synchronized final String toString() {
 		int accesses = this.hitCount + this.missCount;
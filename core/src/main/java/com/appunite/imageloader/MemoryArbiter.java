@@ -0,0 +1,328 @@
+/*
+ * Copyright (C) 2013 Appunite.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.appunite.imageloader;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Divides one memory budget across registered caches and pools.
+ *
+ * Every participant is guaranteed part of equal share of budget, the rest
+ * is divided proportionally to hit rates of participants, smoothed over
+ * rebalances, so caches that are actually used get more memory. Hit rate
+ * does not depend on number of accesses nor size of entries, so caches of
+ * busy and quiet screens are compared fairly; participant not accessed
+ * since last rebalance counts as missing. Pools, whose hits are counted in
+ * buffers instead of images, are registered with reserved budget with
+ * {@link #registerReserved(String, Participant, long)} and do not take part
+ * in weighting. Participants can have maximal budget, memory they could not
+ * use is given to others. Participants are referenced weakly, so caches of
+ * dropped loaders do not have to be unregistered.
+ */
+@SuppressWarnings("UnusedDeclaration")
+public class MemoryArbiter {
+
+    /**
+     * Cache or pool with memory budget set by arbiter
+     */
+    public interface Participant {
+        /**
+         * @return counters of participant, hit rate is used as weight
+         */
+        CacheStats stats();
+
+        /**
+         * Shrink or grow to budget, evicting entries if needed
+         */
+        void setMemoryBudget(long budgetBytes);
+    }
+
+    /**
+     * Immutable budget of one participant
+     */
+    public static class Allocation {
+        private final String mName;
+        private final long mBudget;
+        private final long mMaxBudget;
+        private final double mHitRate;
+
+        Allocation(String name, long budget, long maxBudget, double hitRate) {
+            mName = name;
+            mBudget = budget;
+            mMaxBudget = maxBudget;
+            mHitRate = hitRate;
+        }
+
+        public String getName() {
+            return mName;
+        }
+
+        public long getBudget() {
+            return mBudget;
+        }
+
+        /**
+         * @return maximal budget or {@link CacheStats#UNKNOWN} if not limited
+         */
+        public long getMaxBudget() {
+            return mMaxBudget;
+        }
+
+        /**
+         * @return hit rate measured between last two rebalances
+         */
+        public double getHitRate() {
+            return mHitRate;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "Allocation[name=%s,budget=%d,maxBudget=%d," +
+                    "hitRate=%.2f]", mName, mBudget, mMaxBudget, mHitRate);
+        }
+    }
+
+    private static class Member {
+        final String mName;
+        final WeakReference<Participant> mParticipant;
+        final long mMaxBudget;
+        /**
+         * Budget is fixed to max budget, weight is not used
+         */
+        final boolean mReserved;
+        long mBudget;
+        long mLastHits;
+        long mLastMisses;
+        double mWeight;
+        double mHitRate;
+
+        Member(String name, Participant participant, long maxBudget, boolean reserved,
+               double weight) {
+            mName = name;
+            mParticipant = new WeakReference<Participant>(participant);
+            mMaxBudget = maxBudget;
+            mReserved = reserved;
+            mWeight = weight;
+            CacheStats stats = participant.stats();
+            mLastHits = stats.getHitCount();
+            mLastMisses = stats.getMissCount();
+        }
+    }
+
+    /**
+     * Part of equal share guaranteed to every participant
+     */
+    private static final double MIN_SHARE = 0.25;
+    /**
+     * Weight of hit rate since last rebalance against previous weight
+     */
+    private static final double SMOOTHING = 0.5;
+
+    private final List<Member> mMembers = new ArrayList<Member>();
+    private long mBudget;
+
+    /**
+     * @param budget
+     *            memory in bytes divided across participants
+     */
+    public MemoryArbiter(long budget) {
+        if (budget <= 0) {
+            throw new IllegalArgumentException("Budget has to be grater than 0");
+        }
+        mBudget = budget;
+    }
+
+    public synchronized long getBudget() {
+        return mBudget;
+    }
+
+    /**
+     * Change total budget and rebalance participants
+     */
+    public synchronized void setBudget(long budget) {
+        if (budget <= 0) {
+            throw new IllegalArgumentException("Budget has to be grater than 0");
+        }
+        mBudget = budget;
+        rebalance();
+    }
+
+    /**
+     * Register participant and rebalance, participant gets its budget at
+     * once. New participant starts with average weight of others.
+     *
+     * @param name
+     *            name shown in allocations
+     * @param maxBudget
+     *            maximal budget of participant in bytes or
+     *            {@link CacheStats#UNKNOWN} if not limited
+     */
+    public synchronized void register(String name, Participant participant, long maxBudget) {
+        if (participant == null) {
+            throw new IllegalArgumentException("Participant could not be null");
+        }
+        removeMember(participant);
+        double weight = 0;
+        int count = 0;
+        for (Member member : mMembers) {
+            if (!member.mReserved && member.mParticipant.get() != null) {
+                weight += member.mWeight;
+                count++;
+            }
+        }
+        mMembers.add(new Member(name, participant, maxBudget, false,
+                count == 0 ? 1 : weight / count));
+        rebalance();
+    }
+
+    /**
+     * Register participant with fixed budget taken before budget is divided
+     * across other participants, e.g. pool of buffers. Reserved budget is
+     * limited by total budget.
+     *
+     * @param name
+     *            name shown in allocations
+     * @param budget
+     *            budget of participant in bytes
+     */
+    public synchronized void registerReserved(String name, Participant participant,
+                                              long budget) {
+        if (participant == null) {
+            throw new IllegalArgumentException("Participant could not be null");
+        }
+        if (budget < 0) {
+            throw new IllegalArgumentException("Budget could not be negative");
+        }
+        removeMember(participant);
+        mMembers.add(new Member(name, participant, budget, true, 0));
+        rebalance();
+    }
+
+    /**
+     * Unregister participant, its budget is given to others
+     */
+    public synchronized void unregister(Participant participant) {
+        if (removeMember(participant)) {
+            rebalance();
+        }
+    }
+
+    private boolean removeMember(Participant participant) {
+        for (Iterator<Member> iterator = mMembers.iterator(); iterator.hasNext(); ) {
+            if (iterator.next().mParticipant.get() == participant) {
+                iterator.remove();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Update weights with hit rates since last rebalance and set budgets of
+     * participants
+     */
+    public synchronized void rebalance() {
+        // strong references, so participants are not collected until budgets are set
+        List<Participant> participants = new ArrayList<Participant>(mMembers.size());
+        for (Iterator<Member> iterator = mMembers.iterator(); iterator.hasNext(); ) {
+            Member member = iterator.next();
+            Participant participant = member.mParticipant.get();
+            if (participant == null) {
+                iterator.remove();
+                continue;
+            }
+            updateWeight(member, participant.stats());
+            participants.add(participant);
+        }
+        long remaining = mBudget;
+        List<Member> open = new ArrayList<Member>(mMembers.size());
+        for (Member member : mMembers) {
+            if (member.mReserved) {
+                member.mBudget = Math.min(member.mMaxBudget, remaining);
+                remaining -= member.mBudget;
+            } else {
+                open.add(member);
+            }
+        }
+
+        while (!open.isEmpty()) {
+            long floor = (long) (remaining * MIN_SHARE / open.size());
+            long distributed = remaining - floor * open.size();
+            double totalWeight = 0;
+            for (Member member : open) {
+                totalWeight += member.mWeight;
+            }
+            boolean capped = false;
+            for (Iterator<Member> iterator = open.iterator(); iterator.hasNext(); ) {
+                Member member = iterator.next();
+                member.mBudget = floor + (totalWeight > 0
+                        ? (long) (distributed * member.mWeight / totalWeight)
+                        : distributed / open.size());
+                if (member.mMaxBudget != CacheStats.UNKNOWN
+                        && member.mBudget > member.mMaxBudget) {
+                    member.mBudget = member.mMaxBudget;
+                    remaining -= member.mMaxBudget;
+                    iterator.remove();
+                    capped = true;
+                }
+            }
+            if (!capped) {
+                break;
+            }
+            // divide what capped participants could not use among others
+        }
+
+        for (int i = 0; i < participants.size(); i++) {
+            participants.get(i).setMemoryBudget(mMembers.get(i).mBudget);
+        }
+    }
+
+    private static void updateWeight(Member member, CacheStats stats) {
+        long hits = stats.getHitCount() - member.mLastHits;
+        long misses = stats.getMissCount() - member.mLastMisses;
+        if (hits < 0 || misses < 0) {
+            // counters were reset
+            hits = stats.getHitCount();
+            misses = stats.getMissCount();
+        }
+        member.mLastHits = stats.getHitCount();
+        member.mLastMisses = stats.getMissCount();
+        // not accessed cache, e.g. of screen in background, is not useful
+        double hitRate = hits + misses > 0 ? (double) hits / (hits + misses) : 0;
+        member.mHitRate = hitRate;
+        member.mWeight = member.mWeight * (1 - SMOOTHING) + hitRate * SMOOTHING;
+    }
+
+    /**
+     * @return current budgets of live participants
+     */
+    public synchronized List<Allocation> getAllocations() {
+        List<Allocation> allocations = new ArrayList<Allocation>(mMembers.size());
+        for (Member member : mMembers) {
+            if (member.mParticipant.get() != null) {
+                allocations.add(new Allocation(member.mName, member.mBudget,
+                        member.mMaxBudget, member.mHitRate));
+            }
+        }
+        return Collections.unmodifiableList(allocations);
+    }
+}
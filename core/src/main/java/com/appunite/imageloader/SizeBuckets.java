@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2013 Appunite.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.appunite.imageloader;
+
+import java.util.Arrays;
+
+/**
+ * Snaps requested sizes up to the nearest of configured sizes, so loaders
+ * with slightly different sizes fetch the same server side resized image.
+ */
+@SuppressWarnings("UnusedDeclaration")
+public class SizeBuckets {
+
+    public static final SizeBuckets DEFAULT = new SizeBuckets(new int[] {
+            64, 128, 256, 384, 512, 768, 1024, 1536, 2048 });
+
+    /**
+     * Sizes are not snapped
+     */
+    public static final SizeBuckets NONE = new SizeBuckets(new int[0]);
+
+    private final int[] mBuckets;
+
+    /**
+     * @param buckets
+     *            sizes in px, in any order
+     */
+    public SizeBuckets(int[] buckets) {
+        if (buckets == null) {
+            throw new IllegalArgumentException("Buckets could not be null");
+        }
+        mBuckets = new int[buckets.length];
+        System.arraycopy(buckets, 0, mBuckets, 0, buckets.length);
+        Arrays.sort(mBuckets);
+        if (mBuckets.length > 0 && mBuckets[0] <= 0) {
+            throw new IllegalArgumentException("Buckets have to be grater than 0");
+        }
+    }
+
+    /**
+     * @param size
+     *            size in px
+     * @return smallest bucket not smaller than size, or size if it is larger
+     *         than every bucket
+     */
+    public int snap(int size) {
+        for (int bucket : mBuckets) {
+            if (bucket >= size) {
+                return bucket;
+            }
+        }
+        return size;
+    }
+}
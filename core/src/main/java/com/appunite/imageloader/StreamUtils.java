@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2013 Appunite.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.appunite.imageloader;
+
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+
+/**
+ * Stream copying helpers
+ */
+public class StreamUtils {
+
+    /**
+     * Stream of whole android.os.ParcelFileDescriptor, referenced by name so
+     * core does not depend on android
+     */
+    private static final String PARCEL_FILE_DESCRIPTOR_STREAM =
+            "android.os.ParcelFileDescriptor$AutoCloseInputStream";
+
+    private StreamUtils() {
+    }
+
+    /**
+     * Copy whole stream. Plain file streams are transferred by
+     * {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)}
+     * without copying data through java heap, other streams are copied through
+     * buffer from {@link ByteArrayPool#getDefault()}.
+     *
+     * @return number of copied bytes
+     */
+    public static long copy(InputStream inputStream, OutputStream outputStream)
+            throws IOException {
+        if (isPlainFileStream(inputStream) && outputStream instanceof FileOutputStream) {
+            return transfer((FileInputStream) inputStream,
+                    (FileOutputStream) outputStream);
+        }
+        ByteArrayPool pool = ByteArrayPool.getDefault();
+        byte[] buffer = pool.acquire();
+        try {
+            long total = 0;
+            int bytesRead;
+            while ((bytesRead = inputStream.read(buffer)) != -1) {
+                outputStream.write(buffer, 0, bytesRead);
+                total += bytesRead;
+            }
+            return total;
+        } finally {
+            pool.release(buffer);
+        }
+    }
+
+    /**
+     * Subclasses (e.g. asset descriptors streams) can limit read region so
+     * their channels could not be used directly
+     */
+    private static boolean isPlainFileStream(InputStream inputStream) {
+        Class<?> streamClass = inputStream.getClass();
+        return streamClass == FileInputStream.class
+                || streamClass.getName().equals(PARCEL_FILE_DESCRIPTOR_STREAM);
+    }
+
+    private static long transfer(FileInputStream inputStream,
+                                 FileOutputStream outputStream) throws IOException {
+        FileChannel input = inputStream.getChannel();
+        FileChannel output = outputStream.getChannel();
+        long position = input.position();
+        long count = input.size() - position;
+        long transferred = 0;
+        while (transferred < count) {
+            long result = input.transferTo(position + transferred,
+                    count - transferred, output);
+            if (result <= 0) {
+                break;
+            }
+            transferred += result;
+        }
+        input.position(position + transferred);
+        return transferred;
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2013 Appunite.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.appunite.imageloader;
+
+import java.util.Locale;
+
+/**
+ * Latency and volume counters of {@link UrlConnectionTransport}
+ */
+@SuppressWarnings("UnusedDeclaration")
+public class TransportMetrics {
+
+    private int mRequestCount;
+    private int mFailureCount;
+    private int mTimeoutCount;
+    private long mBytesReceived;
+    private long mTotalResponseMillis;
+    private long mTotalDurationMillis;
+    private long mMaxDurationMillis;
+
+    synchronized void onRequestFinished(long responseMillis, long durationMillis,
+                                        long bytesReceived, boolean success) {
+        mRequestCount++;
+        if (!success) {
+            mFailureCount++;
+        }
+        mBytesReceived += bytesReceived;
+        mTotalResponseMillis += responseMillis;
+        mTotalDurationMillis += durationMillis;
+        if (durationMillis > mMaxDurationMillis) {
+            mMaxDurationMillis = durationMillis;
+        }
+    }
+
+    synchronized void onTimeout() {
+        mTimeoutCount++;
+    }
+
+    /**
+     * Returns the number of finished requests, including failed ones.
+     */
+    public synchronized int requestCount() {
+        return mRequestCount;
+    }
+
+    /**
+     * Returns the number of requests that did not receive whole body.
+     */
+    public synchronized int failureCount() {
+        return mFailureCount;
+    }
+
+    /**
+     * Returns the number of requests aborted because of deadline or stall.
+     */
+    public synchronized int timeoutCount() {
+        return mTimeoutCount;
+    }
+
+    public synchronized long bytesReceived() {
+        return mBytesReceived;
+    }
+
+    /**
+     * Returns average time from request start to received response headers.
+     */
+    public synchronized long averageResponseMillis() {
+        return mRequestCount == 0 ? 0 : mTotalResponseMillis / mRequestCount;
+    }
+
+    /**
+     * Returns average time from request start to response release.
+     */
+    public synchronized long averageDurationMillis() {
+        return mRequestCount == 0 ? 0 : mTotalDurationMillis / mRequestCount;
+    }
+
+    public synchronized long maxDurationMillis() {
+        return mMaxDurationMillis;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format(Locale.US,
+                "TransportMetrics[requests=%d,failures=%d,timeouts=%d,bytes=%d," +
+                        "avgResponse=%dms,avgDuration=%dms,maxDuration=%dms]",
+                mRequestCount, mFailureCount, mTimeoutCount, mBytesReceived,
+                averageResponseMillis(), averageDurationMillis(), mMaxDurationMillis);
+    }
+}
@@ -0,0 +1,406 @@
+/*
+ * Copyright (C) 2013 Appunite.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.appunite.imageloader;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link HttpTransport} based on {@link HttpURLConnection}.
+ *
+ * Every request has connect and read timeouts and a total deadline. Watchdog
+ * disconnects requests that exceed deadline or do not receive any byte for
+ * stall timeout (this covers also DNS lookup that ignores connect timeout).
+ * Number of concurrent connections to one host is limited, connections are
+ * kept alive and reused when response body was fully read.
+ */
+@SuppressWarnings("UnusedDeclaration")
+public class UrlConnectionTransport implements HttpTransport {
+
+    public static final int DEFAULT_CONNECT_TIMEOUT_MILLIS = 15 * 1000;
+    public static final int DEFAULT_READ_TIMEOUT_MILLIS = 20 * 1000;
+    public static final int DEFAULT_STALL_TIMEOUT_MILLIS = 30 * 1000;
+    public static final int DEFAULT_TOTAL_TIMEOUT_MILLIS = 90 * 1000;
+    public static final int DEFAULT_MAX_CONNECTIONS_PER_HOST = 2;
+
+    private static final long WATCHDOG_PERIOD_MILLIS = 500;
+    private static final long NANOS_IN_MILLI = 1000 * 1000;
+
+    private static Timer sWatchdog;
+
+    private final int mConnectTimeoutMillis;
+    private final int mReadTimeoutMillis;
+    private final long mStallTimeoutMillis;
+    private final long mTotalTimeoutMillis;
+    private final int mMaxConnectionsPerHost;
+    // hosts without pending requests are removed
+    private final Map<String, HostPermits> mHostPermits = new HashMap<String, HostPermits>();
+    private final TransportMetrics mMetrics = new TransportMetrics();
+
+    public UrlConnectionTransport() {
+        this(DEFAULT_CONNECT_TIMEOUT_MILLIS, DEFAULT_READ_TIMEOUT_MILLIS,
+                DEFAULT_STALL_TIMEOUT_MILLIS, DEFAULT_TOTAL_TIMEOUT_MILLIS,
+                DEFAULT_MAX_CONNECTIONS_PER_HOST);
+    }
+
+    /**
+     * Create transport
+     *
+     * @param connectTimeoutMillis
+     *            timeout of establishing connection
+     * @param readTimeoutMillis
+     *            timeout of single read from socket, at most stall timeout
+     * @param stallTimeoutMillis
+     *            maximal time without receiving any byte, including dns
+     *            lookup and waiting for response headers
+     * @param totalTimeoutMillis
+     *            maximal time of whole request, including waiting for free
+     *            connection to host
+     * @param maxConnectionsPerHost
+     *            maximal number of concurrent connections to one host
+     */
+    public UrlConnectionTransport(int connectTimeoutMillis,
+                                  int readTimeoutMillis,
+                                  long stallTimeoutMillis,
+                                  long totalTimeoutMillis,
+                                  int maxConnectionsPerHost) {
+        if (connectTimeoutMillis <= 0 || readTimeoutMillis <= 0
+                || stallTimeoutMillis <= 0 || totalTimeoutMillis <= 0) {
+            throw new IllegalArgumentException("Timeouts have to be grater than 0");
+        }
+        if (maxConnectionsPerHost <= 0) {
+            throw new IllegalArgumentException("Max connections per host have to be grater " +
+                    "than 0");
+        }
+        mConnectTimeoutMillis = connectTimeoutMillis;
+        mReadTimeoutMillis = readTimeoutMillis;
+        mStallTimeoutMillis = stallTimeoutMillis;
+        mTotalTimeoutMillis = totalTimeoutMillis;
+        mMaxConnectionsPerHost = maxConnectionsPerHost;
+    }
+
+    private static synchronized Timer getWatchdog() {
+        if (sWatchdog == null) {
+            sWatchdog = new Timer("HttpTransportWatchdog", true);
+        }
+        return sWatchdog;
+    }
+
+    public TransportMetrics getMetrics() {
+        return mMetrics;
+    }
+
+    private static class HostPermits extends Semaphore {
+        private static final long serialVersionUID = 1L;
+
+        final String mHost;
+        int mUsers = 0;
+
+        HostPermits(String host, int permits) {
+            super(permits, true);
+            mHost = host;
+        }
+    }
+
+    private HostPermits acquireHostPermits(String host) {
+        synchronized (mHostPermits) {
+            HostPermits permits = mHostPermits.get(host);
+            if (permits == null) {
+                permits = new HostPermits(host, mMaxConnectionsPerHost);
+                mHostPermits.put(host, permits);
+            }
+            permits.mUsers++;
+            return permits;
+        }
+    }
+
+    private void releaseHostPermits(HostPermits permits) {
+        synchronized (mHostPermits) {
+            permits.mUsers--;
+            if (permits.mUsers == 0) {
+                mHostPermits.remove(permits.mHost);
+            }
+        }
+    }
+
+    /**
+     * Returns the number of hosts with pending requests.
+     */
+    int getHostCount() {
+        synchronized (mHostPermits) {
+            return mHostPermits.size();
+        }
+    }
+
+    @Override
+    public Response execute(String url) throws IOException {
+        return execute(url, null);
+    }
+
+    @Override
+    public Response execute(String url, Map<String, String> requestHeaders)
+            throws IOException {
+        long startNanos = System.nanoTime();
+        URL parsedUrl = new URL(url);
+        String host = parsedUrl.getHost();
+        HostPermits permits = acquireHostPermits(host);
+        try {
+            if (!permits.tryAcquire(mTotalTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                releaseHostPermits(permits);
+                mMetrics.onTimeout();
+                throw new SocketTimeoutException("Waiting for connection to " + host +
+                        " timed out");
+            }
+        } catch (InterruptedException e) {
+            releaseHostPermits(permits);
+            throw new InterruptedIOException("Interrupted while waiting for connection to " +
+                    host);
+        }
+
+        UrlConnectionResponse response = null;
+        boolean success = false;
+        try {
+            URLConnection urlConnection = parsedUrl.openConnection();
+            if (!(urlConnection instanceof HttpURLConnection)) {
+                throw new IOException("Not http url: " + url);
+            }
+            HttpURLConnection connection = (HttpURLConnection) urlConnection;
+            connection.setConnectTimeout(mConnectTimeoutMillis);
+            // blocked read could not be disconnected on every platform, so it
+            // has to give up itself when body stalls
+            connection.setReadTimeout((int) Math.min(mReadTimeoutMillis, mStallTimeoutMillis));
+            connection.setUseCaches(false);
+            connection.setInstanceFollowRedirects(true);
+            if (requestHeaders != null) {
+                for (Map.Entry<String, String> header : requestHeaders.entrySet()) {
+                    connection.setRequestProperty(header.getKey(), header.getValue());
+                }
+            }
+
+            // from now response is responsible for releasing permit
+            response = new UrlConnectionResponse(connection, permits, startNanos);
+            response.connect();
+            int responseCode = response.getResponseCode();
+            if (responseCode < HttpURLConnection.HTTP_OK
+                    || responseCode >= HttpURLConnection.HTTP_MULT_CHOICE) {
+                throw new HttpResponseException(responseCode, url);
+            }
+            success = true;
+            return response;
+        } finally {
+            if (!success) {
+                if (response != null) {
+                    response.close();
+                } else {
+                    permits.release();
+                    releaseHostPermits(permits);
+                }
+            }
+        }
+    }
+
+    private class UrlConnectionResponse extends TimerTask implements Response {
+
+        private final HttpURLConnection mConnection;
+        private final HostPermits mPermits;
+        private final long mStartNanos;
+        private volatile long mLastProgressNanos;
+        private volatile boolean mAborted = false;
+        private long mResponseNanos;
+        private long mBytesRead = 0;
+        private boolean mEndOfStream = false;
+        private boolean mClosed = false;
+        private int mResponseCode;
+        private InputStream mInputStream;
+
+        UrlConnectionResponse(HttpURLConnection connection, HostPermits permits,
+                              long startNanos) {
+            mConnection = connection;
+            mPermits = permits;
+            mStartNanos = startNanos;
+            mLastProgressNanos = System.nanoTime();
+        }
+
+        void connect() throws IOException {
+            getWatchdog().schedule(this, WATCHDOG_PERIOD_MILLIS, WATCHDOG_PERIOD_MILLIS);
+            try {
+                mConnection.connect();
+                mResponseCode = mConnection.getResponseCode();
+            } catch (IOException e) {
+                throw abortedOr(e);
+            }
+            mResponseNanos = System.nanoTime();
+            mLastProgressNanos = mResponseNanos;
+        }
+
+        private IOException abortedOr(IOException e) {
+            if (mAborted) {
+                return new SocketTimeoutException("Request deadline exceeded or stalled: " +
+                        mConnection.getURL());
+            }
+            return e;
+        }
+
+        @Override
+        public void run() {
+            long now = System.nanoTime();
+            boolean deadlineExceeded = now - mStartNanos > mTotalTimeoutMillis * NANOS_IN_MILLI;
+            boolean stalled = now - mLastProgressNanos > mStallTimeoutMillis * NANOS_IN_MILLI;
+            if (deadlineExceeded || stalled) {
+                mAborted = true;
+                cancel();
+                // disconnect waits for pending read, watchdog is shared
+                new Thread("HttpTransportAbort") {
+                    @Override
+                    public void run() {
+                        mConnection.disconnect();
+                    }
+                }.start();
+            }
+        }
+
+        @Override
+        public int getResponseCode() {
+            return mResponseCode;
+        }
+
+        @Override
+        public long getContentLength() {
+            String contentLength = mConnection.getHeaderField("Content-Length");
+            if (contentLength == null) {
+                return -1;
+            }
+            try {
+                return Long.parseLong(contentLength.trim());
+            } catch (NumberFormatException e) {
+                return -1;
+            }
+        }
+
+        @Override
+        public String getHeader(String name) {
+            return mConnection.getHeaderField(name);
+        }
+
+        @Override
+        public synchronized InputStream getInputStream() throws IOException {
+            if (mInputStream == null) {
+                try {
+                    mInputStream = new ProgressInputStream(mConnection.getInputStream());
+                } catch (IOException e) {
+                    throw abortedOr(e);
+                }
+            }
+            return mInputStream;
+        }
+
+        @Override
+        public synchronized void close() {
+            if (mClosed) {
+                return;
+            }
+            mClosed = true;
+            cancel();
+            boolean success = mEndOfStream && !mAborted;
+            if (success) {
+                try {
+                    // closing fully read stream returns connection to the pool
+                    mInputStream.close();
+                } catch (IOException e) {
+                    mConnection.disconnect();
+                }
+            } else {
+                mConnection.disconnect();
+            }
+            mPermits.release();
+            releaseHostPermits(mPermits);
+
+            if (mAborted) {
+                mMetrics.onTimeout();
+            }
+            long endNanos = System.nanoTime();
+            long responseMillis = mResponseNanos == 0
+                    ? 0 : (mResponseNanos - mStartNanos) / NANOS_IN_MILLI;
+            mMetrics.onRequestFinished(responseMillis,
+                    (endNanos - mStartNanos) / NANOS_IN_MILLI, mBytesRead, success);
+        }
+
+        private class ProgressInputStream extends FilterInputStream {
+
+            ProgressInputStream(InputStream in) {
+                super(in);
+            }
+
+            private int onRead(int count) throws SocketTimeoutException {
+                if (mAborted) {
+                    throw new SocketTimeoutException("Request deadline exceeded or stalled: " +
+                            mConnection.getURL());
+                }
+                if (count < 0) {
+                    mEndOfStream = true;
+                } else {
+                    mBytesRead += count;
+                    mLastProgressNanos = System.nanoTime();
+                }
+                return count;
+            }
+
+            private SocketTimeoutException stalled(SocketTimeoutException e) {
+                // read timeout is capped by stall timeout
+                mAborted = true;
+                return e;
+            }
+
+            @Override
+            public int read() throws IOException {
+                int value;
+                try {
+                    value = super.read();
+                } catch (SocketTimeoutException e) {
+                    throw stalled(e);
+                } catch (IOException e) {
+                    throw abortedOr(e);
+                }
+                onRead(value < 0 ? -1 : 1);
+                return value;
+            }
+
+            @Override
+            public int read(byte[] buffer, int offset, int count) throws IOException {
+                try {
+                    return onRead(super.read(buffer, offset, count));
+                } catch (SocketTimeoutException e) {
+                    throw stalled(e);
+                } catch (IOException e) {
+                    throw abortedOr(e);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright (C) 2013 Appunite.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.appunite.imageloader;
+
+/**
+ * Rewrites resource to url that should be fetched for requested size, e.g.
+ * to let CDN resize image on server side:
+ *
+ * <pre>
+ * loader.setUrlTransformer(new UrlTransformer() {
+ *     public String transform(String resource, int width, int height) {
+ *         return resource + "?w=" + width + "&amp;h=" + height;
+ *     }
+ * });
+ * </pre>
+ *
+ * Memory cache keys are still created from original resource, disk cache
+ * keeps fetched url. Implementations have to be thread safe.
+ */
+public interface UrlTransformer {
+
+    /**
+     * @param resource
+     *            resource passed to loader
+     * @param width
+     *            requested width in px snapped to {@link SizeBuckets}
+     * @param height
+     *            requested height in px snapped to {@link SizeBuckets}
+     * @return resource that should be fetched, can be the same resource
+     */
+    String transform(String resource, int width, int height);
+}
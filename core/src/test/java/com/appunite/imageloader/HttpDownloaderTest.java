@@ -0,0 +1,402 @@
+/*
+ * Copyright (C) 2013 Appunite.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.appunite.imageloader;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Drives resuming of partial downloads by {@link HttpDownloader} against
+ * in-process http server that breaks responses and answers Range requests
+ * in different ways.
+ */
+public class HttpDownloaderTest {
+
+    private static final int BODY_SIZE = 64 * 1024;
+    private static final int CUT_SIZE = 20 * 1024;
+    private static final int TIMEOUT_MILLIS = 10 * 1000;
+    private static final int WIDTH = 40;
+    private static final int HEIGHT = 30;
+
+    private enum RangeMode {
+        HONOR, IGNORE, NOT_SATISFIABLE, WRONG_START
+    }
+
+    private final ImageServer mImageServer = new ImageServer();
+    private HttpServer mServer;
+    private ExecutorService mExecutor;
+    private File mDirectory;
+    private FileCache mFileCache;
+    private HttpDownloader mDownloader;
+
+    @Before
+    public void setUp() throws IOException {
+        mServer = HttpServer.create(new InetSocketAddress(
+                InetAddress.getByName("127.0.0.1"), 0), 0);
+        mServer.createContext("/image", mImageServer);
+        mExecutor = Executors.newCachedThreadPool();
+        mServer.setExecutor(mExecutor);
+        mServer.start();
+        mDirectory = File.createTempFile("HttpDownloaderTest", "");
+        assertTrue(mDirectory.delete());
+        mFileCache = new FileCache(mDirectory);
+        mDownloader = createDownloader(ImageLimits.getDefault());
+    }
+
+    @After
+    public void tearDown() {
+        mServer.stop(0);
+        mExecutor.shutdownNow();
+        File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                //noinspection ResultOfMethodCallIgnored
+                file.delete();
+            }
+        }
+        //noinspection ResultOfMethodCallIgnored
+        mDirectory.delete();
+    }
+
+    @Test
+    public void testKeepsPartialAfterBrokenBody() throws IOException {
+        mImageServer.setBody(png(WIDTH, HEIGHT, BODY_SIZE), "\"v1\"");
+        downloadBroken();
+        assertEquals(CUT_SIZE, getPartialFile().length());
+        assertTrue(getValidatorFile().exists());
+        assertFalse(getCacheFile().exists());
+    }
+
+    @Test
+    public void testDropsPartialWithoutValidator() throws IOException {
+        mImageServer.setBody(png(WIDTH, HEIGHT, BODY_SIZE), null);
+        downloadBroken();
+        assertFalse(getPartialFile().exists());
+    }
+
+    @Test
+    public void testResumesPartial() throws IOException {
+        byte[] body = png(WIDTH, HEIGHT, BODY_SIZE);
+        mImageServer.setBody(body, "\"v1\"");
+        downloadBroken();
+
+        HttpDownloader.Result result = mDownloader.download(getUrl());
+        assertEquals("bytes=" + CUT_SIZE + "-", mImageServer.getLastRange());
+        assertEquals(BODY_SIZE - CUT_SIZE, result.getReceivedBytes());
+        assertArrayEquals(body, readFile(result.getFile()));
+        assertTrue(result.getHeader().hasDimensions());
+        assertEquals(WIDTH, result.getHeader().getWidth());
+        assertEquals(HEIGHT, result.getHeader().getHeight());
+        assertPartialDeleted();
+    }
+
+    @Test
+    public void testServerIgnoringRange() throws IOException {
+        byte[] body = png(WIDTH, HEIGHT, BODY_SIZE);
+        mImageServer.setBody(body, "\"v1\"");
+        downloadBroken();
+        mImageServer.setRangeMode(RangeMode.IGNORE);
+
+        HttpDownloader.Result result = mDownloader.download(getUrl());
+        assertEquals("bytes=" + CUT_SIZE + "-", mImageServer.getLastRange());
+        assertEquals(BODY_SIZE, result.getReceivedBytes());
+        assertArrayEquals(body, readFile(result.getFile()));
+        assertPartialDeleted();
+    }
+
+    @Test
+    public void testRangeNotSatisfiable() throws IOException {
+        byte[] body = png(WIDTH, HEIGHT, BODY_SIZE);
+        mImageServer.setBody(body, "\"v1\"");
+        downloadBroken();
+        mImageServer.setRangeMode(RangeMode.NOT_SATISFIABLE);
+
+        HttpDownloader.Result result = mDownloader.download(getUrl());
+        // range request and full request without range
+        assertEquals(Arrays.asList(null, "bytes=" + CUT_SIZE + "-", null),
+                mImageServer.getRanges());
+        assertArrayEquals(body, readFile(result.getFile()));
+        assertPartialDeleted();
+    }
+
+    @Test
+    public void testChangedValidator() throws IOException {
+        mImageServer.setBody(png(WIDTH, HEIGHT, BODY_SIZE), "\"v1\"");
+        downloadBroken();
+        byte[] changed = png(HEIGHT, WIDTH, BODY_SIZE + 1000);
+        mImageServer.setBody(changed, "\"v2\"");
+
+        HttpDownloader.Result result = mDownloader.download(getUrl());
+        assertEquals("\"v1\"", mImageServer.getLastIfRange());
+        assertArrayEquals(changed, readFile(result.getFile()));
+        assertEquals(HEIGHT, result.getHeader().getWidth());
+        assertPartialDeleted();
+    }
+
+    @Test
+    public void testWrongContentRangeStart() throws IOException {
+        byte[] body = png(WIDTH, HEIGHT, BODY_SIZE);
+        mImageServer.setBody(body, "\"v1\"");
+        downloadBroken();
+        mImageServer.setRangeMode(RangeMode.WRONG_START);
+
+        try {
+            mDownloader.download(getUrl());
+            fail("Range with wrong start appended");
+        } catch (IOException e) {
+            // expected
+        }
+        assertPartialDeleted();
+        assertFalse(getCacheFile().exists());
+
+        HttpDownloader.Result result = mDownloader.download(getUrl());
+        assertNull(mImageServer.getLastRange());
+        assertArrayEquals(body, readFile(result.getFile()));
+    }
+
+    @Test
+    public void testChecksLimitsOfResumedHeader() throws IOException {
+        mDownloader = createDownloader(new ImageLimits(ImageLimits.DEFAULT_MAX_BYTES,
+                1000 * 1000));
+        mImageServer.setBody(png(2000, 2000, BODY_SIZE), "\"v1\"");
+        // dimensions of png are at bytes 16-24
+        mImageServer.breakNextResponse(10);
+        try {
+            mDownloader.download(getUrl());
+            fail("Broken response downloaded");
+        } catch (IOException e) {
+            // expected
+        }
+        assertEquals(10, getPartialFile().length());
+
+        try {
+            mDownloader.download(getUrl());
+            fail("Resumed image exceeding limits downloaded");
+        } catch (ImageRejectedException e) {
+            // expected
+        }
+        assertEquals("bytes=10-", mImageServer.getLastRange());
+        assertPartialDeleted();
+        assertFalse(getCacheFile().exists());
+    }
+
+    private HttpDownloader createDownloader(ImageLimits limits) {
+        UrlConnectionTransport transport = new UrlConnectionTransport(TIMEOUT_MILLIS,
+                TIMEOUT_MILLIS, TIMEOUT_MILLIS, TIMEOUT_MILLIS, 2);
+        return new HttpDownloader(mFileCache, transport, ByteArrayPool.getDefault(),
+                limits);
+    }
+
+    /**
+     * First download fails after {@link #CUT_SIZE} bytes of body
+     */
+    private void downloadBroken() {
+        mImageServer.breakNextResponse(CUT_SIZE);
+        try {
+            mDownloader.download(getUrl());
+            fail("Broken response downloaded");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    private void assertPartialDeleted() {
+        assertFalse(getPartialFile().exists());
+        assertFalse(getValidatorFile().exists());
+    }
+
+    private String getUrl() {
+        return "http://127.0.0.1:" + mServer.getAddress().getPort() + "/image";
+    }
+
+    private File getCacheFile() {
+        return mFileCache.getCacheFile(getUrl());
+    }
+
+    private File getPartialFile() {
+        return new File(getCacheFile().getPath() + ".part");
+    }
+
+    private File getValidatorFile() {
+        return new File(getCacheFile().getPath() + ".validator");
+    }
+
+    /**
+     * Png signature and IHDR chunk followed by filler bytes
+     */
+    private static byte[] png(int width, int height, int size) {
+        byte[] data = new byte[size];
+        byte[] header = new byte[] {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n',
+                0, 0, 0, 13, 'I', 'H', 'D', 'R'};
+        System.arraycopy(header, 0, data, 0, header.length);
+        writeInt(data, 16, width);
+        writeInt(data, 20, height);
+        for (int i = 24; i < size; i++) {
+            data[i] = (byte) (i * 31);
+        }
+        return data;
+    }
+
+    private static void writeInt(byte[] data, int offset, int value) {
+        data[offset] = (byte) (value >>> 24);
+        data[offset + 1] = (byte) (value >>> 16);
+        data[offset + 2] = (byte) (value >>> 8);
+        data[offset + 3] = (byte) value;
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+        byte[] data = new byte[(int) file.length()];
+        InputStream inputStream = new FileInputStream(file);
+        try {
+            int offset = 0;
+            while (offset < data.length) {
+                int read = inputStream.read(data, offset, data.length - offset);
+                if (read < 0) {
+                    throw new IOException("File shorter than its length: " + file);
+                }
+                offset += read;
+            }
+        } finally {
+            inputStream.close();
+        }
+        return data;
+    }
+
+    /**
+     * Serves one image with strong ETag, answers Range requests as told by
+     * {@link RangeMode}
+     */
+    private static class ImageServer implements HttpHandler {
+        private byte[] mBody;
+        private String mETag;
+        private RangeMode mRangeMode = RangeMode.HONOR;
+        private int mBreakAfter = -1;
+        private final List<String> mRanges = new ArrayList<String>();
+        private String mLastIfRange;
+
+        synchronized void setBody(byte[] body, String eTag) {
+            mBody = body;
+            mETag = eTag;
+        }
+
+        synchronized void setRangeMode(RangeMode rangeMode) {
+            mRangeMode = rangeMode;
+        }
+
+        /**
+         * Next response is cut after given number of body bytes
+         */
+        synchronized void breakNextResponse(int breakAfter) {
+            mBreakAfter = breakAfter;
+        }
+
+        synchronized List<String> getRanges() {
+            return new ArrayList<String>(mRanges);
+        }
+
+        synchronized String getLastRange() {
+            return mRanges.get(mRanges.size() - 1);
+        }
+
+        synchronized String getLastIfRange() {
+            return mLastIfRange;
+        }
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            try {
+                serve(exchange);
+            } finally {
+                exchange.close();
+            }
+        }
+
+        private void serve(HttpExchange exchange) throws IOException {
+            byte[] body;
+            String eTag;
+            RangeMode rangeMode;
+            int breakAfter;
+            String range = exchange.getRequestHeaders().getFirst("Range");
+            String ifRange = exchange.getRequestHeaders().getFirst("If-Range");
+            synchronized (this) {
+                body = mBody;
+                eTag = mETag;
+                rangeMode = mRangeMode;
+                breakAfter = mBreakAfter;
+                mBreakAfter = -1;
+                mRanges.add(range);
+                mLastIfRange = ifRange;
+            }
+            exchange.getResponseHeaders().set("Content-Type", "application/octet-stream");
+            if (eTag != null) {
+                exchange.getResponseHeaders().set("ETag", eTag);
+            }
+            int start = 0;
+            if (range != null && eTag != null && eTag.equals(ifRange)
+                    && rangeMode != RangeMode.IGNORE) {
+                if (rangeMode == RangeMode.NOT_SATISFIABLE) {
+                    exchange.sendResponseHeaders(416, -1);
+                    return;
+                }
+                // bytes=100-
+                start = Integer.parseInt(range.substring("bytes=".length(),
+                        range.length() - 1));
+                if (rangeMode == RangeMode.WRONG_START) {
+                    start--;
+                }
+                exchange.getResponseHeaders().set("Content-Range", "bytes " + start + "-"
+                        + (body.length - 1) + "/" + body.length);
+                exchange.sendResponseHeaders(206, body.length - start);
+            } else {
+                exchange.sendResponseHeaders(200, body.length);
+            }
+            OutputStream outputStream = exchange.getResponseBody();
+            if (breakAfter < 0) {
+                outputStream.write(body, start, body.length - start);
+                return;
+            }
+            outputStream.write(body, start, breakAfter);
+            outputStream.flush();
+            // closing exchange with missing bytes drops connection
+        }
+    }
+}
@@ -0,0 +1,392 @@
+/*
+ * Copyright (C) 2013 Appunite.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.appunite.imageloader;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Drives {@link UrlConnectionTransport} against in-process http server that
+ * delays, stalls or fails responses.
+ */
+public class UrlConnectionTransportTest {
+
+    private static final int BODY_SIZE = 16 * 1024;
+    private static final int STALL_TIMEOUT_MILLIS = 300;
+    private static final int TOTAL_TIMEOUT_MILLIS = 800;
+    private static final int LONG_TIMEOUT_MILLIS = 10 * 1000;
+    // watchdog checks requests every 500ms
+    private static final long ABORT_TOLERANCE_MILLIS = 3 * 1000;
+
+    private final CountDownLatch mRelease = new CountDownLatch(1);
+    private final AtomicInteger mActive = new AtomicInteger();
+    private final AtomicInteger mMaxActive = new AtomicInteger();
+    private HttpServer mServer;
+    private ExecutorService mExecutor;
+    private InetAddress mLoopback;
+
+    @Before
+    public void setUp() throws IOException {
+        mLoopback = InetAddress.getByName("127.0.0.1");
+        mServer = HttpServer.create(new InetSocketAddress(mLoopback, 0), 0);
+        mServer.createContext("/ok", new StubHandler() {
+            @Override
+            void serve(HttpExchange exchange) throws IOException {
+                sendBody(exchange, BODY_SIZE, 0);
+            }
+        });
+        mServer.createContext("/missing", new StubHandler() {
+            @Override
+            void serve(HttpExchange exchange) throws IOException {
+                exchange.sendResponseHeaders(404, -1);
+            }
+        });
+        mServer.createContext("/slow-headers", new StubHandler() {
+            @Override
+            void serve(HttpExchange exchange) throws IOException {
+                awaitRelease();
+                sendBody(exchange, BODY_SIZE, 0);
+            }
+        });
+        mServer.createContext("/stall", new StubHandler() {
+            @Override
+            void serve(HttpExchange exchange) throws IOException {
+                exchange.sendResponseHeaders(200, BODY_SIZE);
+                OutputStream outputStream = exchange.getResponseBody();
+                outputStream.write(new byte[1024]);
+                outputStream.flush();
+                awaitRelease();
+            }
+        });
+        mServer.createContext("/trickle", new StubHandler() {
+            @Override
+            void serve(HttpExchange exchange) throws IOException {
+                // never stalls, but would take whole minute
+                sendBody(exchange, 1200, 50);
+            }
+        });
+        mServer.createContext("/busy", new StubHandler() {
+            @Override
+            void serve(HttpExchange exchange) throws IOException {
+                int active = mActive.incrementAndGet();
+                try {
+                    int max;
+                    do {
+                        max = mMaxActive.get();
+                    } while (active > max && !mMaxActive.compareAndSet(max, active));
+                    sleep(200);
+                    sendBody(exchange, BODY_SIZE, 0);
+                } finally {
+                    mActive.decrementAndGet();
+                }
+            }
+        });
+        mExecutor = Executors.newCachedThreadPool();
+        mServer.setExecutor(mExecutor);
+        mServer.start();
+    }
+
+    @After
+    public void tearDown() {
+        mRelease.countDown();
+        mServer.stop(0);
+        mExecutor.shutdownNow();
+    }
+
+    @Test
+    public void testReadsWholeBody() throws IOException {
+        UrlConnectionTransport transport = createTransport(LONG_TIMEOUT_MILLIS,
+                LONG_TIMEOUT_MILLIS, 2);
+        HttpTransport.Response response = transport.execute(getUrl("/ok"));
+        try {
+            assertEquals(200, response.getResponseCode());
+            assertEquals(BODY_SIZE, response.getContentLength());
+            assertEquals(BODY_SIZE, readFully(response.getInputStream()));
+        } finally {
+            response.close();
+        }
+        TransportMetrics metrics = transport.getMetrics();
+        assertEquals(1, metrics.requestCount());
+        assertEquals(0, metrics.failureCount());
+        assertEquals(0, metrics.timeoutCount());
+        assertEquals(BODY_SIZE, metrics.bytesReceived());
+    }
+
+    @Test
+    public void testErrorResponseCode() throws IOException {
+        UrlConnectionTransport transport = createTransport(LONG_TIMEOUT_MILLIS,
+                LONG_TIMEOUT_MILLIS, 2);
+        try {
+            transport.execute(getUrl("/missing"));
+            fail("Error response returned");
+        } catch (HttpTransport.HttpResponseException e) {
+            assertEquals(404, e.getResponseCode());
+        }
+        assertEquals(1, transport.getMetrics().failureCount());
+        assertPermitReleased(transport);
+    }
+
+    @Test
+    public void testConnectTimeout() throws IOException {
+        // server that never accepts, with full backlog connect hangs
+        ServerSocket serverSocket = new ServerSocket(0, 1, mLoopback);
+        List<Socket> fillers = new ArrayList<Socket>();
+        try {
+            InetSocketAddress address = new InetSocketAddress(mLoopback,
+                    serverSocket.getLocalPort());
+            for (int i = 0; i < 8; i++) {
+                Socket socket = new Socket();
+                try {
+                    socket.connect(address, 200);
+                    fillers.add(socket);
+                } catch (IOException e) {
+                    socket.close();
+                    break;
+                }
+            }
+            UrlConnectionTransport transport = new UrlConnectionTransport(300,
+                    LONG_TIMEOUT_MILLIS, LONG_TIMEOUT_MILLIS, LONG_TIMEOUT_MILLIS, 2);
+            long start = System.currentTimeMillis();
+            try {
+                transport.execute("http://127.0.0.1:" + serverSocket.getLocalPort() + "/");
+                fail("Connected to server that does not accept");
+            } catch (SocketTimeoutException e) {
+                assertFinishedWithin(start, ABORT_TOLERANCE_MILLIS);
+            }
+        } finally {
+            for (Socket socket : fillers) {
+                socket.close();
+            }
+            serverSocket.close();
+        }
+    }
+
+    @Test
+    public void testReadTimeout() throws IOException {
+        UrlConnectionTransport transport = new UrlConnectionTransport(LONG_TIMEOUT_MILLIS,
+                300, LONG_TIMEOUT_MILLIS, LONG_TIMEOUT_MILLIS, 2);
+        long start = System.currentTimeMillis();
+        try {
+            transport.execute(getUrl("/slow-headers"));
+            fail("Response without headers returned");
+        } catch (SocketTimeoutException e) {
+            assertFinishedWithin(start, ABORT_TOLERANCE_MILLIS);
+        }
+        assertEquals(1, transport.getMetrics().failureCount());
+        assertPermitReleased(transport);
+    }
+
+    @Test
+    public void testStalledBody() throws IOException {
+        UrlConnectionTransport transport = createTransport(STALL_TIMEOUT_MILLIS,
+                LONG_TIMEOUT_MILLIS, 2);
+        HttpTransport.Response response = transport.execute(getUrl("/stall"));
+        long start = System.currentTimeMillis();
+        try {
+            readFully(response.getInputStream());
+            fail("Stalled body read");
+        } catch (SocketTimeoutException e) {
+            assertFinishedWithin(start, ABORT_TOLERANCE_MILLIS);
+        } finally {
+            response.close();
+        }
+        TransportMetrics metrics = transport.getMetrics();
+        assertEquals(1, metrics.timeoutCount());
+        assertEquals(1, metrics.failureCount());
+        assertPermitReleased(transport);
+    }
+
+    @Test
+    public void testTotalDeadline() throws IOException {
+        UrlConnectionTransport transport = createTransport(STALL_TIMEOUT_MILLIS,
+                TOTAL_TIMEOUT_MILLIS, 2);
+        long start = System.currentTimeMillis();
+        HttpTransport.Response response = transport.execute(getUrl("/trickle"));
+        try {
+            readFully(response.getInputStream());
+            fail("Body read after deadline");
+        } catch (SocketTimeoutException e) {
+            assertFinishedWithin(start, TOTAL_TIMEOUT_MILLIS + ABORT_TOLERANCE_MILLIS);
+        } finally {
+            response.close();
+        }
+        assertEquals(1, transport.getMetrics().timeoutCount());
+    }
+
+    @Test
+    public void testConnectionsPerHostLimited() throws Exception {
+        final UrlConnectionTransport transport = createTransport(LONG_TIMEOUT_MILLIS,
+                LONG_TIMEOUT_MILLIS, 2);
+        final AtomicInteger succeeded = new AtomicInteger();
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < 6; i++) {
+            Thread thread = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        HttpTransport.Response response = transport.execute(getUrl("/busy"));
+                        try {
+                            if (readFully(response.getInputStream()) == BODY_SIZE) {
+                                succeeded.incrementAndGet();
+                            }
+                        } finally {
+                            response.close();
+                        }
+                    } catch (IOException ignore) {
+                    }
+                }
+            };
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join(LONG_TIMEOUT_MILLIS);
+        }
+        assertEquals(6, succeeded.get());
+        assertEquals(2, mMaxActive.get());
+        assertEquals(0, transport.getHostCount());
+    }
+
+    @Test
+    public void testWaitingForConnectionCountsToDeadline() throws IOException {
+        UrlConnectionTransport transport = createTransport(LONG_TIMEOUT_MILLIS,
+                TOTAL_TIMEOUT_MILLIS, 1);
+        HttpTransport.Response holding = transport.execute(getUrl("/ok"));
+        try {
+            long start = System.currentTimeMillis();
+            try {
+                transport.execute(getUrl("/ok"));
+                fail("Limit of connections per host exceeded");
+            } catch (SocketTimeoutException e) {
+                assertTrue(System.currentTimeMillis() - start >= TOTAL_TIMEOUT_MILLIS);
+            }
+        } finally {
+            holding.close();
+        }
+        assertEquals(1, transport.getMetrics().timeoutCount());
+        assertPermitReleased(transport);
+    }
+
+    private UrlConnectionTransport createTransport(long stallTimeoutMillis,
+                                                   long totalTimeoutMillis,
+                                                   int maxConnectionsPerHost) {
+        return new UrlConnectionTransport(LONG_TIMEOUT_MILLIS, LONG_TIMEOUT_MILLIS,
+                stallTimeoutMillis, totalTimeoutMillis, maxConnectionsPerHost);
+    }
+
+    /**
+     * Failed requests have to give back connection to host and forget it
+     */
+    private void assertPermitReleased(UrlConnectionTransport transport) throws IOException {
+        HttpTransport.Response response = transport.execute(getUrl("/ok"));
+        try {
+            assertEquals(BODY_SIZE, readFully(response.getInputStream()));
+        } finally {
+            response.close();
+        }
+        assertEquals(0, transport.getHostCount());
+    }
+
+    private static void assertFinishedWithin(long start, long millis) {
+        long elapsed = System.currentTimeMillis() - start;
+        assertTrue("Took " + elapsed + "ms", elapsed < millis);
+    }
+
+    private String getUrl(String path) {
+        return "http://127.0.0.1:" + mServer.getAddress().getPort() + path;
+    }
+
+    private static int readFully(InputStream inputStream) throws IOException {
+        byte[] buffer = new byte[4096];
+        int total = 0;
+        int count;
+        while ((count = inputStream.read(buffer)) >= 0) {
+            total += count;
+        }
+        return total;
+    }
+
+    private void awaitRelease() {
+        try {
+            mRelease.await(LONG_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void sendBody(HttpExchange exchange, int size, long delayPerByteMillis)
+            throws IOException {
+        exchange.sendResponseHeaders(200, size);
+        OutputStream outputStream = exchange.getResponseBody();
+        if (delayPerByteMillis == 0) {
+            outputStream.write(new byte[size]);
+            return;
+        }
+        for (int i = 0; i < size && mRelease.getCount() > 0; i++) {
+            outputStream.write(0);
+            outputStream.flush();
+            sleep(delayPerByteMillis);
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private abstract static class StubHandler implements HttpHandler {
+
+        abstract void serve(HttpExchange exchange) throws IOException;
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            try {
+                serve(exchange);
+            } finally {
+                exchange.close();
+            }
+        }
+    }
+}
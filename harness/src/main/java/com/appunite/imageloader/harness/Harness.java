@@ -0,0 +1,231 @@
+/*
+ * Copyright (C) 2013 Appunite.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.appunite.imageloader.harness;
+
+import com.appunite.imageloader.Dispatcher;
+import com.appunite.imageloader.UrlConnectionTransport;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Replays scroll trace against loader and local http stub and reports
+ * time-to-display percentiles, wasted downloads, hit ratios of cache tiers
+ * and peak memory.
+ *
+ * Every run starts with empty memory cache, disk cache is shared between
+ * runs, so second run shows behaviour after returning to screen.
+ *
+ * <pre>
+ * java com.appunite.imageloader.harness.Harness [--trace file] [--save-trace file]
+ *     [--items 500] [--visible 8] [--fling 30] [--duration 20000] [--seed 1]
+ *     [--latency 100] [--bandwidth 512] [--threads 3] [--connections 2]
+ *     [--memory-cache 16384] [--width 200] [--height 200] [--runs 2]
+ *     [--cache-dir dir] [--json file]
+ * </pre>
+ *
+ * Bandwidth and memory cache are in kilobytes, times in milliseconds.
+ */
+public class Harness {
+
+    private static final long DRAIN_TIMEOUT_MILLIS = 60 * 1000;
+    private static final long HEAP_SAMPLE_MILLIS = 50;
+
+    private final Map<String, String> mOptions;
+
+    private Harness(Map<String, String> options) {
+        mOptions = options;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<String, String>();
+        for (int i = 0; i < args.length; i++) {
+            if (!args[i].startsWith("--") || i + 1 >= args.length) {
+                System.err.println("Wrong argument: " + args[i]);
+                System.exit(1);
+            }
+            options.put(args[i].substring(2), args[++i]);
+        }
+        new Harness(options).run();
+    }
+
+    private int getInt(String name, int defaultValue) {
+        String value = mOptions.get(name);
+        return value == null ? defaultValue : Integer.parseInt(value);
+    }
+
+    private void run() throws Exception {
+        ScrollTrace trace;
+        if (mOptions.containsKey("trace")) {
+            trace = ScrollTrace.read(new File(mOptions.get("trace")));
+        } else {
+            trace = ScrollTrace.synthetic(getInt("items", 500), getInt("visible", 8),
+                    getInt("fling", 30), getInt("duration", 20000), getInt("seed", 1));
+        }
+        if (mOptions.containsKey("save-trace")) {
+            trace.write(new File(mOptions.get("save-trace")));
+        }
+
+        boolean temporaryCache = !mOptions.containsKey("cache-dir");
+        File cacheDirectory = temporaryCache ? createTempDirectory()
+                : new File(mOptions.get("cache-dir"));
+        HttpStub stub = new HttpStub(getInt("latency", 100),
+                getInt("bandwidth", 512) * 1024L);
+        stub.start();
+        List<ReplayReport> reports = new ArrayList<ReplayReport>();
+        try {
+            int runs = getInt("runs", 2);
+            for (int run = 1; run <= runs; run++) {
+                ReplayReport report = replay(trace, stub, cacheDirectory,
+                        "run " + run + " of " + runs);
+                System.out.print(report.toText());
+                reports.add(report);
+            }
+        } finally {
+            stub.stop();
+            if (temporaryCache) {
+                delete(cacheDirectory);
+            }
+        }
+        if (mOptions.containsKey("json")) {
+            OutputStream outputStream = new FileOutputStream(mOptions.get("json"));
+            try {
+                outputStream.write(ReplayReport.toJson(reports).getBytes("UTF-8"));
+            } finally {
+                outputStream.close();
+            }
+        }
+    }
+
+    private ReplayReport replay(ScrollTrace trace, HttpStub stub, File cacheDirectory,
+                                String name) throws InterruptedException, ExecutionException {
+        final ScheduledExecutorService ui = Executors.newSingleThreadScheduledExecutor();
+        Dispatcher dispatcher = new Dispatcher() {
+            @Override
+            public void dispatch(Runnable runnable) {
+                ui.execute(runnable);
+            }
+        };
+        UrlConnectionTransport transport = new UrlConnectionTransport(
+                UrlConnectionTransport.DEFAULT_CONNECT_TIMEOUT_MILLIS,
+                UrlConnectionTransport.DEFAULT_READ_TIMEOUT_MILLIS,
+                UrlConnectionTransport.DEFAULT_STALL_TIMEOUT_MILLIS,
+                UrlConnectionTransport.DEFAULT_TOTAL_TIMEOUT_MILLIS,
+                getInt("connections", UrlConnectionTransport.DEFAULT_MAX_CONNECTIONS_PER_HOST));
+        final ReplayLoader loader = new ReplayLoader(getInt("width", 200),
+                getInt("height", 200), getInt("memory-cache", 16 * 1024) * 1024,
+                cacheDirectory, transport, dispatcher);
+        final ReplayLoader.Slot[] slots = new ReplayLoader.Slot[trace.getSlotCount()];
+        for (int i = 0; i < slots.length; i++) {
+            slots[i] = new ReplayLoader.Slot();
+        }
+        Map<String, String> stubUrls = new HashMap<String, String>();
+        final long[] peakHeap = new long[1];
+        long requestsBefore = stub.getRequestCount();
+        long bytesBefore = stub.getServedBytes();
+
+        loader.start(getInt("threads", 3));
+        ui.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                Runtime runtime = Runtime.getRuntime();
+                peakHeap[0] = Math.max(peakHeap[0], runtime.totalMemory() - runtime.freeMemory());
+            }
+        }, 0, HEAP_SAMPLE_MILLIS, TimeUnit.MILLISECONDS);
+        for (final ScrollTrace.Event event : trace.getEvents()) {
+            final ReplayLoader.Slot slot = slots[event.getSlot()];
+            if (!event.isBind()) {
+                ui.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        loader.unbind(slot);
+                    }
+                }, event.getTimeMillis(), TimeUnit.MILLISECONDS);
+                continue;
+            }
+            String stubUrl = stubUrls.get(event.getUrl());
+            if (stubUrl == null) {
+                stubUrl = stub.getUrl(String.valueOf(stubUrls.size()), event.getWidth(),
+                        event.getHeight(), event.getBytes());
+                stubUrls.put(event.getUrl(), stubUrl);
+            }
+            final String url = stubUrl;
+            ui.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    loader.bind(slot, event.getUrl(), url);
+                }
+            }, event.getTimeMillis(), TimeUnit.MILLISECONDS);
+        }
+
+        Thread.sleep(trace.getDurationMillis());
+        long drainEnd = System.currentTimeMillis() + DRAIN_TIMEOUT_MILLIS;
+        Callable<Boolean> isIdle = new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return loader.isIdle();
+            }
+        };
+        while (!ui.submit(isIdle).get() && System.currentTimeMillis() < drainEnd) {
+            Thread.sleep(HEAP_SAMPLE_MILLIS);
+        }
+        loader.stop();
+
+        final ReplayReport report = new ReplayReport(name);
+        ui.submit(new Runnable() {
+            @Override
+            public void run() {
+                loader.fillReport(report);
+                report.put("peakHeapBytes", peakHeap[0]);
+            }
+        }).get();
+        ui.shutdownNow();
+        report.put("stubRequests", stub.getRequestCount() - requestsBefore)
+                .put("stubBytes", stub.getServedBytes() - bytesBefore);
+        return report;
+    }
+
+    private static File createTempDirectory() throws IOException {
+        File file = File.createTempFile("imageloader-harness", "");
+        if (!file.delete() || !file.mkdirs()) {
+            throw new IOException("Could not create directory " + file);
+        }
+        return file;
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        //noinspection ResultOfMethodCallIgnored
+        file.delete();
+    }
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright (C) 2013 Appunite.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.appunite.imageloader.harness;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Local http server serving synthetic jpeg images with configurable latency
+ * and bandwidth.
+ *
+ * Image size and dimensions are encoded in url, see
+ * {@link #getUrl(String, int, int, int)}. Body starts with real jpeg header
+ * so loader sniffs dimensions as from real image, the rest is filler.
+ */
+public class HttpStub {
+
+    private static final String PATH = "/image/";
+    private static final int CHUNK_SIZE = 4 * 1024;
+    private static final byte[] JPEG_EOI = {(byte) 0xff, (byte) 0xd9};
+
+    private final long mLatencyMillis;
+    private final long mBytesPerSecond;
+    private final HttpServer mServer;
+    private final ExecutorService mExecutor;
+    private final AtomicLong mRequestCount = new AtomicLong();
+    private final AtomicLong mServedBytes = new AtomicLong();
+
+    /**
+     * @param latencyMillis
+     *            delay before response headers are sent
+     * @param bytesPerSecond
+     *            bandwidth of every response or 0 for unlimited
+     */
+    public HttpStub(long latencyMillis, long bytesPerSecond) throws IOException {
+        if (latencyMillis < 0 || bytesPerSecond < 0) {
+            throw new IllegalArgumentException("Latency and bandwidth could not be negative");
+        }
+        mLatencyMillis = latencyMillis;
+        mBytesPerSecond = bytesPerSecond;
+        mServer = HttpServer.create(new InetSocketAddress(
+                InetAddress.getByName("127.0.0.1"), 0), 0);
+        mServer.createContext(PATH, new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    serve(exchange);
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+        mExecutor = Executors.newCachedThreadPool();
+        mServer.setExecutor(mExecutor);
+    }
+
+    public void start() {
+        mServer.start();
+    }
+
+    public void stop() {
+        mServer.stop(0);
+        mExecutor.shutdownNow();
+    }
+
+    /**
+     * @param id
+     *            identifier of image, different ids are cached separately
+     * @param bytes
+     *            size of response body
+     * @return url of image served by this stub
+     */
+    public String getUrl(String id, int width, int height, int bytes) {
+        return String.format(Locale.US, "http://127.0.0.1:%d%s%s?w=%d&h=%d&bytes=%d",
+                mServer.getAddress().getPort(), PATH, id, width, height, bytes);
+    }
+
+    public long getRequestCount() {
+        return mRequestCount.get();
+    }
+
+    public long getServedBytes() {
+        return mServedBytes.get();
+    }
+
+    private void serve(HttpExchange exchange) throws IOException {
+        mRequestCount.incrementAndGet();
+        Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+        int width = parseInt(query.get("w"), 100);
+        int height = parseInt(query.get("h"), 100);
+        byte[] header = createJpegHeader(width, height);
+        int bytes = Math.max(parseInt(query.get("bytes"), 0),
+                header.length + JPEG_EOI.length);
+        sleep(mLatencyMillis);
+
+        exchange.getResponseHeaders().set("Content-Type", "image/jpeg");
+        exchange.getResponseHeaders().set("ETag", "\"" + exchange.getRequestURI()
+                .getRawPath().hashCode() + "-" + bytes + "\"");
+        exchange.sendResponseHeaders(200, bytes);
+        OutputStream outputStream = exchange.getResponseBody();
+        long start = System.nanoTime();
+        byte[] chunk = new byte[CHUNK_SIZE];
+        int written = 0;
+        while (written < bytes) {
+            int count = Math.min(CHUNK_SIZE, bytes - written);
+            for (int i = 0; i < count; i++) {
+                chunk[i] = getByte(header, bytes, written + i);
+            }
+            outputStream.write(chunk, 0, count);
+            written += count;
+            mServedBytes.addAndGet(count);
+            throttle(start, written);
+        }
+        outputStream.flush();
+    }
+
+    private static byte getByte(byte[] header, int bytes, int position) {
+        if (position < header.length) {
+            return header[position];
+        }
+        int fromEnd = bytes - position;
+        if (fromEnd <= JPEG_EOI.length) {
+            return JPEG_EOI[JPEG_EOI.length - fromEnd];
+        }
+        // entropy coded data never looks like text
+        return (byte) (0x80 | (position & 0x3f));
+    }
+
+    private void throttle(long startNanos, int written) {
+        if (mBytesPerSecond == 0) {
+            return;
+        }
+        long expectedMillis = written * 1000L / mBytesPerSecond;
+        long elapsedMillis = (System.nanoTime() - startNanos) / (1000 * 1000);
+        sleep(expectedMillis - elapsedMillis);
+    }
+
+    /**
+     * SOI and baseline SOF0 segment of grayscale image
+     */
+    static byte[] createJpegHeader(int width, int height) {
+        return new byte[] {
+                (byte) 0xff, (byte) 0xd8,
+                (byte) 0xff, (byte) 0xc0, 0x00, 0x0b, 0x08,
+                (byte) (height >> 8), (byte) height,
+                (byte) (width >> 8), (byte) width,
+                0x01, 0x01, 0x11, 0x00
+        };
+    }
+
+    private static Map<String, String> parseQuery(String query) {
+        Map<String, String> result = new HashMap<String, String>();
+        if (query == null) {
+            return result;
+        }
+        for (String parameter : query.split("&")) {
+            int equals = parameter.indexOf('=');
+            if (equals > 0) {
+                result.put(parameter.substring(0, equals), parameter.substring(equals + 1));
+            }
+        }
+        return result;
+    }
+
+    private static int parseInt(String value, int defaultValue) {
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    private static void sleep(long millis) {
+        if (millis <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,610 @@
+/*
+ * Copyright (C) 2013 Appunite.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.appunite.imageloader.harness;
+
+import com.appunite.imageloader.Clock;
+import com.appunite.imageloader.Dispatcher;
+import com.appunite.imageloader.LoadBindings;
+import com.appunite.imageloader.LoadCoordinator;
+import com.appunite.imageloader.LoadEvent;
+import com.appunite.imageloader.LoadQueue;
+import com.appunite.imageloader.LoadWorker;
+import com.appunite.imageloader.LruCache;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Stress of request lifecycle of {@code RemoteImageLoader}: holders are
+ * randomly bound, rebound and unbound on ui thread through
+ * {@link LoadCoordinator} used by loader, also with previews. Memory cache
+ * hits are displayed at once, misses are taken by workers that complete them
+ * out of order and deliver results back through {@link Dispatcher}.
+ *
+ * Checks that no holder ever gets image of request it no longer waits for,
+ * that preview never replaces full image, that after all loads finish every
+ * holder shows image of its last bound request (or failure if its resource
+ * fails) and that queue, bindings and previews are empty, i.e. no wakeup was
+ * lost and no entry leaked.
+ *
+ * By default workers are scripted: single thread interleaves binds, takes,
+ * completions and deliveries in order drawn from seed, so every run with
+ * the same seed is the same and failing seed could be replayed. With
+ * {@code --threads} workers are real {@link LoadWorker} threads and
+ * completion order depends on thread scheduling, so runs with many
+ * iterations should be used.
+ *
+ * <pre>
+ * java com.appunite.imageloader.harness.LifecycleStress [--holders 2000]
+ *     [--resources 500] [--binds 200000] [--workers 4] [--cache 100]
+ *     [--iterations 5] [--seed 1] [--threads]
+ * </pre>
+ *
+ * Exits with status 1 if any check fails.
+ */
+public class LifecycleStress {
+
+    private static final long DRAIN_TIMEOUT_MILLIS = 30 * 1000;
+    private static final long FAIL_TIME_MILLIS = 50;
+    private static final String FAILED = "<failed>";
+    private static final String PLACEHOLDER = "<placeholder>";
+    private static final String IMAGE_PREFIX = "image:";
+    /**
+     * Size of list items, also shown as cached variant by holders loaded
+     * with preview
+     */
+    private static final String SMALL = "small";
+    /**
+     * Size of holders loaded with preview
+     */
+    private static final String LARGE = "large";
+    private static final String PREVIEW = "preview";
+    /**
+     * Every resource with index divisible by this fails
+     */
+    private static final int FAILING_RESOURCE_MODULO = 37;
+    private static final int BIND_BATCH = 64;
+    /**
+     * Out of 100 binds, rest are normal binds
+     */
+    private static final int UNBIND_PERCENT = 5;
+    private static final int URGENT_PERCENT = 5;
+    private static final int PREVIEW_PERCENT = 10;
+    private static final int MAX_BIND_PAUSE_NANOS = 200 * 1000;
+    private static final int MAX_LOAD_NANOS = 200 * 1000;
+
+    private static class Request implements LoadCoordinator.Request {
+        final String mResource;
+        final String mKey;
+        final LoadEvent mEvent;
+
+        Request(String resource, String size, Clock clock) {
+            mResource = resource;
+            mKey = key(resource, size);
+            mEvent = new LoadEvent(resource, clock);
+        }
+
+        @Override
+        public String getResource() {
+            return mResource;
+        }
+
+        @Override
+        public String getKey() {
+            return mKey;
+        }
+
+        @Override
+        public LoadEvent getEvent() {
+            return mEvent;
+        }
+    }
+
+    private static class Holder {
+        final int mIndex;
+        String mRequested;
+        /**
+         * Keys of images holder could show for its current binding
+         */
+        List<String> mAccepted = Collections.emptyList();
+        String mDisplayed;
+
+        Holder(int index) {
+            mIndex = index;
+        }
+    }
+
+    /**
+     * Holder that keeps its token, like views of loader, other holders are
+     * tracked in map of bindings
+     */
+    private static class TokenHolder extends Holder
+            implements LoadBindings.TokenHolder<Holder> {
+        private LoadQueue.Token<Holder> mToken;
+
+        TokenHolder(int index) {
+            super(index);
+        }
+
+        @Override
+        public LoadQueue.Token<Holder> getLoadToken() {
+            return mToken;
+        }
+
+        @Override
+        public void setLoadToken(LoadQueue.Token<Holder> token) {
+            mToken = token;
+        }
+    }
+
+    /**
+     * Time of scripted run, advanced by scheduler
+     */
+    private static class ScriptedClock implements Clock {
+        long mMillis = 0;
+
+        @Override
+        public long currentTimeMillis() {
+            return mMillis;
+        }
+
+        @Override
+        public long nanoTime() {
+            return TimeUnit.MILLISECONDS.toNanos(mMillis);
+        }
+    }
+
+    /**
+     * Memory cache of strings, checks every image shown by holder, called
+     * by coordinator on ui thread
+     */
+    private class StressHandler implements LoadCoordinator.Handler<Request, Holder, String> {
+
+        @Override
+        public String getCached(Request request) {
+            return mCache.get(request.mKey);
+        }
+
+        @Override
+        public String getCachedVariant(Request request) {
+            return mCache.get(key(request.mResource, SMALL));
+        }
+
+        @Override
+        public void onQueued(Request request) {
+        }
+
+        @Override
+        public void onFinished(Request request, String image, LoadEvent.Outcome outcome) {
+            if (image != null) {
+                mCache.put(request.mKey, image);
+            }
+        }
+
+        @Override
+        public void setImage(Holder holder, String image, boolean immediately) {
+            String key = image.substring(IMAGE_PREFIX.length());
+            if (!holder.mAccepted.contains(key)) {
+                mErrors.add(String.format("Holder %d got %s while waiting for %s",
+                        holder.mIndex, key, holder.mAccepted));
+            } else if (!key.equals(holder.mAccepted.get(0))
+                    && (IMAGE_PREFIX + holder.mAccepted.get(0)).equals(holder.mDisplayed)) {
+                mErrors.add(String.format("Holder %d got preview %s after full image",
+                        holder.mIndex, key));
+            }
+            holder.mDisplayed = image;
+        }
+
+        @Override
+        public void setFailure(Holder holder, boolean immediately) {
+            if (holder.mRequested == null || !isFailing(holder.mRequested)) {
+                mErrors.add(String.format("Holder %d failed while waiting for %s",
+                        holder.mIndex, holder.mRequested));
+            }
+            holder.mDisplayed = FAILED;
+        }
+
+        @Override
+        public void setPlaceholder(Holder holder, boolean immediately) {
+            if (holder.mIndex < 0) {
+                mErrors.add("Placeholder set to preview holder " + holder.mIndex);
+            }
+            holder.mDisplayed = PLACEHOLDER;
+        }
+
+        @Override
+        public void onImageLoaded(LoadEvent event) {
+            if (event.getSource() == LoadEvent.Source.MEMORY) {
+                mMemoryHits++;
+            } else {
+                mDeliveries++;
+            }
+        }
+    }
+
+    private final int mHolderCount;
+    private final int mResourceCount;
+    private final int mBindCount;
+    private final int mWorkerCount;
+    private final int mCacheSize;
+    private final long mSeed;
+    private final boolean mThreads;
+
+    private final ScriptedClock mScriptedClock = new ScriptedClock();
+    private final Clock mClock;
+    private final LoadCoordinator<Request, Holder, String> mCoordinator;
+    private final LoadQueue<Request, Holder> mQueue;
+    private LruCache<String, String> mCache;
+    private Holder[] mHolders;
+    private final List<String> mErrors = new ArrayList<String>();
+    private final AtomicLong mLoads = new AtomicLong();
+    private long mMemoryHits;
+    private long mDeliveries;
+
+    /**
+     * Ui thread of threaded run
+     */
+    private final ExecutorService mUi;
+    /**
+     * Ui thread messages of scripted run, run in order like looper does
+     */
+    private final LinkedList<Runnable> mPosted = new LinkedList<Runnable>();
+    private final Dispatcher mDispatcher;
+
+    private LifecycleStress(int holderCount, int resourceCount, int bindCount,
+                            int workerCount, int cacheSize, long seed, boolean threads) {
+        mHolderCount = holderCount;
+        mResourceCount = resourceCount;
+        mBindCount = bindCount;
+        mWorkerCount = workerCount;
+        mCacheSize = cacheSize;
+        mSeed = seed;
+        mThreads = threads;
+        mClock = threads ? Clock.SYSTEM : mScriptedClock;
+        if (threads) {
+            mUi = Executors.newSingleThreadExecutor();
+            mDispatcher = new Dispatcher() {
+                @Override
+                public void dispatch(Runnable runnable) {
+                    mUi.execute(runnable);
+                }
+            };
+        } else {
+            mUi = null;
+            mDispatcher = new Dispatcher() {
+                @Override
+                public void dispatch(Runnable runnable) {
+                    mPosted.add(runnable);
+                }
+            };
+        }
+        mCoordinator = new LoadCoordinator<Request, Holder, String>(mDispatcher, mClock,
+                FAIL_TIME_MILLIS, FAIL_TIME_MILLIS, new StressHandler());
+        mQueue = mCoordinator.getQueue();
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<String, String>();
+        boolean threads = false;
+        for (int i = 0; i < args.length; i++) {
+            if ("--threads".equals(args[i])) {
+                threads = true;
+            } else if (i + 1 < args.length) {
+                options.put(args[i].replaceFirst("^--", ""), args[i + 1]);
+                i++;
+            }
+        }
+        int iterations = getInt(options, "iterations", 5);
+        long seed = getInt(options, "seed", 1);
+        boolean failed = false;
+        for (int i = 0; i < iterations; i++) {
+            LifecycleStress stress = new LifecycleStress(
+                    getInt(options, "holders", 2000),
+                    getInt(options, "resources", 500),
+                    getInt(options, "binds", 200000),
+                    getInt(options, "workers", 4),
+                    getInt(options, "cache", 100),
+                    seed + i, threads);
+            if (!stress.run()) {
+                failed = true;
+            }
+        }
+        System.exit(failed ? 1 : 0);
+    }
+
+    private static int getInt(Map<String, String> options, String name, int defaultValue) {
+        String value = options.get(name);
+        return value == null ? defaultValue : Integer.parseInt(value);
+    }
+
+    private static String resource(int index) {
+        return "http://example.com/" + index + ".jpg";
+    }
+
+    private static String previewResource(int index) {
+        return "http://example.com/thumbs/" + (index + 1) + ".jpg";
+    }
+
+    private static String key(String resource, String size) {
+        return resource + "_" + size;
+    }
+
+    private static boolean isFailing(String resource) {
+        int index = Integer.parseInt(resource.substring(resource.lastIndexOf('/') + 1,
+                resource.lastIndexOf('.')));
+        return index % FAILING_RESOURCE_MODULO == 0;
+    }
+
+    private boolean run() throws Exception {
+        long start = System.nanoTime();
+        mCache = new LruCache<String, String>(mCacheSize);
+        mHolders = new Holder[mHolderCount];
+        for (int i = 0; i < mHolderCount; i++) {
+            mHolders[i] = i % 2 == 0 ? new TokenHolder(i) : new Holder(i);
+        }
+        boolean drained = mThreads ? runThreads() : runScripted();
+        if (!drained) {
+            mErrors.add(String.format("Not drained: queued=%d processing=%d holders=%d",
+                    mQueue.queuedCount(), mQueue.processingCount(), mQueue.holderCount()));
+        }
+
+        long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        System.out.println(String.format("seed=%d mode=%s binds=%d memoryHits=%d loads=%d "
+                + "deliveries=%d time=%dms errors=%d", mSeed,
+                mThreads ? "threads" : "scripted", mBindCount, mMemoryHits, mLoads.get(),
+                mDeliveries, millis, mErrors.size()));
+        for (int i = 0; i < Math.min(mErrors.size(), 20); i++) {
+            System.out.println("  " + mErrors.get(i));
+        }
+        return mErrors.isEmpty();
+    }
+
+    /**
+     * Interleaves binds, takes, completions and deliveries on this thread in
+     * order drawn from seed
+     */
+    private boolean runScripted() {
+        Random binds = new Random(mSeed);
+        Random schedule = new Random(mSeed * 17);
+        // requests taken by workers, completed in random order
+        List<Request> processing = new ArrayList<Request>();
+        int bound = 0;
+        while (true) {
+            mScriptedClock.mMillis++;
+            boolean canBind = bound < mBindCount;
+            boolean canTake = processing.size() < mWorkerCount && mQueue.queuedCount() > 0;
+            boolean canComplete = !processing.isEmpty();
+            boolean canDeliver = !mPosted.isEmpty();
+            if (!canBind && !canTake && !canComplete && !canDeliver) {
+                break;
+            }
+            switch (schedule.nextInt(4)) {
+                case 0:
+                    if (canBind) {
+                        bound += bindBatch(binds, Math.min(BIND_BATCH, mBindCount - bound));
+                        continue;
+                    }
+                    break;
+                case 1:
+                    if (canTake) {
+                        processing.add(mQueue.poll());
+                        continue;
+                    }
+                    break;
+                case 2:
+                    if (canComplete) {
+                        load(processing.remove(schedule.nextInt(processing.size())));
+                        continue;
+                    }
+                    break;
+                default:
+                    if (canDeliver) {
+                        mPosted.removeFirst().run();
+                        continue;
+                    }
+                    break;
+            }
+        }
+        check();
+        return mQueue.queuedCount() == 0 && mQueue.processingCount() == 0;
+    }
+
+    private boolean runThreads() throws Exception {
+        List<LoadWorker<Request>> workers = new ArrayList<LoadWorker<Request>>();
+        for (int i = 0; i < mWorkerCount; i++) {
+            final Random random = new Random(mSeed * 31 + i);
+            LoadWorker<Request> worker = new LoadWorker<Request>(mQueue,
+                    new LoadWorker.Handler<Request>() {
+                        @Override
+                        public void handle(Request request) {
+                            int delay = random.nextInt(4);
+                            if (delay == 1) {
+                                Thread.yield();
+                            } else if (delay > 1) {
+                                LockSupport.parkNanos(random.nextInt(MAX_LOAD_NANOS));
+                            }
+                            load(request);
+                        }
+                    });
+            worker.setDaemon(true);
+            worker.start();
+            workers.add(worker);
+        }
+
+        final Random binds = new Random(mSeed);
+        Random pause = new Random(mSeed * 17);
+        for (int bound = 0; bound < mBindCount; bound += BIND_BATCH) {
+            final int count = Math.min(BIND_BATCH, mBindCount - bound);
+            // batches interleave with deliveries on ui thread, pauses let
+            // workers complete loads while holders are still rebound
+            mUi.submit(new Runnable() {
+                @Override
+                public void run() {
+                    bindBatch(binds, count);
+                }
+            }).get();
+            LockSupport.parkNanos(pause.nextInt(MAX_BIND_PAUSE_NANOS));
+        }
+
+        boolean drained = waitForDrain();
+        for (LoadWorker<Request> worker : workers) {
+            worker.stopSelf();
+            worker.interrupt();
+        }
+        mUi.submit(new Runnable() {
+            @Override
+            public void run() {
+                check();
+            }
+        }).get();
+        mUi.shutdownNow();
+        return drained;
+    }
+
+    /**
+     * Called on ui thread
+     *
+     * @return number of binds made
+     */
+    private int bindBatch(Random random, int count) {
+        for (int i = 0; i < count; i++) {
+            Holder holder = mHolders[random.nextInt(mHolderCount)];
+            // skewed so some resources are shared by many holders
+            int resource = (int) (mResourceCount * Math.pow(random.nextDouble(), 2));
+            int kind = random.nextInt(100);
+            if (kind < UNBIND_PERCENT) {
+                unbind(holder);
+            } else if (kind < UNBIND_PERCENT + PREVIEW_PERCENT) {
+                bindWithPreview(holder, resource, i);
+            } else {
+                bind(holder, resource(resource),
+                        kind < UNBIND_PERCENT + PREVIEW_PERCENT + URGENT_PERCENT);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Urgent binds are large, so full images of holders with preview are
+     * also taken before other requests and may finish before preview
+     */
+    private void bind(Holder holder, String resource, boolean urgent) {
+        Request request = new Request(resource, urgent ? LARGE : SMALL, mClock);
+        holder.mRequested = resource;
+        holder.mAccepted = Collections.singletonList(request.mKey);
+        holder.mDisplayed = null;
+        mCoordinator.load(holder, request, urgent, true);
+    }
+
+    /**
+     * Bind large image with preview resource of detail screen, small variant
+     * cached by list is shown as preview too. Preview resources fail
+     * independently of their images.
+     */
+    private void bindWithPreview(Holder holder, int resourceIndex, int index) {
+        String resource = resource(resourceIndex);
+        Request request = new Request(resource, LARGE, mClock);
+        Request preview = new Request(previewResource(resourceIndex), PREVIEW, mClock);
+        holder.mRequested = resource;
+        holder.mAccepted = Arrays.asList(request.mKey, preview.mKey,
+                key(resource, SMALL));
+        holder.mDisplayed = null;
+        // negative index marks holders that should never show anything
+        Holder previewHolder = index % 2 == 0 ? new TokenHolder(-1 - holder.mIndex)
+                : new Holder(-1 - holder.mIndex);
+        mCoordinator.loadWithPreview(holder, request, previewHolder, preview, true);
+    }
+
+    private void unbind(Holder holder) {
+        mCoordinator.unbind(holder);
+        holder.mRequested = null;
+        holder.mAccepted = Collections.emptyList();
+        holder.mDisplayed = null;
+    }
+
+    /**
+     * Called on worker, same steps as RemoteImageLoader worker
+     */
+    private void load(Request request) {
+        mLoads.incrementAndGet();
+        request.mEvent.endStage(LoadEvent.Stage.QUEUE);
+        if (isFailing(request.mResource)) {
+            mCoordinator.deliver(request, null, LoadEvent.Outcome.FAILED);
+        } else {
+            mCoordinator.deliver(request, IMAGE_PREFIX + request.mKey,
+                    LoadEvent.Outcome.SUCCESS);
+        }
+    }
+
+    private boolean waitForDrain() throws Exception {
+        Callable<Boolean> idle = new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return mQueue.queuedCount() == 0 && mQueue.processingCount() == 0;
+            }
+        };
+        long end = System.currentTimeMillis() + DRAIN_TIMEOUT_MILLIS;
+        while (System.currentTimeMillis() < end) {
+            // deliveries are posted before finish, so check twice on ui thread
+            if (mUi.submit(idle).get() && mUi.submit(idle).get()) {
+                return true;
+            }
+            Thread.sleep(10);
+        }
+        return false;
+    }
+
+    private void check() {
+        for (Holder holder : mHolders) {
+            if (holder.mRequested == null) {
+                if (holder.mDisplayed != null) {
+                    mErrors.add(String.format("Unbound holder %d shows %s",
+                            holder.mIndex, holder.mDisplayed));
+                }
+                continue;
+            }
+            // first accepted key is full image
+            String expected = isFailing(holder.mRequested) ? FAILED
+                    : IMAGE_PREFIX + holder.mAccepted.get(0);
+            if (!expected.equals(holder.mDisplayed)) {
+                mErrors.add(String.format("Holder %d shows %s instead of %s",
+                        holder.mIndex, holder.mDisplayed, expected));
+            }
+        }
+        if (mQueue.holderCount() != 0) {
+            mErrors.add("Leaked holders in queue: " + mQueue.holderCount());
+        }
+        if (mCoordinator.mappedCount() != 0) {
+            mErrors.add("Leaked bindings: " + mCoordinator.mappedCount());
+        }
+        if (mCoordinator.previewCount() != 0) {
+            mErrors.add("Leaked previews: " + mCoordinator.previewCount());
+        }
+    }
+}
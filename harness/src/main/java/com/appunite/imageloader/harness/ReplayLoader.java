@@ -0,0 +1,353 @@
+/*
+ * Copyright (C) 2013 Appunite.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.appunite.imageloader.harness;
+
+import com.appunite.imageloader.Clock;
+import com.appunite.imageloader.Dispatcher;
+import com.appunite.imageloader.FailureCache;
+import com.appunite.imageloader.FileCache;
+import com.appunite.imageloader.HttpDownloader;
+import com.appunite.imageloader.HttpTransport;
+import com.appunite.imageloader.ImageHeaderParser;
+import com.appunite.imageloader.ImageRejectedException;
+import com.appunite.imageloader.LatencyHistogram;
+import com.appunite.imageloader.LoadEvent;
+import com.appunite.imageloader.LoadMetrics;
+import com.appunite.imageloader.LoadQueue;
+import com.appunite.imageloader.LoadWorker;
+import com.appunite.imageloader.LruCache;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Loader assembled from core components the same way as
+ * {@code RemoteImageLoader}: memory cache, queue shared by worker threads,
+ * disk cache backed http downloader and delivery on single ui thread.
+ *
+ * Decoding is simulated: size of decoded bitmap is computed from sniffed
+ * dimensions and sample size, memory cache accounts these sizes.
+ *
+ * Apart from {@link #start(int)} and {@link #stop()} all methods have to be
+ * called on ui thread, the one used by dispatcher.
+ */
+class ReplayLoader {
+
+    private static final long FAIL_TIME_MILLIS = 30 * 1000;
+    private static final int BYTES_PER_PIXEL = 4;
+    private static final int HEADER_READ_LIMIT = 64 * 1024;
+
+    /**
+     * Recycled view
+     */
+    static class Slot {
+        private String mKey;
+        private LoadQueue.Token<Slot> mToken;
+        private long mBindNanos;
+        private boolean mDone;
+    }
+
+    private static class Request {
+        final String mKey;
+        final String mUrl;
+        final LoadEvent mEvent;
+
+        Request(String key, String url, LoadEvent event) {
+            mKey = key;
+            mUrl = url;
+            mEvent = event;
+        }
+    }
+
+    private final int mRequestedWidth;
+    private final int mRequestedHeight;
+    private final LruCache<String, Integer> mMemoryCache;
+    private final HttpDownloader mDownloader;
+    private final Dispatcher mDispatcher;
+    private final LoadQueue<Request, Slot> mQueue = new LoadQueue<Request, Slot>();
+    private final FailureCache mFails = new FailureCache(Clock.SYSTEM);
+    private final LoadMetrics mMetrics = new LoadMetrics();
+    private final LatencyHistogram mTimeToDisplay = new LatencyHistogram();
+    private final List<LoadWorker<Request>> mWorkers = new ArrayList<LoadWorker<Request>>();
+
+    private long mBinds;
+    private long mMemoryHits;
+    private long mDisplayed;
+    private long mFailed;
+    private long mCancelled;
+    private long mWastedDownloads;
+    private long mWastedBytes;
+    private long mPeakMemoryCacheBytes;
+
+    /**
+     * @param memoryCacheBytes
+     *            size of memory cache
+     * @param cacheDirectory
+     *            directory of disk cache
+     * @param dispatcher
+     *            dispatcher of ui thread
+     */
+    ReplayLoader(int requestedWidth, int requestedHeight, int memoryCacheBytes,
+                 File cacheDirectory, HttpTransport transport, Dispatcher dispatcher) {
+        mRequestedWidth = requestedWidth;
+        mRequestedHeight = requestedHeight;
+        mMemoryCache = new LruCache<String, Integer>(memoryCacheBytes) {
+            @Override
+            protected int sizeOf(String key, Integer value) {
+                return value;
+            }
+        };
+        mDownloader = new HttpDownloader(new FileCache(cacheDirectory), transport);
+        mDispatcher = dispatcher;
+    }
+
+    void start(int threads) {
+        for (int i = 0; i < threads; i++) {
+            LoadWorker<Request> worker = new LoadWorker<Request>(mQueue,
+                    new LoadWorker.Handler<Request>() {
+                        @Override
+                        public void handle(Request request) {
+                            load(request);
+                        }
+                    });
+            worker.setName("ReplayWorker[" + i + "]");
+            worker.setDaemon(true);
+            worker.start();
+            mWorkers.add(worker);
+        }
+    }
+
+    void stop() {
+        for (LoadWorker<Request> worker : mWorkers) {
+            worker.stopSelf();
+            worker.interrupt();
+        }
+        mWorkers.clear();
+    }
+
+    /**
+     * @return true if nothing is queued or loaded
+     */
+    boolean isIdle() {
+        return mQueue.queuedCount() == 0 && mQueue.processingCount() == 0;
+    }
+
+    /**
+     * Bind image to view
+     *
+     * @param key
+     *            key identifying image
+     * @param url
+     *            url from which image is downloaded
+     */
+    void bind(Slot slot, String key, String url) {
+        unbind(slot);
+        mBinds++;
+        slot.mKey = key;
+        slot.mBindNanos = System.nanoTime();
+        slot.mDone = false;
+        if (mMemoryCache.get(key) != null) {
+            mMemoryHits++;
+            LoadEvent event = new LoadEvent(url, Clock.SYSTEM);
+            event.setSource(LoadEvent.Source.MEMORY);
+            event.finish(LoadEvent.Outcome.SUCCESS);
+            mMetrics.onImageLoaded(event);
+            display(slot);
+            return;
+        }
+        if (mFails.contains(url)) {
+            mFailed++;
+            slot.mDone = true;
+            return;
+        }
+        LoadEvent event = new LoadEvent(url, Clock.SYSTEM);
+        event.startStage(LoadEvent.Stage.QUEUE);
+        slot.mToken = mQueue.put(key, new Request(key, url, event), slot);
+    }
+
+    void unbind(Slot slot) {
+        mQueue.remove(slot.mToken);
+        slot.mToken = null;
+        if (slot.mKey != null && !slot.mDone) {
+            mCancelled++;
+        }
+        slot.mKey = null;
+    }
+
+    private void display(Slot slot) {
+        mDisplayed++;
+        slot.mDone = true;
+        mTimeToDisplay.record((System.nanoTime() - slot.mBindNanos) / 1000);
+    }
+
+    /**
+     * Called on worker thread
+     */
+    private void load(final Request request) {
+        final LoadEvent event = request.mEvent;
+        event.endStage(LoadEvent.Stage.QUEUE);
+        HttpDownloader.Result result = null;
+        boolean rejected = false;
+        event.startStage(LoadEvent.Stage.FETCH);
+        try {
+            result = mDownloader.download(request.mUrl);
+        } catch (IOException ignored) {
+        } catch (ImageRejectedException e) {
+            rejected = true;
+        }
+        event.endStage(LoadEvent.Stage.FETCH);
+        long decodedBytes = -1;
+        if (result != null) {
+            event.setSource(result.isCached() ? LoadEvent.Source.DISK
+                    : LoadEvent.Source.NETWORK);
+            event.setFetchedBytes(result.getFile().length(), result.getReceivedBytes());
+            event.startStage(LoadEvent.Stage.DECODE);
+            decodedBytes = getDecodedBytes(result);
+            event.endStage(LoadEvent.Stage.DECODE);
+            event.setDecodedBytes(decodedBytes);
+        }
+        final long decoded = decodedBytes;
+        final boolean wasRejected = rejected;
+        event.startStage(LoadEvent.Stage.DELIVERY);
+        mDispatcher.dispatch(new Runnable() {
+            @Override
+            public void run() {
+                deliver(request, decoded, wasRejected);
+            }
+        });
+    }
+
+    private void deliver(Request request, long decodedBytes, boolean rejected) {
+        LoadEvent event = request.mEvent;
+        List<LoadQueue.Token<Slot>> tokens = mQueue.finish(request.mKey);
+        List<Slot> slots = new ArrayList<Slot>(tokens.size());
+        for (LoadQueue.Token<Slot> token : tokens) {
+            Slot slot = token.getHolder();
+            slot.mToken = null;
+            slots.add(slot);
+        }
+        if (decodedBytes > 0) {
+            mFails.remove(request.mUrl);
+            mMemoryCache.put(request.mKey, (int) decodedBytes);
+            mPeakMemoryCacheBytes = Math.max(mPeakMemoryCacheBytes, mMemoryCache.size());
+            for (Slot slot : slots) {
+                display(slot);
+            }
+            if (slots.isEmpty() && event.getSource() == LoadEvent.Source.NETWORK) {
+                mWastedDownloads++;
+                mWastedBytes += event.getNetworkBytes();
+            }
+        } else {
+            mFails.put(request.mUrl, FAIL_TIME_MILLIS);
+            for (Slot slot : slots) {
+                mFailed++;
+                slot.mDone = true;
+            }
+        }
+        event.endStage(LoadEvent.Stage.DELIVERY);
+        if (decodedBytes > 0) {
+            event.finish(LoadEvent.Outcome.SUCCESS);
+        } else if (rejected) {
+            event.finish(LoadEvent.Outcome.REJECTED);
+        } else {
+            event.finish(LoadEvent.Outcome.FAILED);
+        }
+        mMetrics.onImageLoaded(event);
+    }
+
+    /**
+     * Size of bitmap decoded with power of two sample size as
+     * {@code ImageLoader} does, or -1 if dimensions are unknown
+     */
+    private long getDecodedBytes(HttpDownloader.Result result) {
+        ImageHeaderParser header = result.getHeader();
+        if (header == null || !header.hasDimensions()) {
+            header = readHeader(result.getFile());
+        }
+        if (header == null || !header.hasDimensions()) {
+            return -1;
+        }
+        int width = header.getWidth();
+        int height = header.getHeight();
+        int sampleSize = 1;
+        while (width / (sampleSize * 2) >= mRequestedWidth
+                && height / (sampleSize * 2) >= mRequestedHeight) {
+            sampleSize *= 2;
+        }
+        return (long) (width / sampleSize) * (height / sampleSize) * BYTES_PER_PIXEL;
+    }
+
+    private static ImageHeaderParser readHeader(File file) {
+        ImageHeaderParser header = new ImageHeaderParser();
+        byte[] data = new byte[HEADER_READ_LIMIT];
+        try {
+            InputStream inputStream = new FileInputStream(file);
+            try {
+                int length = 0;
+                int read;
+                while (!header.isComplete() && length < data.length
+                        && (read = inputStream.read(data, length, data.length - length)) > 0) {
+                    length += read;
+                    header.update(data, length);
+                }
+            } finally {
+                inputStream.close();
+            }
+        } catch (IOException e) {
+            return null;
+        }
+        return header;
+    }
+
+    void fillReport(ReplayReport report) {
+        long diskHits = mMetrics.getSourceCount(LoadEvent.Source.DISK);
+        long networkFetches = mMetrics.getSourceCount(LoadEvent.Source.NETWORK);
+        report.put("binds", mBinds)
+                .put("displayed", mDisplayed)
+                .put("failed", mFailed)
+                .put("cancelledBeforeDisplay", mCancelled)
+                .put("timeToDisplayP50Ms", mTimeToDisplay.getValueAtPercentile(50) / 1000.0)
+                .put("timeToDisplayP95Ms", mTimeToDisplay.getValueAtPercentile(95) / 1000.0)
+                .put("timeToDisplayP99Ms", mTimeToDisplay.getValueAtPercentile(99) / 1000.0)
+                .put("timeToDisplayMaxMs", mTimeToDisplay.getMax() / 1000.0)
+                .put("memoryHits", mMemoryHits)
+                .put("diskHits", diskHits)
+                .put("networkFetches", networkFetches)
+                .put("memoryHitRatio", ratio(mMemoryHits, mBinds))
+                .put("diskHitRatio", ratio(diskHits, diskHits + networkFetches))
+                .put("wastedDownloads", mWastedDownloads)
+                .put("wastedBytes", mWastedBytes)
+                .put("networkBytes", mMetrics.getNetworkBytes())
+                .put("peakMemoryCacheBytes", mPeakMemoryCacheBytes);
+        for (LoadEvent.Stage stage : LoadEvent.Stage.values()) {
+            LatencyHistogram histogram = mMetrics.getStageHistogram(stage);
+            String name = stage.name().toLowerCase(Locale.US);
+            report.put(name + "P50Ms", histogram.getValueAtPercentile(50) / 1000.0)
+                    .put(name + "P95Ms", histogram.getValueAtPercentile(95) / 1000.0)
+                    .put(name + "P99Ms", histogram.getValueAtPercentile(99) / 1000.0);
+        }
+    }
+
+    private static double ratio(long count, long total) {
+        return total == 0 ? 0.0 : (double) count / total;
+    }
+}
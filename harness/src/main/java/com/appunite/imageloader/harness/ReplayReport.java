@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2013 Appunite.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.appunite.imageloader.harness;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Ordered named results of one replay, printable as text or json
+ */
+public class ReplayReport {
+
+    private final String mName;
+    private final Map<String, Object> mValues = new LinkedHashMap<String, Object>();
+
+    public ReplayReport(String name) {
+        mName = name;
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    public ReplayReport put(String key, long value) {
+        mValues.put(key, value);
+        return this;
+    }
+
+    public ReplayReport put(String key, double value) {
+        mValues.put(key, value);
+        return this;
+    }
+
+    public Object get(String key) {
+        return mValues.get(key);
+    }
+
+    public String toText() {
+        StringBuilder builder = new StringBuilder(mName).append('\n');
+        for (Map.Entry<String, Object> entry : mValues.entrySet()) {
+            builder.append(String.format(Locale.US, "  %-32s %s%n", entry.getKey(),
+                    format(entry.getValue())));
+        }
+        return builder.toString();
+    }
+
+    public String toJson() {
+        StringBuilder builder = new StringBuilder("{\"name\":\"")
+                .append(escape(mName)).append('"');
+        for (Map.Entry<String, Object> entry : mValues.entrySet()) {
+            builder.append(",\"").append(escape(entry.getKey())).append("\":")
+                    .append(format(entry.getValue()));
+        }
+        return builder.append('}').toString();
+    }
+
+    public static String toJson(List<ReplayReport> reports) {
+        StringBuilder builder = new StringBuilder("[");
+        for (int i = 0; i < reports.size(); i++) {
+            if (i > 0) {
+                builder.append(",\n");
+            }
+            builder.append(reports.get(i).toJson());
+        }
+        return builder.append("]\n").toString();
+    }
+
+    private static String format(Object value) {
+        if (value instanceof Double) {
+            return String.format(Locale.US, "%.4f", (Double) value);
+        }
+        return String.valueOf(value);
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+}
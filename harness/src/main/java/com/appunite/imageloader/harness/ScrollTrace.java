@@ -0,0 +1,285 @@
+/*
+ * Copyright (C) 2013 Appunite.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.appunite.imageloader.harness;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Recorded or synthetic sequence of views binding and unbinding images.
+ *
+ * Text format has one event per line, lines starting with '#' are
+ * comments:
+ *
+ * <pre>
+ * timeMillis,bind,slot,url,bytes,width,height
+ * timeMillis,unbind,slot
+ * </pre>
+ *
+ * Slot is index of recycled view. Url identifies image, it is replayed
+ * against {@link HttpStub} with given size and dimensions.
+ */
+public class ScrollTrace {
+
+    public static class Event {
+        private final long mTimeMillis;
+        private final boolean mBind;
+        private final int mSlot;
+        private final String mUrl;
+        private final int mBytes;
+        private final int mWidth;
+        private final int mHeight;
+
+        Event(long timeMillis, boolean bind, int slot, String url, int bytes,
+              int width, int height) {
+            mTimeMillis = timeMillis;
+            mBind = bind;
+            mSlot = slot;
+            mUrl = url;
+            mBytes = bytes;
+            mWidth = width;
+            mHeight = height;
+        }
+
+        public long getTimeMillis() {
+            return mTimeMillis;
+        }
+
+        public boolean isBind() {
+            return mBind;
+        }
+
+        public int getSlot() {
+            return mSlot;
+        }
+
+        /**
+         * @return url of bound image or null for unbind
+         */
+        public String getUrl() {
+            return mUrl;
+        }
+
+        public int getBytes() {
+            return mBytes;
+        }
+
+        public int getWidth() {
+            return mWidth;
+        }
+
+        public int getHeight() {
+            return mHeight;
+        }
+    }
+
+    private final List<Event> mEvents;
+    private final int mSlotCount;
+
+    private ScrollTrace(List<Event> events) {
+        mEvents = Collections.unmodifiableList(events);
+        int slotCount = 0;
+        for (Event event : events) {
+            slotCount = Math.max(slotCount, event.getSlot() + 1);
+        }
+        mSlotCount = slotCount;
+    }
+
+    public List<Event> getEvents() {
+        return mEvents;
+    }
+
+    public int getSlotCount() {
+        return mSlotCount;
+    }
+
+    /**
+     * @return time of last event
+     */
+    public long getDurationMillis() {
+        return mEvents.isEmpty() ? 0 : mEvents.get(mEvents.size() - 1).getTimeMillis();
+    }
+
+    public static ScrollTrace read(File file) throws IOException {
+        List<Event> events = new ArrayList<Event>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new FileInputStream(file), "UTF-8"));
+        try {
+            String line;
+            int lineNumber = 0;
+            long lastTime = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                line = line.trim();
+                if (line.length() == 0 || line.startsWith("#")) {
+                    continue;
+                }
+                Event event = parseEvent(line, lineNumber);
+                if (event.getTimeMillis() < lastTime) {
+                    throw new IOException("Events are not sorted by time at line " + lineNumber);
+                }
+                lastTime = event.getTimeMillis();
+                events.add(event);
+            }
+        } finally {
+            reader.close();
+        }
+        return new ScrollTrace(events);
+    }
+
+    private static Event parseEvent(String line, int lineNumber) throws IOException {
+        String[] fields = line.split(",");
+        try {
+            long time = Long.parseLong(fields[0].trim());
+            int slot = Integer.parseInt(fields[2].trim());
+            if ("unbind".equals(fields[1].trim()) && fields.length == 3) {
+                return new Event(time, false, slot, null, 0, 0, 0);
+            }
+            if ("bind".equals(fields[1].trim()) && fields.length == 7) {
+                return new Event(time, true, slot, fields[3].trim(),
+                        Integer.parseInt(fields[4].trim()),
+                        Integer.parseInt(fields[5].trim()),
+                        Integer.parseInt(fields[6].trim()));
+            }
+        } catch (NumberFormatException e) {
+            throw new IOException("Wrong number at line " + lineNumber + ": " + line);
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new IOException("Missing field at line " + lineNumber + ": " + line);
+        }
+        throw new IOException("Wrong event at line " + lineNumber + ": " + line);
+    }
+
+    public void write(File file) throws IOException {
+        PrintWriter writer = new PrintWriter(new OutputStreamWriter(
+                new FileOutputStream(file), "UTF-8"));
+        try {
+            writer.println("# timeMillis,bind,slot,url,bytes,width,height");
+            writer.println("# timeMillis,unbind,slot");
+            for (Event event : mEvents) {
+                if (event.isBind()) {
+                    writer.println(String.format(Locale.US, "%d,bind,%d,%s,%d,%d,%d",
+                            event.getTimeMillis(), event.getSlot(), event.getUrl(),
+                            event.getBytes(), event.getWidth(), event.getHeight()));
+                } else {
+                    writer.println(String.format(Locale.US, "%d,unbind,%d",
+                            event.getTimeMillis(), event.getSlot()));
+                }
+            }
+        } finally {
+            writer.close();
+        }
+        if (writer.checkError()) {
+            throw new IOException("Could not write " + file);
+        }
+    }
+
+    /**
+     * Synthetic list scrolling: fling down, pause, slow scroll back up and
+     * another fling down, repeated until list end or duration is reached.
+     * Views are recycled like in {@code android.widget.ListView}, so item
+     * entering screen takes slot of item that left it.
+     *
+     * @param itemCount
+     *            number of items in list
+     * @param visibleItems
+     *            number of items visible at once
+     * @param flingItemsPerSecond
+     *            scrolling speed of fling
+     * @param durationMillis
+     *            maximal duration of trace
+     * @param seed
+     *            seed of image sizes
+     */
+    public static ScrollTrace synthetic(int itemCount, int visibleItems,
+                                        int flingItemsPerSecond, long durationMillis,
+                                        long seed) {
+        if (itemCount <= visibleItems || visibleItems <= 0) {
+            throw new IllegalArgumentException("Item count has to be grater than " +
+                    "number of visible items");
+        }
+        Random random = new Random(seed);
+        int[][] sizes = new int[itemCount][];
+        for (int i = 0; i < itemCount; i++) {
+            int width = 320 + 80 * random.nextInt(13);
+            int height = 240 + 60 * random.nextInt(13);
+            // roughly 1-3 bits per pixel of jpeg
+            int bytes = width * height * (1 + random.nextInt(3)) / 8;
+            sizes[i] = new int[] {bytes, width, height};
+        }
+        // speed in items per second and duration of each phase
+        double[][] phases = {
+                {flingItemsPerSecond, 3000},
+                {0, 1000},
+                {-flingItemsPerSecond / 5.0, 2000},
+                {flingItemsPerSecond, 2000},
+                {0, 2000}
+        };
+        int slotCount = visibleItems + 1;
+        List<Event> events = new ArrayList<Event>();
+        int first = 0;
+        for (int i = 0; i < visibleItems; i++) {
+            events.add(bindEvent(0, i, slotCount, sizes));
+        }
+        long time = 0;
+        double position = 0;
+        int phase = 0;
+        long phaseEnd = (long) phases[0][1];
+        final long step = 16; // one frame
+        while (time < durationMillis) {
+            time += step;
+            if (time >= phaseEnd) {
+                phase = (phase + 1) % phases.length;
+                phaseEnd += (long) phases[phase][1];
+            }
+            position += phases[phase][0] * step / 1000.0;
+            position = Math.max(0, Math.min(position, itemCount - visibleItems));
+            int newFirst = (int) position;
+            while (first < newFirst) {
+                events.add(new Event(time, false, first % slotCount, null, 0, 0, 0));
+                events.add(bindEvent(time, first + visibleItems, slotCount, sizes));
+                first++;
+            }
+            while (first > newFirst) {
+                first--;
+                events.add(new Event(time, false, (first + visibleItems) % slotCount,
+                        null, 0, 0, 0));
+                events.add(bindEvent(time, first, slotCount, sizes));
+            }
+            if (first == itemCount - visibleItems) {
+                break;
+            }
+        }
+        return new ScrollTrace(events);
+    }
+
+    private static Event bindEvent(long time, int item, int slotCount, int[][] sizes) {
+        return new Event(time, true, item % slotCount,
+                "http://example.com/images/" + item + ".jpg",
+                sizes[item][0], sizes[item][1], sizes[item][2]);
+    }
+}
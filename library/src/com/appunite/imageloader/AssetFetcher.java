@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2013 Appunite.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.appunite.imageloader;
+
+import java.io.IOException;
+
+import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+import android.content.res.AssetManager;
+import android.net.Uri;
+
+/**
+ * Fetches images from application assets. Supports asset:///path and
+ * file:///android_asset/path resources. Uncompressed assets are decoded
+ * directly from apk file descriptor.
+ */
+public class AssetFetcher implements ImageFetcher {
+
+    static final String ANDROID_ASSET_PATH = "/android_asset/";
+
+    private final Context mContext;
+
+    public AssetFetcher(Context context) {
+        mContext = context;
+    }
+
+    @Override
+    public ImageSource fetch(String resource, Uri uri) throws IOException {
+        String path = uri.getPath();
+        if (path == null) {
+            return null;
+        }
+        if ("file".equals(uri.getScheme()) && path.startsWith(ANDROID_ASSET_PATH)) {
+            path = path.substring(ANDROID_ASSET_PATH.length());
+        } else {
+            String authority = uri.getAuthority();
+            if (authority != null && authority.length() > 0) {
+                path = authority + path;
+            }
+        }
+        while (path.startsWith("/")) {
+            path = path.substring(1);
+        }
+        if (path.length() == 0) {
+            return null;
+        }
+
+        AssetManager assets = mContext.getAssets();
+        AssetFileDescriptor fileDescriptor;
+        try {
+            fileDescriptor = assets.openFd(path);
+        } catch (IOException e) {
+            // compressed assets could not be opened as descriptor
+            fileDescriptor = null;
+        }
+        if (fileDescriptor != null) {
+            return ImageSource.fromFileDescriptor(fileDescriptor);
+        }
+        return ImageSource.fromStream(assets.open(path, AssetManager.ACCESS_STREAMING));
+    }
+}
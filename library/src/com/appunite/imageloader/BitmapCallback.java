@@ -0,0 +1,34 @@
+/*
+ * Copyright (C) 2013 Appunite.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.appunite.imageloader;
+
+import android.graphics.Bitmap;
+
+/**
+ * Receives result of {@link BitmapRequest} on ui thread
+ */
+public interface BitmapCallback {
+
+    /**
+     * @param bitmap
+     *            bitmap shared with memory cache, it must not be recycled or
+     *            modified
+     */
+    void onBitmapLoaded(Bitmap bitmap);
+
+    void onBitmapFailed();
+}
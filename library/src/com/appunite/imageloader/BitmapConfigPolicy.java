@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2013 Appunite.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.appunite.imageloader;
+
+import android.graphics.Bitmap;
+
+/**
+ * Selects config of decoded bitmaps.
+ *
+ * Opaque images (e.g. JPEG) can be decoded as {@link Bitmap.Config#RGB_565}
+ * using half of memory of {@link Bitmap.Config#ARGB_8888}, images that may
+ * contain alpha keep full config.
+ */
+@SuppressWarnings("UnusedDeclaration")
+public class BitmapConfigPolicy {
+
+    /**
+     * Decode every image as ARGB_8888
+     */
+    public static final BitmapConfigPolicy ARGB_8888 = new BitmapConfigPolicy(
+            Bitmap.Config.ARGB_8888, Bitmap.Config.ARGB_8888);
+
+    /**
+     * Decode opaque images as RGB_565 and other images as ARGB_8888
+     */
+    public static final BitmapConfigPolicy AUTO = new BitmapConfigPolicy(
+            Bitmap.Config.RGB_565, Bitmap.Config.ARGB_8888);
+
+    private final Bitmap.Config mOpaqueConfig;
+    private final Bitmap.Config mTranslucentConfig;
+
+    /**
+     * @param opaqueConfig
+     *            config of images without alpha
+     * @param translucentConfig
+     *            config of images that may contain alpha
+     */
+    public BitmapConfigPolicy(Bitmap.Config opaqueConfig,
+                              Bitmap.Config translucentConfig) {
+        if (opaqueConfig == null || translucentConfig == null) {
+            throw new IllegalArgumentException("Config could not be null");
+        }
+        mOpaqueConfig = opaqueConfig;
+        mTranslucentConfig = translucentConfig;
+    }
+
+    /**
+     * @param opaque
+     *            true if image is known to not contain alpha
+     * @return config to decode image with
+     */
+    public Bitmap.Config getConfig(boolean opaque) {
+        return opaque ? mOpaqueConfig : mTranslucentConfig;
+    }
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright (C) 2013 Appunite.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.appunite.imageloader;
+
+import java.io.IOException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import android.graphics.Bitmap;
+import android.os.Looper;
+
+/**
+ * Pending result of {@link BitmapRequest}.
+ *
+ * Requests are processed by loader threads, which run only between
+ * {@link RemoteImageLoader#onActivityResume()} and
+ * {@link RemoteImageLoader#onActivityPause()}. Futures still pending on pause
+ * fail with {@link ExecutionException}, so do futures submitted while loader
+ * is paused unless bitmap is in memory cache. Use
+ * {@link RemoteImageLoader#createBackground(android.content.Context, int, int)}
+ * for loads that should outlive activity. Results are delivered through
+ * ui thread, so blocking {@link #get()} could not be called on it.
+ */
+@SuppressWarnings("UnusedDeclaration")
+public class BitmapFuture implements Future<Bitmap> {
+
+    private static final int STATE_PENDING = 0;
+    private static final int STATE_LOADED = 1;
+    private static final int STATE_FAILED = 2;
+    private static final int STATE_CANCELLED = 3;
+
+    private final RemoteImageLoader mLoader;
+    private final String mResource;
+    private final BitmapCallback mCallback;
+    private int mState = STATE_PENDING;
+    private Bitmap mBitmap;
+    private String mFailure;
+
+    private final RemoteImageLoader.TokenImageHolder mHolder =
+            new RemoteImageLoader.TokenImageHolder() {
+                private LoadQueue.Token<RemoteImageLoader.ImageHolder> mLoadToken;
+
+                @Override
+                public void setRemoteBitmap(Bitmap bitmap, boolean immediately) {
+                    complete(STATE_LOADED, bitmap);
+                }
+
+                @Override
+                public void failDownloading(boolean immediately) {
+                    complete(STATE_FAILED, null);
+                }
+
+                @Override
+                public void setPlaceholder(boolean immediately) {
+                }
+
+                @Override
+                public LoadQueue.Token<RemoteImageLoader.ImageHolder> getLoadToken() {
+                    return mLoadToken;
+                }
+
+                @Override
+                public void setLoadToken(LoadQueue.Token<RemoteImageLoader.ImageHolder> token) {
+                    mLoadToken = token;
+                }
+            };
+
+    BitmapFuture(RemoteImageLoader loader, String resource, BitmapCallback callback) {
+        mLoader = loader;
+        mResource = resource;
+        mCallback = callback;
+    }
+
+    RemoteImageLoader.ImageHolder getHolder() {
+        return mHolder;
+    }
+
+    /**
+     * Fail future without waiting for loader, e.g. when loader is paused
+     */
+    void fail(String reason) {
+        if (complete(STATE_FAILED, null, reason)) {
+            mLoader.unbind(mHolder);
+        }
+    }
+
+    private void complete(int state, Bitmap bitmap) {
+        complete(state, bitmap, null);
+    }
+
+    private boolean complete(int state, final Bitmap bitmap, String failure) {
+        synchronized (this) {
+            if (mState != STATE_PENDING) {
+                return false;
+            }
+            mState = state;
+            mBitmap = bitmap;
+            mFailure = failure;
+            notifyAll();
+        }
+        mLoader.removeFuture(this);
+        final BitmapCallback callback = mCallback;
+        if (callback == null) {
+            return true;
+        }
+        mLoader.dispatch(new Runnable() {
+            @Override
+            public void run() {
+                if (bitmap != null) {
+                    callback.onBitmapLoaded(bitmap);
+                } else {
+                    callback.onBitmapFailed();
+                }
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Stop waiting for bitmap, callback will not be called. Bitmap that is
+     * already being loaded still lands in memory cache.
+     */
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        synchronized (this) {
+            if (mState != STATE_PENDING) {
+                return false;
+            }
+            mState = STATE_CANCELLED;
+            notifyAll();
+        }
+        mLoader.removeFuture(this);
+        mLoader.unbind(mHolder);
+        return true;
+    }
+
+    @Override
+    public synchronized boolean isCancelled() {
+        return mState == STATE_CANCELLED;
+    }
+
+    @Override
+    public synchronized boolean isDone() {
+        return mState != STATE_PENDING;
+    }
+
+    @Override
+    public Bitmap get() throws InterruptedException, ExecutionException {
+        try {
+            return get(0, null);
+        } catch (TimeoutException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public synchronized Bitmap get(long timeout, TimeUnit unit)
+            throws InterruptedException, ExecutionException, TimeoutException {
+        if (mState == STATE_PENDING && Looper.myLooper() == Looper.getMainLooper()) {
+            throw new IllegalStateException("Waiting for bitmap on ui thread would " +
+                    "block its delivery");
+        }
+        long end = unit == null ? 0 : System.currentTimeMillis() + unit.toMillis(timeout);
+        while (mState == STATE_PENDING) {
+            if (unit == null) {
+                wait();
+                continue;
+            }
+            long remaining = end - System.currentTimeMillis();
+            if (remaining <= 0) {
+                throw new TimeoutException("Bitmap not loaded in time: " + mResource);
+            }
+            wait(remaining);
+        }
+        if (mState == STATE_CANCELLED) {
+            throw new CancellationException();
+        }
+        if (mState == STATE_FAILED) {
+            String reason = mFailure == null ? "Could not load" : mFailure;
+            throw new ExecutionException(new IOException(reason + ": " + mResource));
+        }
+        return mBitmap;
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2013 Appunite.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.appunite.imageloader;
+
+/**
+ * Builder of bitmap request created by
+ * {@link RemoteImageLoader#newRequest(String)}.
+ *
+ * <pre>
+ * Future&lt;Bitmap&gt; future = loader.newRequest(url)
+ *         .resize(iconWidth, iconHeight)
+ *         .submit();
+ * Bitmap icon = future.get(); // on worker thread
+ * </pre>
+ */
+@SuppressWarnings("UnusedDeclaration")
+public class BitmapRequest {
+
+    private final RemoteImageLoader mLoader;
+    private final String mResource;
+    private int mWidth;
+    private int mHeight;
+    private boolean mCenterCrop = false;
+
+    BitmapRequest(RemoteImageLoader loader, String resource, int width, int height) {
+        if (resource == null) {
+            throw new IllegalArgumentException("Resource could not be null");
+        }
+        mLoader = loader;
+        mResource = resource;
+        mWidth = width;
+        mHeight = height;
+    }
+
+    /**
+     * @param width
+     *            requested width in px, by default width of loader
+     * @param height
+     *            requested height in px, by default height of loader
+     */
+    public BitmapRequest resize(int width, int height) {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Requested width and height have to be grater " +
+                    "than 0");
+        }
+        mWidth = width;
+        mHeight = height;
+        return this;
+    }
+
+    /**
+     * @param centerCrop
+     *            true if only region of image at aspect ratio of requested
+     *            size is needed
+     */
+    public BitmapRequest centerCrop(boolean centerCrop) {
+        mCenterCrop = centerCrop;
+        return this;
+    }
+
+    /**
+     * Start loading
+     *
+     * @return future with bitmap shared with memory cache, or its rotated
+     *         copy for images with exif orientation, it must not be recycled
+     *         or modified
+     */
+    public BitmapFuture submit() {
+        return submit(null);
+    }
+
+    /**
+     * Start loading
+     *
+     * @param callback
+     *            callback called on ui thread or null
+     * @return future with bitmap shared with memory cache, or its rotated
+     *         copy for images with exif orientation, it must not be recycled
+     *         or modified
+     */
+    public BitmapFuture submit(BitmapCallback callback) {
+        BitmapFuture future = new BitmapFuture(mLoader, mResource, callback);
+        mLoader.submit(future, mResource, mWidth, mHeight, mCenterCrop);
+        return future;
+    }
+}
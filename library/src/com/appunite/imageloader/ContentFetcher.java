@@ -0,0 +1,60 @@
+/*
+ * Copyright (C) 2013 Appunite.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.appunite.imageloader;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+import android.net.Uri;
+
+/**
+ * Fetches content:// and android.resource:// resources through
+ * {@link ContentResolver}. Images are decoded directly from file descriptor
+ * given by provider, without copying them to disk cache.
+ */
+public class ContentFetcher implements ImageFetcher {
+
+    private final Context mContext;
+
+    public ContentFetcher(Context context) {
+        mContext = context;
+    }
+
+    @Override
+    public ImageSource fetch(String resource, Uri uri) throws IOException {
+        ContentResolver cr = mContext.getContentResolver();
+        AssetFileDescriptor fileDescriptor;
+        try {
+            fileDescriptor = cr.openAssetFileDescriptor(uri, "r");
+        } catch (FileNotFoundException e) {
+            // provider does not give descriptors or resource is compressed
+            fileDescriptor = null;
+        }
+        if (fileDescriptor != null) {
+            return ImageSource.fromFileDescriptor(fileDescriptor);
+        }
+        InputStream inputStream = cr.openInputStream(uri);
+        if (inputStream == null) {
+            return null;
+        }
+        return ImageSource.fromStream(inputStream);
+    }
+}
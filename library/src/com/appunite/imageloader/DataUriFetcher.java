@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2013 Appunite.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.appunite.imageloader;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+
+import android.annotation.TargetApi;
+import android.net.Uri;
+import android.os.Build;
+import android.util.Base64;
+
+/**
+ * Fetches images embedded in data: uris (RFC 2397), e.g.
+ * data:image/png;base64,iVBORw0KGgo...
+ *
+ * Base64 encoded data is supported from api level 8.
+ */
+public class DataUriFetcher implements ImageFetcher {
+
+    private static final String BASE64_SUFFIX = ";base64";
+
+    @Override
+    public ImageSource fetch(String resource, Uri uri) throws IOException {
+        int dataStart = resource.indexOf(',');
+        if (dataStart < 0) {
+            throw new IOException("Malformed data uri");
+        }
+        String header = resource.substring(0, dataStart);
+        String data = resource.substring(dataStart + 1);
+        byte[] bytes;
+        if (header.endsWith(BASE64_SUFFIX)) {
+            if (Build.VERSION.SDK_INT < 8) {
+                throw new IOException("Base64 data uri is not supported on this device");
+            }
+            bytes = decodeBase64(data);
+        } else {
+            bytes = decodePercentEncoded(data);
+        }
+        return ImageSource.fromData(bytes, bytes.length);
+    }
+
+    @TargetApi(8)
+    private static byte[] decodeBase64(String data) throws IOException {
+        try {
+            return Base64.decode(Uri.decode(data), Base64.DEFAULT);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Malformed base64 data uri");
+        }
+    }
+
+    private static byte[] decodePercentEncoded(String data) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream(data.length());
+        int length = data.length();
+        for (int i = 0; i < length; i++) {
+            char c = data.charAt(i);
+            if (c == '%' && i + 2 < length) {
+                int value = Character.digit(data.charAt(i + 1), 16) << 4
+                        | Character.digit(data.charAt(i + 2), 16);
+                if (value < 0) {
+                    throw new IOException("Malformed data uri");
+                }
+                output.write(value);
+                i += 2;
+            } else if (c < 0x80) {
+                output.write(c);
+            } else {
+                try {
+                    output.write(String.valueOf(c).getBytes("UTF-8"));
+                } catch (UnsupportedEncodingException e) {
+                    throw new IOException("UTF-8 not supported");
+                }
+            }
+        }
+        return output.toByteArray();
+    }
+}
@@ -0,0 +1,298 @@
+/*
+ * Copyright (C) 2013 Appunite.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.appunite.imageloader;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+
+import android.graphics.Bitmap;
+
+/**
+ * Admission control of decodes.
+ *
+ * Every decode estimates bytes of its bitmap and waits until bytes of
+ * decodes in progress together with memory caches fit the budget. One
+ * decode is always admitted, so threads can not wait for each other
+ * forever. Sources that would decode to more than maximal decode bytes are
+ * sampled down instead of failing with out of memory.
+ *
+ * Heap is shared by whole process, so loaders share one governor by default,
+ * see {@link #getDefault()}. Caches are referenced weakly, caches of dropped
+ * loaders do not have to be removed.
+ */
+@SuppressWarnings("UnusedDeclaration")
+public class DecodeGovernor {
+
+    private static final float DEFAULT_BUDGET_FRACTION = 0.5f;
+    private static final int DEFAULT_MAX_DECODE_DIVIDER = 4;
+
+    private static DecodeGovernor sDefault;
+
+    private final List<WeakReference<LruCache<?, ?>>> mCaches =
+            new ArrayList<WeakReference<LruCache<?, ?>>>();
+    private final long mBudgetBytes;
+    private final long mMaxDecodeBytes;
+
+    private long mInFlightBytes;
+    private long mPeakInFlightBytes;
+    private int mAdmittedCount;
+    private int mWaitCount;
+    private int mDownsampledCount;
+    private int mOutOfMemoryCount;
+    private int mCacheWipeCount;
+
+    /**
+     * Create governor with budget of half of maximal heap and maximal decode
+     * of quarter of budget
+     *
+     * @param cache
+     *            memory cache which size is counted into budget
+     */
+    public DecodeGovernor(LruCache<?, ?> cache) {
+        this(cache, getDefaultBudgetBytes());
+    }
+
+    /**
+     * @param cache
+     *            memory cache which size is counted into budget
+     * @param budgetBytes
+     *            maximal bytes of cache and decodes in progress
+     */
+    public DecodeGovernor(LruCache<?, ?> cache, long budgetBytes) {
+        this(cache, budgetBytes, budgetBytes / DEFAULT_MAX_DECODE_DIVIDER);
+    }
+
+    /**
+     * @param cache
+     *            memory cache which size is counted into budget
+     * @param budgetBytes
+     *            maximal bytes of cache and decodes in progress
+     * @param maxDecodeBytes
+     *            maximal bytes of one decoded bitmap
+     */
+    public DecodeGovernor(LruCache<?, ?> cache, long budgetBytes,
+                          long maxDecodeBytes) {
+        this(budgetBytes, maxDecodeBytes);
+        addCache(cache);
+    }
+
+    /**
+     * Create governor without caches, see {@link #addCache(LruCache)}
+     *
+     * @param budgetBytes
+     *            maximal bytes of caches and decodes in progress
+     * @param maxDecodeBytes
+     *            maximal bytes of one decoded bitmap
+     */
+    public DecodeGovernor(long budgetBytes, long maxDecodeBytes) {
+        if (budgetBytes <= 0 || maxDecodeBytes <= 0) {
+            throw new IllegalArgumentException("Budget bytes have to be grater than 0");
+        }
+        mBudgetBytes = budgetBytes;
+        mMaxDecodeBytes = maxDecodeBytes;
+    }
+
+    /**
+     * @return governor shared by all loaders of process with budget of half
+     *         of maximal heap and maximal decode of quarter of budget
+     */
+    public static synchronized DecodeGovernor getDefault() {
+        if (sDefault == null) {
+            long budgetBytes = getDefaultBudgetBytes();
+            sDefault = new DecodeGovernor(budgetBytes,
+                    budgetBytes / DEFAULT_MAX_DECODE_DIVIDER);
+        }
+        return sDefault;
+    }
+
+    /**
+     * Count size of cache into budget, cache is referenced weakly
+     */
+    public synchronized void addCache(LruCache<?, ?> cache) {
+        if (cache == null) {
+            throw new IllegalArgumentException("Cache could not be null");
+        }
+        for (WeakReference<LruCache<?, ?>> reference : mCaches) {
+            if (reference.get() == cache) {
+                return;
+            }
+        }
+        mCaches.add(new WeakReference<LruCache<?, ?>>(cache));
+    }
+
+    private long cacheBytes() {
+        long bytes = 0;
+        for (Iterator<WeakReference<LruCache<?, ?>>> iterator = mCaches.iterator();
+             iterator.hasNext(); ) {
+            LruCache<?, ?> cache = iterator.next().get();
+            if (cache == null) {
+                iterator.remove();
+            } else {
+                bytes += cache.size();
+            }
+        }
+        return bytes;
+    }
+
+    public static long getDefaultBudgetBytes() {
+        return (long) (Runtime.getRuntime().maxMemory() * DEFAULT_BUDGET_FRACTION);
+    }
+
+    public long getBudgetBytes() {
+        return mBudgetBytes;
+    }
+
+    public long getMaxDecodeBytes() {
+        return mMaxDecodeBytes;
+    }
+
+    /**
+     * Raise sample size until decoded bitmap fits maximal decode bytes
+     *
+     * @return sample size, power of two if sampleSize is
+     */
+    int adjustSampleSize(int imageWidth, int imageHeight, int sampleSize,
+                         Bitmap.Config config) {
+        int adjusted = sampleSize;
+        while (estimateBytes(imageWidth, imageHeight, adjusted, config) > mMaxDecodeBytes
+                && (imageWidth / adjusted > 1 || imageHeight / adjusted > 1)) {
+            adjusted *= 2;
+        }
+        if (adjusted != sampleSize) {
+            synchronized (this) {
+                mDownsampledCount++;
+            }
+        }
+        return adjusted;
+    }
+
+    /**
+     * Wait until decode fits budget
+     *
+     * @param bytes
+     *            estimated bytes of decoded bitmap
+     * @throws InterruptedException
+     *             if thread was interrupted while waiting, e.g. loader was
+     *             paused, decode is not admitted
+     */
+    synchronized void acquire(long bytes) throws InterruptedException {
+        boolean waited = false;
+        while (mInFlightBytes > 0
+                && mInFlightBytes + bytes + cacheBytes() > mBudgetBytes) {
+            waited = true;
+            wait();
+        }
+        if (waited) {
+            mWaitCount++;
+        }
+        mAdmittedCount++;
+        mInFlightBytes += bytes;
+        if (mInFlightBytes > mPeakInFlightBytes) {
+            mPeakInFlightBytes = mInFlightBytes;
+        }
+    }
+
+    synchronized void release(long bytes) {
+        mInFlightBytes -= bytes;
+        notifyAll();
+    }
+
+    /**
+     * Called when memory cache was cleared
+     *
+     * @param outOfMemory
+     *            true if it was cleared because decode run out of memory
+     */
+    synchronized void onCacheWiped(boolean outOfMemory) {
+        mCacheWipeCount++;
+        if (outOfMemory) {
+            mOutOfMemoryCount++;
+        }
+        notifyAll();
+    }
+
+    static long estimateBytes(int imageWidth, int imageHeight, int sampleSize,
+                              Bitmap.Config config) {
+        long width = (imageWidth + sampleSize - 1) / sampleSize;
+        long height = (imageHeight + sampleSize - 1) / sampleSize;
+        return width * height * getBytesPerPixel(config);
+    }
+
+    static int getBytesPerPixel(Bitmap.Config config) {
+        if (config == Bitmap.Config.ALPHA_8) {
+            return 1;
+        }
+        if (config == Bitmap.Config.RGB_565 || config == Bitmap.Config.ARGB_4444) {
+            return 2;
+        }
+        return 4;
+    }
+
+    public synchronized long inFlightBytes() {
+        return mInFlightBytes;
+    }
+
+    public synchronized long peakInFlightBytes() {
+        return mPeakInFlightBytes;
+    }
+
+    public synchronized int admittedCount() {
+        return mAdmittedCount;
+    }
+
+    /**
+     * Returns the number of decodes that had to wait for budget
+     */
+    public synchronized int waitCount() {
+        return mWaitCount;
+    }
+
+    /**
+     * Returns the number of decodes sampled down to fit maximal decode bytes
+     */
+    public synchronized int downsampledCount() {
+        return mDownsampledCount;
+    }
+
+    /**
+     * Returns the number of memory cache wipes caused by out of memory errors
+     */
+    public synchronized int outOfMemoryCount() {
+        return mOutOfMemoryCount;
+    }
+
+    /**
+     * Returns the number of memory cache wipes, including ones caused by
+     * low heap
+     */
+    public synchronized int cacheWipeCount() {
+        return mCacheWipeCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format(Locale.US,
+                "DecodeGovernor[budget=%d,maxDecode=%d,inFlight=%d,peakInFlight=%d," +
+                        "admitted=%d,waits=%d,downsampled=%d,outOfMemory=%d,cacheWipes=%d]",
+                mBudgetBytes, mMaxDecodeBytes, mInFlightBytes, mPeakInFlightBytes,
+                mAdmittedCount, mWaitCount, mDownsampledCount, mOutOfMemoryCount,
+                mCacheWipeCount);
+    }
+}
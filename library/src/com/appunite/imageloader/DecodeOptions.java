@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2013 Appunite.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.appunite.imageloader;
+
+/**
+ * Parameters of decoding one image
+ */
+class DecodeOptions {
+
+    private final float mRequestedWidth;
+    private final float mRequestedHeight;
+    private final float mMaxWidth;
+    private final float mMaxHeight;
+    private boolean mExactSize = false;
+    private boolean mCenterCrop = false;
+    private DecodeGovernor mGovernor;
+    private BitmapConfigPolicy mConfigPolicy = BitmapConfigPolicy.ARGB_8888;
+
+    /**
+     * Options allowing image up to two times grater than requested size
+     */
+    DecodeOptions(float requestedWidth, float requestedHeight) {
+        this(requestedWidth, requestedHeight, 2.0f * requestedWidth,
+                2.0f * requestedHeight);
+    }
+
+    DecodeOptions(float requestedWidth, float requestedHeight, float maxWidth,
+                  float maxHeight) {
+        mRequestedWidth = requestedWidth;
+        mRequestedHeight = requestedHeight;
+        mMaxWidth = maxWidth;
+        mMaxHeight = maxHeight;
+    }
+
+    public float getRequestedWidth() {
+        return mRequestedWidth;
+    }
+
+    public float getRequestedHeight() {
+        return mRequestedHeight;
+    }
+
+    public float getMaxWidth() {
+        return mMaxWidth;
+    }
+
+    public float getMaxHeight() {
+        return mMaxHeight;
+    }
+
+    /**
+     * @param exactSize
+     *            true if image should be scaled to cover requested size
+     *            exactly instead of only sampling it by power of two
+     */
+    public DecodeOptions setExactSize(boolean exactSize) {
+        mExactSize = exactSize;
+        return this;
+    }
+
+    public boolean isExactSize() {
+        return mExactSize;
+    }
+
+    /**
+     * @param centerCrop
+     *            true if image will be displayed center cropped to aspect
+     *            ratio of requested size so only this region has to be decoded
+     */
+    public DecodeOptions setCenterCrop(boolean centerCrop) {
+        mCenterCrop = centerCrop;
+        return this;
+    }
+
+    public boolean isCenterCrop() {
+        return mCenterCrop;
+    }
+
+    /**
+     * @param governor
+     *            governor admitting decode or null
+     */
+    public DecodeOptions setGovernor(DecodeGovernor governor) {
+        mGovernor = governor;
+        return this;
+    }
+
+    public DecodeGovernor getGovernor() {
+        return mGovernor;
+    }
+
+    public DecodeOptions setConfigPolicy(BitmapConfigPolicy configPolicy) {
+        if (configPolicy == null) {
+            throw new IllegalArgumentException("Config policy could not be null");
+        }
+        mConfigPolicy = configPolicy;
+        return this;
+    }
+
+    public BitmapConfigPolicy getConfigPolicy() {
+        return mConfigPolicy;
+    }
+}
@@ -17,9 +17,6 @@
 package com.appunite.imageloader;
 
 import java.io.File;
-import java.math.BigInteger;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
@@ -37,7 +34,7 @@ import android.util.Log;
  * @author Jacek Marchwicki (jacek.marchwicki@gmail.com)
  * 
  */
-public class DiskCache {
+public class DiskCache extends FileCache {
 	private class LastModifiedComparator implements Comparator<File> {
 		@Override
 		public int compare(File lhs, File rhs) {
@@ -53,28 +50,20 @@ public class DiskCache {
 
 	private static final String TAG = DiskCache.class.getCanonicalName();
 
-	private final File mBaseDirectory;
 	private final long mMaxCacheSize = 1024 * 1024;
-	private MessageDigest mHash;
-
-	private final String mPostfix;
 
 	public DiskCache(Context context, File baseDirectory) {
 		this(context, baseDirectory, "");
 	}
 
 	public DiskCache(Context context, File baseDirectory, String postfix) {
-		this.mBaseDirectory = baseDirectory;
-		this.mPostfix = postfix;
-		if (!this.mBaseDirectory.exists()) {
-			if (!this.mBaseDirectory.mkdir()) {
-				String errorMsg = String.format(
-						"Problem creating tmp directory: %s",
-						this.mBaseDirectory.getAbsolutePath());
-				Log.e(TAG, errorMsg);
-			}
+		super(baseDirectory, postfix);
+		if (!baseDirectory.exists()) {
+			String errorMsg = String.format(
+					"Problem creating tmp directory: %s",
+					baseDirectory.getAbsolutePath());
+			Log.e(TAG, errorMsg);
 		}
-		this.createDigest();
 	}
 
 	public DiskCache(Context context, String prefix) {
@@ -86,7 +75,7 @@ public class DiskCache {
 	}
 
 	public void clearIfCacheLimitExhaust() {
-		List<File> cacheFiles = Arrays.asList(this.mBaseDirectory.listFiles());
+		List<File> cacheFiles = Arrays.asList(getBaseDirectory().listFiles());
 		int totalLength = 0;
 		for (File cacheFile : cacheFiles) {
 			totalLength += this.getFileSize(cacheFile);
@@ -106,28 +95,6 @@ public class DiskCache {
 		}
 	}
 
-	private void createDigest() {
-		try {
-			this.mHash = MessageDigest.getInstance("SHA-1");
-
-		} catch (final NoSuchAlgorithmException noShaExc) {
-			try {
-				this.mHash = MessageDigest.getInstance("MD5");
-			} catch (final NoSuchAlgorithmException noMd5Exc) {
-				throw new RuntimeException("No available sha-1/md5 algorithms");
-			}
-		}
-	}
-
-	public File getCacheFile(String key) {
-		this.mHash.update(key.getBytes());
-		byte[] digest = this.mHash.digest();
-		BigInteger digestBigInteger = new BigInteger(1, digest);
-		String hash = digestBigInteger.toString(16);
-
-		return new File(this.mBaseDirectory, hash + this.mPostfix);
-	}
-
 	public long getFileSize(File file) {
 		if (Build.VERSION.SDK_INT > 9) {
 			return this.getFileSize9(file);
@@ -0,0 +1,58 @@
+/*
+ * Copyright (C) 2013 Appunite.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.appunite.imageloader;
+
+import java.io.File;
+import java.io.IOException;
+
+import android.content.Context;
+import android.net.Uri;
+
+/**
+ * Fetches file:// resources and plain file paths. Files are decoded in place,
+ * without copying them to disk cache.
+ */
+public class FileFetcher implements ImageFetcher {
+
+    private final AssetFetcher mAssetFetcher;
+
+    public FileFetcher(Context context) {
+        mAssetFetcher = new AssetFetcher(context);
+    }
+
+    @Override
+    public ImageSource fetch(String resource, Uri uri) throws IOException {
+        if (uri.getScheme() == null) {
+            return fetchFile(new File(resource));
+        }
+        String path = uri.getPath();
+        if (path == null) {
+            return null;
+        }
+        if (path.startsWith(AssetFetcher.ANDROID_ASSET_PATH)) {
+            return mAssetFetcher.fetch(resource, uri);
+        }
+        return fetchFile(new File(path));
+    }
+
+    private ImageSource fetchFile(File file) {
+        if (!file.isFile()) {
+            return null;
+        }
+        return ImageSource.fromFile(file);
+    }
+}
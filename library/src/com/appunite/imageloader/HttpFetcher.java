@@ -0,0 +1,64 @@
+/*
+ * Copyright (C) 2013 Appunite.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.appunite.imageloader;
+
+import java.io.IOException;
+
+import android.net.Uri;
+
+/**
+ * Fetches http and https resources with {@link HttpDownloader} and keeps
+ * them in {@link DiskCache}.
+ *
+ * @see HttpDownloader
+ */
+public class HttpFetcher implements ImageFetcher {
+
+	private final HttpDownloader mDownloader;
+
+	public HttpFetcher(DiskCache diskCache, HttpTransport httpTransport) {
+		this(diskCache, httpTransport, ByteArrayPool.getDefault(),
+				ImageLimits.getDefault());
+	}
+
+	/**
+	 * @param bufferPool
+	 *            pool of buffers used for copying response
+	 * @param limits
+	 *            limits of downloaded images
+	 */
+	public HttpFetcher(DiskCache diskCache, HttpTransport httpTransport,
+			ByteArrayPool bufferPool, ImageLimits limits) {
+		mDownloader = new HttpDownloader(diskCache, httpTransport, bufferPool,
+				limits);
+	}
+
+	@Override
+	public ImageSource fetch(String resource, Uri uri) throws IOException {
+		HttpDownloader.Result result = mDownloader.download(resource);
+		ImageSource source;
+		if (result.getData() == null) {
+			source = ImageSource.fromFile(result.getFile());
+		} else {
+			source = ImageSource.fromData(result.getFile(), result.getData(),
+					result.getLength(), result.getHeader());
+		}
+		source.setSource(result.isCached() ? LoadEvent.Source.DISK
+				: LoadEvent.Source.NETWORK, result.getReceivedBytes());
+		return source;
+	}
+}
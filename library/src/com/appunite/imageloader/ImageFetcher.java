@@ -0,0 +1,45 @@
+/*
+ * Copyright (C) 2013 Appunite.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.appunite.imageloader;
+
+import java.io.IOException;
+
+import android.net.Uri;
+
+/**
+ * Fetches resources of one uri scheme.
+ *
+ * Fetchers registered with
+ * {@link RemoteImageLoader#registerFetcher(String, ImageFetcher)} are shared
+ * by all download threads so they have to be thread safe.
+ */
+public interface ImageFetcher {
+
+    /**
+     * Fetch resource
+     *
+     * @param resource
+     *            resource as passed to
+     *            {@link RemoteImageLoader#loadImage(RemoteImageLoader.ImageHolder, String)}
+     * @param uri
+     *            parsed resource
+     * @return image source or null if resource does not exist
+     * @throws IOException
+     *             when resource could not be fetched
+     */
+    ImageSource fetch(String resource, Uri uri) throws IOException;
+}
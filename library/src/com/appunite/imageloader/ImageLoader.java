@@ -16,10 +16,20 @@
 
 package com.appunite.imageloader;
 
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FilterInputStream;
+import java.io.IOException;
 import java.io.InputStream;
 
+import android.annotation.TargetApi;
+import android.content.res.Resources;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Rect;
+import android.os.Build;
 
 /**
  * 
@@ -28,6 +38,25 @@ import android.graphics.BitmapFactory;
  */
 public class ImageLoader {
 
+	private static final int STREAM_BUFFER_SIZE = 16 * 1024;
+	private static final int HEADER_CHUNK_SIZE = 8 * 1024;
+	private static final int HEADER_MARK_LIMIT = 128 * 1024;
+	private static final int BOUNDS_MARK_LIMIT = 1024 * 1024;
+	/**
+	 * Exact size scaling is skipped if sampled image is only a few percent
+	 * larger than requested
+	 */
+	private static final float EXACT_SIZE_THRESHOLD = 0.95f;
+	/**
+	 * Images with aspect ratio only a few percent different from requested
+	 * one are not cropped
+	 */
+	private static final float CROP_THRESHOLD = 1.05f;
+
+	private static final long NOT_ADMITTED = -1;
+
+	private static final DecodeStats sDecodeStats = new DecodeStats();
+
     public static class ImageOutOfMemoryError extends Error {
         public ImageOutOfMemoryError(OutOfMemoryError e, String fileName, int scaleFactor) {
             super("Could not load image: " + fileName + " (scale: " + scaleFactor + ")", e);
@@ -93,18 +122,33 @@ public class ImageLoader {
                                                      float maxHeight,
                                                      float maxWidth,
                                                      BitmapFactory.Options fileOptions) {
-		if (fileOptions.outHeight > requestedHeight
-				&& fileOptions.outWidth > requestedWidth
-				|| fileOptions.outHeight > maxHeight
-				|| fileOptions.outWidth > maxWidth) {
+		return getScaleFactor(fileOptions.outHeight, fileOptions.outWidth,
+				requestedHeight, requestedWidth, maxHeight, maxWidth);
+	}
+
+	/**
+	 * Calculate scale factor for image of given size
+	 *
+	 * @see #getImageScaleFactor(String, float, float, float, float)
+	 */
+	public static int getScaleFactor(int imageHeight,
+                                     int imageWidth,
+                                     float requestedHeight,
+                                     float requestedWidth,
+                                     float maxHeight,
+                                     float maxWidth) {
+		if (imageHeight > requestedHeight
+				&& imageWidth > requestedWidth
+				|| imageHeight > maxHeight
+				|| imageWidth > maxWidth) {
 			double log2 = Math.log(2.0d);
-			double requestedScaleFactor = Math.min(fileOptions.outHeight
-					/ requestedHeight, fileOptions.outWidth / requestedWidth);
+			double requestedScaleFactor = Math.min(imageHeight
+					/ requestedHeight, imageWidth / requestedWidth);
 			int requestedScale = (int) Math.pow(2,
 					Math.floor(Math.log(requestedScaleFactor) / log2));
 
-			double maxScaleFactor = Math.max(fileOptions.outHeight / maxHeight,
-					fileOptions.outWidth / maxHeight);
+			double maxScaleFactor = Math.max(imageHeight / maxHeight,
+					imageWidth / maxHeight);
 			int maxScale = (int) Math.pow(2,
 					Math.ceil(Math.log(maxScaleFactor) / log2));
 
@@ -114,6 +158,102 @@ public class ImageLoader {
 		return 1;
 	}
 
+	/**
+	 * Returns counters of images decoded by loaders
+	 */
+	@SuppressWarnings("UnusedDeclaration")
+	public static DecodeStats getDecodeStats() {
+		return sDecodeStats;
+	}
+
+	/**
+	 * Load image fetched by {@link ImageFetcher}. Image kept in memory is
+	 * decoded without touching its file, file and stream sources are read
+	 * only once.
+	 */
+	static Bitmap loadImage(ImageSource source, DecodeOptions options) {
+		if (!source.hasData()) {
+			ImageHeaderParser header = new ImageHeaderParser();
+			Bitmap bitmap;
+			if (source.getFile() != null) {
+				bitmap = loadImage(source.getFile().getAbsolutePath(), header,
+						options);
+			} else {
+				bitmap = loadImage(source.getInputStream(), header, options);
+			}
+			source.setHeader(header);
+			return bitmap;
+		}
+		ImageHeaderParser header = source.getHeader();
+		if (header == null) {
+			header = parseHeader(source.getData(), source.getLength());
+			source.setHeader(header);
+		}
+		return loadImage(source.getData(), source.getLength(),
+				header.getHeight(), header.getWidth(), header, options);
+	}
+
+	/**
+	 * Load image from memory with requested size.
+	 *
+	 * @param data
+	 *            image data
+	 * @param length
+	 *            number of valid bytes in data
+	 * @param imageHeight
+	 *            height of image if already known or -1
+	 * @param imageWidth
+	 *            width of image if already known or -1
+	 * @return bitmap image or null if it can not be decoded
+	 * @see #loadImage(String, float, float, float, float)
+	 */
+	public static Bitmap loadImage(byte[] data, int length, int imageHeight,
+			int imageWidth, float requestedHeight, float requestedWidth,
+			float maxHeight, float maxWidth) {
+		ImageHeaderParser header = parseHeader(data, length);
+		if (imageHeight <= 0 || imageWidth <= 0) {
+			imageHeight = header.getHeight();
+			imageWidth = header.getWidth();
+		}
+		return loadImage(data, length, imageHeight, imageWidth, header,
+				new DecodeOptions(requestedWidth, requestedHeight, maxWidth,
+						maxHeight));
+	}
+
+	private static Bitmap loadImage(byte[] data, int length, int imageHeight,
+			int imageWidth, ImageHeaderParser header, DecodeOptions options) {
+		Rect crop = getCenterCrop(header, options);
+		if (crop != null) {
+			Bitmap bitmap = decodeRegion(data, length, crop, header, options);
+			if (bitmap != null) {
+				return bitmap;
+			}
+		}
+		if (imageHeight <= 0 || imageWidth <= 0) {
+			BitmapFactory.Options fileOptions = new BitmapFactory.Options();
+			fileOptions.inJustDecodeBounds = true;
+			BitmapFactory.decodeByteArray(data, 0, length, fileOptions);
+			imageHeight = fileOptions.outHeight;
+			imageWidth = fileOptions.outWidth;
+		}
+		if (imageHeight <= 0 || imageWidth <= 0) {
+			return null;
+		}
+		BitmapFactory.Options o = createBitmapOptions(imageHeight, imageWidth,
+				header.isOpaque(), options);
+		long admittedBytes = admit(imageHeight, imageWidth, o, options);
+		if (admittedBytes == NOT_ADMITTED) {
+			return null;
+		}
+		try {
+			return finishDecode(BitmapFactory.decodeByteArray(data, 0, length, o), o);
+		} catch (OutOfMemoryError e) {
+			throw new ImageOutOfMemoryError(e, "<memory>", o.inSampleSize);
+		} finally {
+			release(admittedBytes, options);
+		}
+	}
+
 	public static Bitmap loadImage(String imageFilePath,
 			float requestedHeight, float requestedWidth) {
 		return loadImage(imageFilePath, requestedHeight, requestedWidth,
@@ -143,23 +283,435 @@ public class ImageLoader {
 	public static Bitmap loadImage(String imageFilePath,
 			float requestedHeight, float requestedWidth, float maxHeight,
 			float maxWidth) {
+		return loadImage(imageFilePath, new ImageHeaderParser(),
+				new DecodeOptions(requestedWidth, requestedHeight, maxWidth,
+						maxHeight));
+	}
+
+	/**
+	 * Load image opening its file only once.
+	 *
+	 * @param header
+	 *            empty parser that will be filled with image header
+	 * @see #loadImage(String, float, float, float, float)
+	 */
+	static Bitmap loadImage(String imageFilePath, ImageHeaderParser header,
+			DecodeOptions options) {
+		InputStream inputStream;
+		try {
+			inputStream = new BufferedInputStream(new FileInputStream(
+					imageFilePath), STREAM_BUFFER_SIZE);
+		} catch (FileNotFoundException e) {
+			return null;
+		}
+		try {
+			return decodeStream(inputStream, header, imageFilePath,
+					imageFilePath, options);
+		} catch (RewindFailedException e) {
+			return decodeFile(imageFilePath, e.getImageHeight(),
+					e.getImageWidth(), e.isOpaque(), options);
+		} catch (IOException e) {
+			return null;
+		} finally {
+			try {
+				inputStream.close();
+			} catch (IOException ignored) {
+			}
+		}
+	}
+
+	/**
+	 * Load image reading stream only once. Stream is not closed.
+	 *
+	 * @param header
+	 *            empty parser that will be filled with image header
+	 * @see #loadImage(String, float, float, float, float)
+	 */
+	static Bitmap loadImage(InputStream inputStream, ImageHeaderParser header,
+			DecodeOptions options) {
+		try {
+			return decodeStream(new BufferedInputStream(inputStream,
+					STREAM_BUFFER_SIZE), header, null, "<stream>", options);
+		} catch (IOException e) {
+			return null;
+		}
+	}
 
-		int scale = getImageScaleFactor(imageFilePath, requestedHeight,
-                requestedWidth, maxHeight, maxWidth);
+	private static class RewindFailedException extends IOException {
+		private static final long serialVersionUID = 1L;
 
-		if (scale < 1)
+		private final int mImageHeight;
+		private final int mImageWidth;
+		private final boolean mOpaque;
+
+		RewindFailedException(int imageHeight, int imageWidth, boolean opaque) {
+			super("Could not rewind stream");
+			mImageHeight = imageHeight;
+			mImageWidth = imageWidth;
+			mOpaque = opaque;
+		}
+
+		int getImageHeight() {
+			return mImageHeight;
+		}
+
+		int getImageWidth() {
+			return mImageWidth;
+		}
+
+		boolean isOpaque() {
+			return mOpaque;
+		}
+	}
+
+	/**
+	 * Header is parsed from buffered stream, stream is rewound and decoded
+	 * with calculated scale. If header does not contain dimensions, bounds
+	 * are decoded from stream and stream is rewound again.
+	 *
+	 * Region of file is decoded by region decoder opened on its path, stream
+	 * is left untouched and whole image is decoded from it if region decoder
+	 * fails. Streams that are not files are decoded whole, region decoder
+	 * would keep whole compressed image in memory and stream could not be
+	 * rewound if it fails.
+	 *
+	 * @param imageFilePath
+	 *            path of file read by stream or null, caller can open file
+	 *            again after {@link RewindFailedException}
+	 * @throws RewindFailedException
+	 *             if bounds decoder read too much to rewind stream
+	 */
+	private static Bitmap decodeStream(InputStream inputStream,
+			ImageHeaderParser header, String imageFilePath, String name,
+			DecodeOptions options) throws IOException {
+		int imageHeight;
+		int imageWidth;
+		readHeader(inputStream, header);
+		Rect crop = imageFilePath == null ? null : getCenterCrop(header, options);
+		if (crop != null) {
+			Bitmap bitmap = decodeRegion(imageFilePath, crop, header, options);
+			if (bitmap != null) {
+				return bitmap;
+			}
+		}
+		if (header.hasDimensions()) {
+			imageHeight = header.getHeight();
+			imageWidth = header.getWidth();
+		} else {
+			inputStream.mark(BOUNDS_MARK_LIMIT);
+			// BitmapFactory would replace our mark with its own one
+			BitmapFactory.Options fileOptions = new BitmapFactory.Options();
+			fileOptions.inJustDecodeBounds = true;
+			BitmapFactory.decodeStream(new UnmarkableInputStream(inputStream),
+					null, fileOptions);
+			imageHeight = fileOptions.outHeight;
+			imageWidth = fileOptions.outWidth;
+			if (imageHeight <= 0 || imageWidth <= 0) {
+				return null;
+			}
+			try {
+				inputStream.reset();
+			} catch (IOException e) {
+				throw new RewindFailedException(imageHeight, imageWidth,
+						header.isOpaque());
+			}
+		}
+		if (imageHeight <= 0 || imageWidth <= 0) {
 			return null;
+		}
 
-		BitmapFactory.Options o = new BitmapFactory.Options();
-		o.inSampleSize = scale;
+		BitmapFactory.Options o = createBitmapOptions(imageHeight, imageWidth,
+				header.isOpaque(), options);
+		long admittedBytes = admit(imageHeight, imageWidth, o, options);
+		if (admittedBytes == NOT_ADMITTED) {
+			return null;
+		}
+		try {
+			return finishDecode(BitmapFactory.decodeStream(inputStream, null, o), o);
+		} catch (OutOfMemoryError e) {
+			throw new ImageOutOfMemoryError(e, name, o.inSampleSize);
+		} finally {
+			release(admittedBytes, options);
+		}
+	}
 
+	private static class UnmarkableInputStream extends FilterInputStream {
+		UnmarkableInputStream(InputStream in) {
+			super(in);
+		}
+
+		@Override
+		public boolean markSupported() {
+			return false;
+		}
+	}
+
+	private static Bitmap decodeFile(String imageFilePath, int imageHeight,
+			int imageWidth, boolean opaque, DecodeOptions options) {
+		BitmapFactory.Options o = createBitmapOptions(imageHeight, imageWidth,
+				opaque, options);
+		long admittedBytes = admit(imageHeight, imageWidth, o, options);
+		if (admittedBytes == NOT_ADMITTED) {
+			return null;
+		}
         try {
-		    return BitmapFactory.decodeFile(imageFilePath, o);
+		    return finishDecode(BitmapFactory.decodeFile(imageFilePath, o), o);
         } catch (OutOfMemoryError e) {
-            throw new ImageOutOfMemoryError(e, imageFilePath, scale);
-        }
+            throw new ImageOutOfMemoryError(e, imageFilePath, o.inSampleSize);
+        } finally {
+			release(admittedBytes, options);
+		}
 	}
-	
+
+	/**
+	 * Wait until governor of options admits decode
+	 *
+	 * @return admitted bytes that have to be released after decode or
+	 *         {@link #NOT_ADMITTED} if thread was interrupted while waiting
+	 */
+	private static long admit(int imageHeight, int imageWidth,
+			BitmapFactory.Options o, DecodeOptions options) {
+		DecodeGovernor governor = options.getGovernor();
+		if (governor == null) {
+			return 0;
+		}
+		long bytes = DecodeGovernor.estimateBytes(imageWidth, imageHeight,
+				o.inSampleSize, o.inPreferredConfig);
+		if (o.inTargetDensity != 0) {
+			float ratio = (float) o.inTargetDensity / o.inDensity;
+			bytes = (long) (bytes * ratio * ratio);
+		}
+		try {
+			governor.acquire(bytes);
+		} catch (InterruptedException e) {
+			// loader is stopping, do not decode
+			Thread.currentThread().interrupt();
+			return NOT_ADMITTED;
+		}
+		return bytes;
+	}
+
+	private static void release(long admittedBytes, DecodeOptions options) {
+		DecodeGovernor governor = options.getGovernor();
+		if (governor != null) {
+			governor.release(admittedBytes);
+		}
+	}
+
+	/**
+	 * Create decoding options for image of given size. Image is sampled by
+	 * power of two, in exact size mode sampled image is additionally scaled
+	 * by decoder so it covers requested size. Bitmap config is selected by
+	 * policy of options.
+	 */
+	private static BitmapFactory.Options createBitmapOptions(int imageHeight,
+			int imageWidth, boolean opaque, DecodeOptions options) {
+		int scale = getScaleFactor(imageHeight, imageWidth,
+				options.getRequestedHeight(), options.getRequestedWidth(),
+				options.getMaxHeight(), options.getMaxWidth());
+		BitmapFactory.Options o = new BitmapFactory.Options();
+		o.inPreferredConfig = options.getConfigPolicy().getConfig(opaque);
+		DecodeGovernor governor = options.getGovernor();
+		if (governor != null) {
+			scale = governor.adjustSampleSize(imageWidth, imageHeight, scale,
+					o.inPreferredConfig);
+		}
+		o.inSampleSize = scale;
+		if (!options.isExactSize()) {
+			return o;
+		}
+		float targetScale = Math.max(options.getRequestedWidth() / imageWidth,
+				options.getRequestedHeight() / imageHeight);
+		int sampledWidth = imageWidth / scale;
+		int targetWidth = Math.round(imageWidth * targetScale);
+		if (targetWidth > 0 && targetWidth < sampledWidth * EXACT_SIZE_THRESHOLD) {
+			o.inScaled = true;
+			o.inDensity = sampledWidth;
+			o.inTargetDensity = targetWidth;
+		}
+		return o;
+	}
+
+	/**
+	 * Region of image covering aspect ratio of requested size
+	 *
+	 * @return region or null if image should be decoded whole
+	 */
+	private static Rect getCenterCrop(ImageHeaderParser header,
+			DecodeOptions options) {
+		if (!options.isCenterCrop()
+				|| Build.VERSION.SDK_INT < Build.VERSION_CODES.GINGERBREAD_MR1
+				|| !header.hasDimensions()) {
+			return null;
+		}
+		int format = header.getFormat();
+		if (format != ImageHeaderParser.FORMAT_JPEG
+				&& format != ImageHeaderParser.FORMAT_PNG) {
+			return null;
+		}
+		int imageWidth = header.getWidth();
+		int imageHeight = header.getHeight();
+		float aspectRatio = options.getRequestedWidth()
+				/ options.getRequestedHeight();
+		if (header.isTransposed()) {
+			// crop is taken before image is rotated
+			aspectRatio = 1.0f / aspectRatio;
+		}
+		float imageAspectRatio = (float) imageWidth / imageHeight;
+		if (imageAspectRatio > aspectRatio * CROP_THRESHOLD) {
+			int width = Math.round(imageHeight * aspectRatio);
+			int left = (imageWidth - width) / 2;
+			return new Rect(left, 0, left + width, imageHeight);
+		}
+		if (imageAspectRatio * CROP_THRESHOLD < aspectRatio) {
+			int height = Math.round(imageWidth / aspectRatio);
+			int top = (imageHeight - height) / 2;
+			return new Rect(0, top, imageWidth, top + height);
+		}
+		return null;
+	}
+
+	/**
+	 * @return region of image kept in memory or null if it could not be
+	 *         decoded
+	 */
+	@TargetApi(Build.VERSION_CODES.GINGERBREAD_MR1)
+	private static Bitmap decodeRegion(byte[] data, int length, Rect crop,
+			ImageHeaderParser header, DecodeOptions options) {
+		try {
+			return decodeRegion(BitmapRegionDecoder.newInstance(data, 0, length,
+					false), crop, header, options, "<memory>");
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * @return region of image file or null if it could not be decoded
+	 */
+	@TargetApi(Build.VERSION_CODES.GINGERBREAD_MR1)
+	private static Bitmap decodeRegion(String imageFilePath, Rect crop,
+			ImageHeaderParser header, DecodeOptions options) {
+		try {
+			// decoder reads file itself instead of buffering it from stream
+			return decodeRegion(BitmapRegionDecoder.newInstance(imageFilePath,
+					false), crop, header, options, imageFilePath);
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Decode region of image sampled to requested size. Exact size scaling
+	 * is not supported by region decoder.
+	 */
+	@TargetApi(Build.VERSION_CODES.GINGERBREAD_MR1)
+	private static Bitmap decodeRegion(BitmapRegionDecoder decoder, Rect crop,
+			ImageHeaderParser header, DecodeOptions options, String name) {
+		if (decoder == null) {
+			return null;
+		}
+		int cropHeight = crop.height();
+		int cropWidth = crop.width();
+		if (header.isTransposed()) {
+			cropHeight = crop.width();
+			cropWidth = crop.height();
+		}
+		BitmapFactory.Options o = new BitmapFactory.Options();
+		o.inSampleSize = getScaleFactor(cropHeight, cropWidth,
+				options.getRequestedHeight(), options.getRequestedWidth(),
+				options.getMaxHeight(), options.getMaxWidth());
+		o.inPreferredConfig = options.getConfigPolicy().getConfig(
+				header.isOpaque());
+		DecodeGovernor governor = options.getGovernor();
+		if (governor != null) {
+			o.inSampleSize = governor.adjustSampleSize(cropWidth, cropHeight,
+					o.inSampleSize, o.inPreferredConfig);
+		}
+		long admittedBytes = admit(cropHeight, cropWidth, o, options);
+		if (admittedBytes == NOT_ADMITTED) {
+			decoder.recycle();
+			return null;
+		}
+		Bitmap bitmap;
+		try {
+			bitmap = decoder.decodeRegion(crop, o);
+		} catch (OutOfMemoryError e) {
+			throw new ImageOutOfMemoryError(e, name, o.inSampleSize);
+		} finally {
+			decoder.recycle();
+			release(admittedBytes, options);
+		}
+		if (bitmap == null) {
+			return null;
+		}
+		long bytes = (long) bitmap.getRowBytes() * bitmap.getHeight();
+		// memory of whole sampled ARGB_8888 bitmap that would be decoded otherwise
+		long sampledBytes = (long) (header.getWidth() / o.inSampleSize)
+				* (header.getHeight() / o.inSampleSize)
+				* MemoryCache.BYTES_PER_PIXEL;
+		sDecodeStats.onDecoded(bytes, Math.max(0, sampledBytes - bytes),
+				false, bitmap.getConfig() != Bitmap.Config.ARGB_8888);
+		sDecodeStats.onCropped();
+		return bitmap;
+	}
+
+	/**
+	 * Restore density of bitmaps scaled through density and update stats
+	 */
+	private static Bitmap finishDecode(Bitmap bitmap, BitmapFactory.Options o) {
+		if (bitmap == null) {
+			return null;
+		}
+		long bytes = (long) bitmap.getRowBytes() * bitmap.getHeight();
+		// memory of sampled ARGB_8888 bitmap that would be decoded otherwise
+		long sampledBytes = (long) bitmap.getWidth() * bitmap.getHeight()
+				* MemoryCache.BYTES_PER_PIXEL;
+		boolean exactSize = o.inTargetDensity != 0;
+		if (exactSize) {
+			float ratio = (float) o.inDensity / o.inTargetDensity;
+			sampledBytes = (long) (sampledBytes * ratio * ratio);
+			bitmap.setDensity(Resources.getSystem().getDisplayMetrics().densityDpi);
+		}
+		boolean reducedConfig = bitmap.getConfig() != Bitmap.Config.ARGB_8888;
+		sDecodeStats.onDecoded(bytes, Math.max(0, sampledBytes - bytes),
+				exactSize, reducedConfig);
+		return bitmap;
+	}
+
+	private static ImageHeaderParser parseHeader(byte[] data, int length) {
+		ImageHeaderParser header = new ImageHeaderParser();
+		header.update(data, length);
+		return header;
+	}
+
+	/**
+	 * Parse header from the beginning of stream and rewind stream
+	 */
+	private static void readHeader(InputStream inputStream,
+			ImageHeaderParser header) throws IOException {
+		inputStream.mark(HEADER_MARK_LIMIT);
+		byte[] data = new byte[HEADER_CHUNK_SIZE];
+		int length = 0;
+		while (!header.isComplete()) {
+			if (length == data.length) {
+				if (length >= HEADER_MARK_LIMIT) {
+					break;
+				}
+				byte[] newData = new byte[Math.min(length * 2, HEADER_MARK_LIMIT)];
+				System.arraycopy(data, 0, newData, 0, length);
+				data = newData;
+			}
+			int read = inputStream.read(data, length, data.length - length);
+			if (read < 0) {
+				break;
+			}
+			length += read;
+			header.update(data, length);
+		}
+		inputStream.reset();
+	}
+
 	@SuppressWarnings("UnusedDeclaration")
     public static Bitmap loadImage(InputStream inputStream,
 			int scale) {
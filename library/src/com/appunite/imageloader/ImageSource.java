@@ -0,0 +1,207 @@
+/*
+ * Copyright (C) 2013 Appunite.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.appunite.imageloader;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+
+import android.content.res.AssetFileDescriptor;
+import android.os.ParcelFileDescriptor;
+
+/**
+ * Image returned by {@link ImageFetcher}.
+ *
+ * Image can be backed by file, by bytes in memory or by stream (also
+ * opened from file descriptor). Stream backed sources are decoded directly
+ * and can be read only once. Header of file and stream backed images is
+ * filled while decoding.
+ */
+@SuppressWarnings("UnusedDeclaration")
+public class ImageSource {
+
+    private final File mFile;
+    private final byte[] mData;
+    private final int mLength;
+    private final InputStream mInputStream;
+    private ImageHeaderParser mHeader;
+    private LoadEvent.Source mSource = LoadEvent.Source.LOCAL;
+    private long mNetworkBytes = 0;
+
+    private ImageSource(File file, byte[] data, int length, InputStream inputStream,
+                        ImageHeaderParser header) {
+        mFile = file;
+        mData = data;
+        mLength = length;
+        mInputStream = inputStream;
+        mHeader = header;
+    }
+
+    public static ImageSource fromFile(File file) {
+        if (file == null) {
+            throw new IllegalArgumentException("File could not be null");
+        }
+        return new ImageSource(file, null, 0, null, null);
+    }
+
+    /**
+     * @param data
+     *            image data
+     * @param length
+     *            number of valid bytes in data
+     */
+    public static ImageSource fromData(byte[] data, int length) {
+        if (data == null) {
+            throw new IllegalArgumentException("Data could not be null");
+        }
+        return new ImageSource(null, data, length, null, null);
+    }
+
+    /**
+     * @param file
+     *            file containing the same data
+     * @param data
+     *            image data
+     * @param length
+     *            number of valid bytes in data
+     * @param header
+     *            parsed header of data or null
+     */
+    static ImageSource fromData(File file, byte[] data, int length,
+                                ImageHeaderParser header) {
+        return new ImageSource(file, data, length, null, header);
+    }
+
+    /**
+     * @param inputStream
+     *            stream positioned at the beginning of image, will be closed
+     *            after decoding
+     */
+    public static ImageSource fromStream(InputStream inputStream) {
+        if (inputStream == null) {
+            throw new IllegalArgumentException("Input stream could not be null");
+        }
+        return new ImageSource(null, null, 0, inputStream, null);
+    }
+
+    /**
+     * @param fileDescriptor
+     *            descriptor positioned at the beginning of image, will be
+     *            closed after decoding
+     */
+    public static ImageSource fromFileDescriptor(ParcelFileDescriptor fileDescriptor) {
+        return fromStream(new ParcelFileDescriptor.AutoCloseInputStream(fileDescriptor));
+    }
+
+    /**
+     * @param fileDescriptor
+     *            descriptor of image, will be closed after decoding
+     */
+    public static ImageSource fromFileDescriptor(AssetFileDescriptor fileDescriptor)
+            throws IOException {
+        return fromStream(fileDescriptor.createInputStream());
+    }
+
+    /**
+     * @return file or null if image is not backed by file
+     */
+    public File getFile() {
+        return mFile;
+    }
+
+    public boolean hasData() {
+        return mData != null;
+    }
+
+    public byte[] getData() {
+        return mData;
+    }
+
+    public int getLength() {
+        return mLength;
+    }
+
+    /**
+     * @return stream or null if image is not backed by stream
+     */
+    public InputStream getInputStream() {
+        return mInputStream;
+    }
+
+    /**
+     * @param source
+     *            where image came from
+     * @param networkBytes
+     *            number of bytes received from network while fetching
+     */
+    void setSource(LoadEvent.Source source, long networkBytes) {
+        mSource = source;
+        mNetworkBytes = networkBytes;
+    }
+
+    /**
+     * @return where image came from, {@link LoadEvent.Source#LOCAL} if not set
+     *         by fetcher
+     */
+    public LoadEvent.Source getSource() {
+        return mSource;
+    }
+
+    /**
+     * @return number of bytes received from network while fetching
+     */
+    public long getNetworkBytes() {
+        return mNetworkBytes;
+    }
+
+    /**
+     * @return size of image or -1 if image is backed by stream
+     */
+    public long getSize() {
+        if (mData != null) {
+            return mLength;
+        }
+        if (mFile != null) {
+            return mFile.length();
+        }
+        return -1;
+    }
+
+    void setHeader(ImageHeaderParser header) {
+        mHeader = header;
+    }
+
+    /**
+     * @return complete parsed header or null if not available
+     */
+    ImageHeaderParser getHeader() {
+        return mHeader != null && mHeader.isComplete() ? mHeader : null;
+    }
+
+    /**
+     * Release stream, if any
+     */
+    public void close() {
+        if (mInputStream == null) {
+            return;
+        }
+        try {
+            mInputStream.close();
+        } catch (IOException ignored) {
+        }
+    }
+}
@@ -0,0 +1,296 @@
+/*
+ * Copyright (C) 2013 Appunite.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.appunite.imageloader;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.provider.MediaStore;
+import android.text.TextUtils;
+
+/**
+ * Resolves and caches metadata of MediaStore images and videos.
+ *
+ * Uris queued by {@link #enqueue(Uri)} are resolved together with looked up
+ * uri of the same table in one {@code _id IN (...)} query, so grid of
+ * gallery thumbnails does not need provider round trip per uri. Shared by
+ * all download threads.
+ */
+@SuppressWarnings("UnusedDeclaration")
+public class MediaStoreResolver {
+
+    private static final int MAX_BATCH_SIZE = 100;
+    private static final int MAX_PENDING = 500;
+    private static final int MAX_CACHED = 500;
+
+    private static final String[] IMAGE_PROJECTION = new String[] {
+            MediaStore.Images.ImageColumns._ID,
+            MediaStore.Images.ImageColumns.MIME_TYPE,
+            MediaStore.Images.ImageColumns.ORIENTATION,
+            MediaStore.Images.ImageColumns.DATA };
+    private static final String[] VIDEO_PROJECTION = new String[] {
+            MediaStore.Video.VideoColumns._ID,
+            MediaStore.Video.VideoColumns.MIME_TYPE };
+
+    /**
+     * Metadata of one MediaStore item
+     */
+    public static class Metadata {
+        private final long mId;
+        private final String mMimeType;
+        private final int mRotation;
+        private final String mData;
+        private final boolean mVideo;
+
+        Metadata(long id, String mimeType, int rotation, String data,
+                 boolean video) {
+            mId = id;
+            mMimeType = mimeType;
+            mRotation = rotation;
+            mData = data;
+            mVideo = video;
+        }
+
+        public long getId() {
+            return mId;
+        }
+
+        public String getMimeType() {
+            return mMimeType;
+        }
+
+        /**
+         * @return clockwise rotation in degrees stored by MediaStore, 0 for
+         *         videos
+         */
+        public int getRotation() {
+            return mRotation;
+        }
+
+        /**
+         * @return path of file or null
+         */
+        public String getData() {
+            return mData;
+        }
+
+        public boolean isVideo() {
+            return mVideo;
+        }
+    }
+
+    /**
+     * Cached for uris that query did not return, so deleted items do not
+     * query MediaStore again on every lookup
+     */
+    private static final Metadata MISSING = new Metadata(-1, null, 0, null, false);
+
+    private final ContentResolver mContentResolver;
+    private final LinkedHashSet<Uri> mPending = new LinkedHashSet<Uri>();
+    private final Map<Uri, Metadata> mCache = new LinkedHashMap<Uri, Metadata>(
+            16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Uri, Metadata> eldest) {
+            return size() > MAX_CACHED;
+        }
+    };
+    private int mQueryCount;
+    private int mHitCount;
+
+    public MediaStoreResolver(ContentResolver contentResolver) {
+        if (contentResolver == null) {
+            throw new IllegalArgumentException("Content resolver could not be null");
+        }
+        mContentResolver = contentResolver;
+    }
+
+    /**
+     * Queue uri to be resolved with next lookup of its table. Uris that are
+     * not MediaStore items are ignored.
+     */
+    public synchronized void enqueue(Uri uri) {
+        if (getTable(uri) == null || mCache.containsKey(uri)) {
+            return;
+        }
+        mPending.remove(uri);
+        mPending.add(uri);
+        if (mPending.size() > MAX_PENDING) {
+            Iterator<Uri> iterator = mPending.iterator();
+            iterator.next();
+            iterator.remove();
+        }
+    }
+
+    /**
+     * Lookup metadata, querying MediaStore together with queued uris of the
+     * same table if it is not cached
+     *
+     * @return metadata or null if uri is not MediaStore image or video or
+     *         it does not exist
+     */
+    public Metadata get(Uri uri) {
+        Uri table = getTable(uri);
+        if (table == null) {
+            return null;
+        }
+        List<Uri> batch = new ArrayList<Uri>();
+        synchronized (this) {
+            Metadata metadata = mCache.get(uri);
+            if (metadata != null) {
+                mHitCount++;
+                return metadata == MISSING ? null : metadata;
+            }
+            mPending.remove(uri);
+            batch.add(uri);
+            Iterator<Uri> iterator = mPending.iterator();
+            while (iterator.hasNext() && batch.size() < MAX_BATCH_SIZE) {
+                Uri pending = iterator.next();
+                if (table.equals(getTable(pending))) {
+                    batch.add(pending);
+                    iterator.remove();
+                }
+            }
+            mQueryCount++;
+        }
+        Map<Uri, Metadata> resolved = query(table, batch);
+        synchronized (this) {
+            mCache.putAll(resolved);
+        }
+        Metadata metadata = resolved.get(uri);
+        return metadata == MISSING ? null : metadata;
+    }
+
+    /**
+     * Forget cached metadata, e.g. after MediaStore changed
+     */
+    public synchronized void clear() {
+        mCache.clear();
+        mPending.clear();
+    }
+
+    /**
+     * @return metadata of batch, {@link #MISSING} for uris that do not exist,
+     *         empty if provider failed
+     */
+    private Map<Uri, Metadata> query(Uri table, List<Uri> batch) {
+        boolean video = isVideoTable(table);
+        Map<Uri, Metadata> resolved = new LinkedHashMap<Uri, Metadata>();
+        StringBuilder selection = new StringBuilder(MediaStore.MediaColumns._ID)
+                .append(" IN (");
+        String[] selectionArgs = new String[batch.size()];
+        Map<String, Uri> uris = new LinkedHashMap<String, Uri>();
+        for (int i = 0; i < batch.size(); i++) {
+            selection.append(i == 0 ? "?" : ",?");
+            selectionArgs[i] = batch.get(i).getLastPathSegment();
+            uris.put(selectionArgs[i], batch.get(i));
+        }
+        selection.append(')');
+        Cursor cursor = mContentResolver.query(table,
+                video ? VIDEO_PROJECTION : IMAGE_PROJECTION,
+                selection.toString(), selectionArgs, null);
+        if (cursor == null) {
+            return resolved;
+        }
+        try {
+            while (cursor.moveToNext()) {
+                long id = cursor.getLong(0);
+                String mimeType = cursor.getString(1);
+                int rotation = video ? 0 : cursor.getInt(2);
+                String data = video ? null : cursor.getString(3);
+                Uri uri = uris.get(String.valueOf(id));
+                if (uri != null) {
+                    resolved.put(uri, new Metadata(id, mimeType, rotation, data,
+                            video));
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+        for (Uri uri : batch) {
+            if (!resolved.containsKey(uri)) {
+                resolved.put(uri, MISSING);
+            }
+        }
+        return resolved;
+    }
+
+    /**
+     * Returns uri of images or video table of MediaStore item, e.g.
+     * content://media/external/images/media for
+     * content://media/external/images/media/12, or null if uri is not
+     * MediaStore image or video
+     */
+    private static Uri getTable(Uri uri) {
+        if (!ContentResolver.SCHEME_CONTENT.equals(uri.getScheme())
+                || !MediaStore.AUTHORITY.equals(uri.getAuthority())
+                || uri.getQuery() != null) {
+            return null;
+        }
+        List<String> segments = uri.getPathSegments();
+        int size = segments.size();
+        if (size < 3 || !"media".equals(segments.get(size - 2))) {
+            return null;
+        }
+        String type = segments.get(size - 3).toLowerCase(Locale.US);
+        if (!"images".equals(type) && !"video".equals(type)) {
+            return null;
+        }
+        String id = segments.get(size - 1);
+        if (TextUtils.isEmpty(id) || !TextUtils.isDigitsOnly(id)) {
+            return null;
+        }
+        Uri.Builder builder = uri.buildUpon().path(null);
+        for (int i = 0; i < size - 1; i++) {
+            builder.appendPath(segments.get(i));
+        }
+        return builder.build();
+    }
+
+    private static boolean isVideoTable(Uri table) {
+        List<String> segments = table.getPathSegments();
+        return "video".equalsIgnoreCase(segments.get(segments.size() - 2));
+    }
+
+    /**
+     * Returns the number of MediaStore queries
+     */
+    public synchronized int queryCount() {
+        return mQueryCount;
+    }
+
+    /**
+     * Returns the number of lookups served from cache
+     */
+    public synchronized int hitCount() {
+        return mHitCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format(Locale.US,
+                "MediaStoreResolver[queries=%d,hits=%d,cached=%d,pending=%d]",
+                mQueryCount, mHitCount, mCache.size(), mPending.size());
+    }
+}
@@ -1,6 +1,12 @@
 package com.appunite.imageloader;
 
+import java.lang.ref.WeakReference;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
 import android.annotation.TargetApi;
+import android.app.ActivityManager;
+import android.content.Context;
 import android.graphics.Bitmap;
 import android.os.Build;
 
@@ -9,15 +15,116 @@ import android.os.Build;
  * @author Jacek Marchwicki (jacek.marchwicki@gmail.com)
  *
  */
-public class MemoryCache extends LruCache<String, Bitmap> {
+public class MemoryCache extends LruCache<String, Bitmap>
+        implements MemoryArbiter.Participant {
 
     static final int NUMBER_OF_SCREENS_IN_MEMORY = 4;
     public static final int BYTES_PER_PIXEL = 4;
 
+    private static final long BYTES_IN_MEGABYTE = 1024 * 1024;
+    /**
+     * Part of heap used by images, e.g. 4 means quarter of heap
+     */
+    private static final int HEAP_DIVIDER = 4;
+    private static final int LOW_RAM_HEAP_DIVIDER = 8;
+    /**
+     * Devices with less memory are treated as low ram devices, same limit as
+     * used by platform for {@code ActivityManager.isLowRamDevice()}
+     */
+    private static final long LOW_RAM_TOTAL_BYTES = 512 * BYTES_IN_MEGABYTE;
+
+    private static MemoryArbiter sArbiter;
+
+    /**
+     * Notified when bitmap leaves cache, e.g. to drop data kept next to it
+     */
+    public interface OnEntryRemovedListener {
+        /**
+         * Called on thread that evicted or removed bitmap, without cache
+         * lock held
+         */
+        void onEntryRemoved(String key);
+    }
+
+    /**
+     * Weak, so cache shared by many loaders does not keep them alive
+     */
+    private final List<WeakReference<OnEntryRemovedListener>> mListeners =
+            new CopyOnWriteArrayList<WeakReference<OnEntryRemovedListener>>();
+
     public MemoryCache(int maxSize) {
         super(maxSize);
     }
 
+    /**
+     * @return memory for images of whole application derived from heap
+     *         class of device, smaller on low ram devices
+     */
+    public static long getHeapBudget(Context context) {
+        ActivityManager activityManager = (ActivityManager) context
+                .getSystemService(Context.ACTIVITY_SERVICE);
+        long heapBytes = activityManager.getMemoryClass() * BYTES_IN_MEGABYTE;
+        if (Build.VERSION.SDK_INT >= 16 && getTotalMemory16(activityManager)
+                <= LOW_RAM_TOTAL_BYTES) {
+            return heapBytes / LOW_RAM_HEAP_DIVIDER;
+        }
+        return heapBytes / HEAP_DIVIDER;
+    }
+
+    @TargetApi(16)
+    private static long getTotalMemory16(ActivityManager activityManager) {
+        ActivityManager.MemoryInfo memoryInfo = new ActivityManager.MemoryInfo();
+        activityManager.getMemoryInfo(memoryInfo);
+        return memoryInfo.totalMem;
+    }
+
+    /**
+     * @return arbiter shared by all loaders, with budget from
+     *         {@link #getHeapBudget(Context)} and default
+     *         {@link ByteArrayPool} registered
+     */
+    public static synchronized MemoryArbiter getArbiter(Context context) {
+        if (sArbiter == null) {
+            sArbiter = new MemoryArbiter(getHeapBudget(context));
+            ByteArrayPool pool = ByteArrayPool.getDefault();
+            sArbiter.registerReserved("ByteArrayPool", pool, pool.stats().getMaxSize());
+        }
+        return sArbiter;
+    }
+
+    /**
+     * Add listener of evicted and removed bitmaps. Listener is weakly
+     * referenced, caller has to keep it.
+     */
+    public void addOnEntryRemovedListener(OnEntryRemovedListener listener) {
+        if (listener == null) {
+            throw new IllegalArgumentException("Listener could not be null");
+        }
+        mListeners.add(new WeakReference<OnEntryRemovedListener>(listener));
+    }
+
+    @Override
+    protected void entryRemoved(boolean evicted, String key, Bitmap oldValue,
+                                Bitmap newValue) {
+        if (newValue != null) {
+            // replaced by put, not removed
+            return;
+        }
+        for (WeakReference<OnEntryRemovedListener> reference : mListeners) {
+            OnEntryRemovedListener listener = reference.get();
+            if (listener == null) {
+                mListeners.remove(reference);
+            } else {
+                listener.onEntryRemoved(key);
+            }
+        }
+    }
+
+    @Override
+    public void setMemoryBudget(long budgetBytes) {
+        resize((int) Math.max(1, Math.min(budgetBytes, Integer.MAX_VALUE)));
+    }
+
     @TargetApi(12)
     private int getByteCount12(Bitmap value) {
         return value.getByteCount();
@@ -28,7 +135,7 @@ public class MemoryCache extends LruCache<String, Bitmap> {
         if (Build.VERSION.SDK_INT >= 12) {
             return this.getByteCount12(value);
         } else {
-            return value.getWidth() * value.getHeight() * BYTES_PER_PIXEL;
+            return value.getRowBytes() * value.getHeight();
         }
 
     }
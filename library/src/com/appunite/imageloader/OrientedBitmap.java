@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2013 Appunite.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.appunite.imageloader;
+
+import android.graphics.Bitmap;
+import android.graphics.Matrix;
+import android.graphics.RectF;
+
+/**
+ * Decoded bitmap with exif orientation that has not been applied yet.
+ *
+ * Rotating bitmap creates its copy, so both have to fit in memory. Holders
+ * implementing {@link RemoteImageLoader.OrientedImageHolder} can display
+ * bitmap with {@link OrientedBitmapDrawable} instead.
+ */
+@SuppressWarnings("UnusedDeclaration")
+public class OrientedBitmap {
+
+    public static final int ORIENTATION_NORMAL = 1;
+    public static final int ORIENTATION_FLIP_HORIZONTAL = 2;
+    public static final int ORIENTATION_ROTATE_180 = 3;
+    public static final int ORIENTATION_FLIP_VERTICAL = 4;
+    public static final int ORIENTATION_TRANSPOSE = 5;
+    public static final int ORIENTATION_ROTATE_90 = 6;
+    public static final int ORIENTATION_TRANSVERSE = 7;
+    public static final int ORIENTATION_ROTATE_270 = 8;
+
+    private final Bitmap mBitmap;
+    private final int mExifOrientation;
+
+    /**
+     * @param bitmap
+     *            bitmap as stored in image
+     * @param exifOrientation
+     *            exif orientation of image, values out of range are treated
+     *            as {@link #ORIENTATION_NORMAL}
+     */
+    public OrientedBitmap(Bitmap bitmap, int exifOrientation) {
+        if (bitmap == null) {
+            throw new IllegalArgumentException("Bitmap could not be null");
+        }
+        mBitmap = bitmap;
+        mExifOrientation = isValid(exifOrientation) ? exifOrientation : ORIENTATION_NORMAL;
+    }
+
+    public Bitmap getBitmap() {
+        return mBitmap;
+    }
+
+    public int getExifOrientation() {
+        return mExifOrientation;
+    }
+
+    /**
+     * Returns bitmap with orientation applied. Bitmap is copied and recycled
+     * if orientation is not normal.
+     */
+    public Bitmap toBitmap() {
+        Bitmap oriented = copyOriented();
+        if (oriented != mBitmap) {
+            mBitmap.recycle();
+        }
+        return oriented;
+    }
+
+    /**
+     * Returns copy of bitmap with orientation applied, or bitmap itself if
+     * orientation is normal. Bitmap is not recycled.
+     */
+    public Bitmap copyOriented() {
+        if (mExifOrientation == ORIENTATION_NORMAL) {
+            return mBitmap;
+        }
+        Matrix matrix = getMatrix(mExifOrientation, mBitmap.getWidth(),
+                mBitmap.getHeight());
+        return Bitmap.createBitmap(mBitmap, 0, 0, mBitmap.getWidth(),
+                mBitmap.getHeight(), matrix, true);
+    }
+
+    /**
+     * @return true if orientation swaps width and height
+     */
+    public static boolean isTransposed(int exifOrientation) {
+        return exifOrientation >= ORIENTATION_TRANSPOSE
+                && exifOrientation <= ORIENTATION_ROTATE_270;
+    }
+
+    /**
+     * Matrix transforming image of given size stored with exif orientation
+     * to its upright position, with top left corner at (0, 0).
+     */
+    public static Matrix getMatrix(int exifOrientation, int width, int height) {
+        Matrix matrix = new Matrix();
+        switch (exifOrientation) {
+            case ORIENTATION_FLIP_HORIZONTAL:
+                matrix.setScale(-1, 1);
+                break;
+            case ORIENTATION_ROTATE_180:
+                matrix.setRotate(180);
+                break;
+            case ORIENTATION_FLIP_VERTICAL:
+                matrix.setScale(1, -1);
+                break;
+            case ORIENTATION_TRANSPOSE:
+                matrix.setRotate(90);
+                matrix.postScale(-1, 1);
+                break;
+            case ORIENTATION_ROTATE_90:
+                matrix.setRotate(90);
+                break;
+            case ORIENTATION_TRANSVERSE:
+                matrix.setRotate(-90);
+                matrix.postScale(-1, 1);
+                break;
+            case ORIENTATION_ROTATE_270:
+                matrix.setRotate(-90);
+                break;
+            default:
+                return matrix;
+        }
+        RectF bounds = new RectF(0, 0, width, height);
+        matrix.mapRect(bounds);
+        matrix.postTranslate(-bounds.left, -bounds.top);
+        return matrix;
+    }
+
+    /**
+     * Exif orientation of image rotated clockwise by given degrees
+     */
+    public static int fromRotation(int degrees) {
+        switch (((degrees % 360) + 360) % 360) {
+            case 90:
+                return ORIENTATION_ROTATE_90;
+            case 180:
+                return ORIENTATION_ROTATE_180;
+            case 270:
+                return ORIENTATION_ROTATE_270;
+            default:
+                return ORIENTATION_NORMAL;
+        }
+    }
+
+    private static boolean isValid(int exifOrientation) {
+        return exifOrientation >= ORIENTATION_NORMAL
+                && exifOrientation <= ORIENTATION_ROTATE_270;
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2013 Appunite.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.appunite.imageloader;
+
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Rect;
+import android.graphics.drawable.BitmapDrawable;
+
+/**
+ * Drawable that applies exif orientation of bitmap while drawing, so
+ * rotated copy of bitmap does not have to be created.
+ */
+@SuppressWarnings("UnusedDeclaration")
+public class OrientedBitmapDrawable extends BitmapDrawable {
+
+    private final int mExifOrientation;
+    private final Matrix mDrawMatrix = new Matrix();
+
+    public OrientedBitmapDrawable(Resources resources, OrientedBitmap bitmap) {
+        super(resources, bitmap.getBitmap());
+        mExifOrientation = bitmap.getExifOrientation();
+    }
+
+    public int getExifOrientation() {
+        return mExifOrientation;
+    }
+
+    @Override
+    public int getIntrinsicWidth() {
+        return OrientedBitmap.isTransposed(mExifOrientation)
+                ? super.getIntrinsicHeight() : super.getIntrinsicWidth();
+    }
+
+    @Override
+    public int getIntrinsicHeight() {
+        return OrientedBitmap.isTransposed(mExifOrientation)
+                ? super.getIntrinsicWidth() : super.getIntrinsicHeight();
+    }
+
+    @Override
+    protected void onBoundsChange(Rect bounds) {
+        super.onBoundsChange(bounds);
+        Bitmap bitmap = getBitmap();
+        if (bitmap == null) {
+            return;
+        }
+        int width = bitmap.getWidth();
+        int height = bitmap.getHeight();
+        mDrawMatrix.set(OrientedBitmap.getMatrix(mExifOrientation, width, height));
+        if (OrientedBitmap.isTransposed(mExifOrientation)) {
+            width = bitmap.getHeight();
+            height = bitmap.getWidth();
+        }
+        mDrawMatrix.postScale((float) bounds.width() / width,
+                (float) bounds.height() / height);
+        mDrawMatrix.postTranslate(bounds.left, bounds.top);
+    }
+
+    @Override
+    public void draw(Canvas canvas) {
+        Bitmap bitmap = getBitmap();
+        if (bitmap == null) {
+            return;
+        }
+        int saveCount = canvas.save();
+        canvas.concat(mDrawMatrix);
+        canvas.drawBitmap(bitmap, 0, 0, getPaint());
+        canvas.restoreToCount(saveCount);
+    }
+}
@@ -16,24 +16,36 @@
 
 package com.appunite.imageloader;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
-import java.util.concurrent.locks.Condition;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
 
 import android.annotation.TargetApi;
 import android.app.Activity;
+import android.content.Context;
 import android.content.res.Resources;
 import android.graphics.Bitmap;
 import android.graphics.Point;
+import android.net.Uri;
 import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
 import android.text.TextUtils;
 import android.util.DisplayMetrics;
 import android.util.Log;
 import android.view.Display;
+import android.view.WindowManager;
 import android.widget.ImageView;
 import android.widget.ImageView.ScaleType;
 
@@ -53,45 +65,141 @@ public class RemoteImageLoader {
         void setPlaceholder(boolean immediately);
     }
 
-	private class DownloadImageThread extends Thread {
+    /**
+     * Holder that knows how it scales displayed images. Holders displaying
+     * with {@link ScaleType#CENTER_CROP} get only region of image visible
+     * at aspect ratio of requested size if
+     * {@link #setCropDecoding(boolean)} is enabled.
+     */
+    public static interface ScaleTypeImageHolder extends ImageHolder {
+        ScaleType getScaleType();
+    }
+
+    /**
+     * Holder that applies exif orientation of image itself, e.g. with
+     * {@link OrientedBitmapDrawable}. If {@link #setDeferredRotation(boolean)}
+     * is enabled, images are delivered to these holders without creating
+     * rotated copy, other holders get rotated copy.
+     */
+    public static interface OrientedImageHolder extends ImageHolder {
+        void setRemoteBitmap(OrientedBitmap bitmap, boolean immediately);
+    }
+
+    /**
+     * Holder that stores token of its current binding itself, so loader does
+     * not have to look it up. Other holders are tracked by loader in map.
+     */
+    public static interface TokenImageHolder extends ImageHolder,
+            LoadBindings.TokenHolder<ImageHolder> {
+    }
+
+    /**
+     * Queued image, holders displaying it are mapped by its key
+     */
+    private static class ImageRequest implements LoadCoordinator.Request {
+        final String mResource;
+        final boolean mCenterCrop;
+        final int mWidth;
+        final int mHeight;
+        final boolean mMediaStoreThumbnail;
+        final String mKey;
+        final LoadEvent mEvent;
+
+        ImageRequest(String resource, int width, int height, boolean centerCrop,
+                     boolean mediaStoreThumbnail, String key, LoadEvent event) {
+            mResource = resource;
+            mWidth = width;
+            mHeight = height;
+            mCenterCrop = centerCrop;
+            mMediaStoreThumbnail = mediaStoreThumbnail;
+            mKey = key;
+            mEvent = event;
+        }
 
-		private boolean mStop = false;
+        @Override
+        public String getResource() {
+            return mResource;
+        }
+
+        @Override
+        public String getKey() {
+            return mKey;
+        }
+
+        @Override
+        public LoadEvent getEvent() {
+            return mEvent;
+        }
+    }
+
+	private class DownloadImageHandler implements LoadWorker.Handler<ImageRequest> {
 
 		private RemoteLoader mDownloader;
 
-		public DownloadImageThread() {
-			mDownloader = new RemoteLoader(mActivity, mDiskCache);
-		}
+		private final boolean mOrientedDownload;
 
-		synchronized boolean isStopped() {
-			return this.mStop;
+		public DownloadImageHandler() {
+			mDownloader = new RemoteLoader(mContext, mDiskCache, mHttpTransport,
+					getFetchers(), getImageLimits());
+			mDownloader.setUrlTransformer(mUrlTransformer, mSizeBuckets);
+			mDownloader.setExactSizeDecoding(mExactSizeDecoding);
+			mDownloader.setBitmapConfigPolicy(mBitmapConfigPolicy);
+			mDownloader.setDecodeGovernor(mDecodeGovernor);
+			mDownloader.setMediaStoreResolver(mMediaStoreResolver);
+			mOrientedDownload = mDeferredRotation;
 		}
 
-		@Override
-		public void run() {
-			while (!this.isStopped()) {
-				try {
-					String resource = takeToProcess();
-
-					Bitmap bitmap = null;
-                    boolean inLowMemory = false;
-                    try {
-                        bitmap = mDownloader.downloadImage(resource,
-							mImageRequestedWidth, mImageRequestedHeight);
-                    } catch (ImageLoader.ImageOutOfMemoryError e) {
-                        Log.e(TAG, "Out of memory - clearing memory cache. Resource: " + resource +
-                                " error: " + e.getMessage());
-                        inLowMemory = true;
-                    }
-                    receivedDrawable(bitmap, resource, inLowMemory);
-				} catch (InterruptedException ignored) {
-				}
+		private OrientedBitmap downloadImage(ImageRequest request) {
+			if (mOrientedDownload) {
+				return mDownloader.downloadOrientedImage(request.mResource,
+						request.mWidth, request.mHeight, request.mCenterCrop,
+						request.mMediaStoreThumbnail, request.mEvent);
 			}
-
+			Bitmap bitmap = mDownloader.downloadImage(request.mResource,
+					request.mWidth, request.mHeight, request.mCenterCrop,
+					request.mMediaStoreThumbnail, request.mEvent);
+			return bitmap == null ? null : new OrientedBitmap(bitmap,
+					OrientedBitmap.ORIENTATION_NORMAL);
 		}
 
-		synchronized public void stopSelf() {
-			this.mStop = true;
+		@Override
+		public void handle(ImageRequest request) {
+			String resource = request.mResource;
+			request.mEvent.endStage(LoadEvent.Stage.QUEUE);
+
+			OrientedBitmap bitmap = null;
+            boolean inLowMemory = false;
+            boolean rejected = false;
+            try {
+                bitmap = downloadImage(request);
+            } catch (ImageLoader.ImageOutOfMemoryError e) {
+                Log.e(TAG, "Out of memory - clearing memory cache. Resource: " + resource +
+                        " error: " + e.getMessage());
+                inLowMemory = true;
+            } catch (ImageRejectedException e) {
+                Log.w(TAG, "Image rejected: " + e.getMessage());
+                rejected = true;
+            }
+            if (bitmap == null && !inLowMemory && !rejected
+                    && Thread.currentThread().isInterrupted()) {
+                // stopped by pause, not failed, next resume loads it again
+                mCoordinator.getQueue().requeue(request.mKey);
+                return;
+            }
+            LoadEvent.Outcome outcome;
+            if (bitmap != null) {
+                Bitmap decoded = bitmap.getBitmap();
+                request.mEvent.setDecodedBytes(
+                        (long) decoded.getRowBytes() * decoded.getHeight());
+                outcome = LoadEvent.Outcome.SUCCESS;
+            } else if (rejected) {
+                outcome = LoadEvent.Outcome.REJECTED;
+            } else if (inLowMemory) {
+                outcome = LoadEvent.Outcome.OUT_OF_MEMORY;
+            } else {
+                outcome = LoadEvent.Outcome.FAILED;
+            }
+            mCoordinator.deliver(request, bitmap, outcome);
 		}
 
 	}
@@ -102,10 +210,12 @@ public class RemoteImageLoader {
 		return new ImageViewHolder(imageView, placeholderDrawable, errorDrawable);
 	}
 
-	private static class ImageViewHolder implements ImageHolder {
+	private static class ImageViewHolder implements ScaleTypeImageHolder,
+			OrientedImageHolder, TokenImageHolder {
 		private final ImageView mImageView;
 		private final int mPlaceholderDrawable;
 		private final int mErrorDrawable;
+		private LoadQueue.Token<ImageHolder> mLoadToken;
 
 		public ImageViewHolder(ImageView imageView, int placeholderDrawable, int errorDrawable) {
 			mImageView = imageView;
@@ -119,6 +229,32 @@ public class RemoteImageLoader {
 			mImageView.setScaleType(ScaleType.CENTER_CROP);
 		}
 
+		@Override
+		public void setRemoteBitmap(OrientedBitmap bitmap, boolean immediately) {
+			if (bitmap.getExifOrientation() == OrientedBitmap.ORIENTATION_NORMAL) {
+				setRemoteBitmap(bitmap.getBitmap(), immediately);
+				return;
+			}
+			mImageView.setImageDrawable(new OrientedBitmapDrawable(
+					mImageView.getResources(), bitmap));
+			mImageView.setScaleType(ScaleType.CENTER_CROP);
+		}
+
+		@Override
+		public ScaleType getScaleType() {
+			return ScaleType.CENTER_CROP;
+		}
+
+		@Override
+		public LoadQueue.Token<ImageHolder> getLoadToken() {
+			return mLoadToken;
+		}
+
+		@Override
+		public void setLoadToken(LoadQueue.Token<ImageHolder> token) {
+			mLoadToken = token;
+		}
+
 		@Override
 		public void failDownloading(boolean immediately) {
 			mImageView.setImageResource(mErrorDrawable);
@@ -133,35 +269,360 @@ public class RemoteImageLoader {
 
 	}
 
+	/**
+	 * Bound to preview request of holder waiting for full image, coordinator
+	 * passes preview to that holder
+	 */
+	private static class PreviewHolder implements TokenImageHolder {
+		private LoadQueue.Token<ImageHolder> mLoadToken;
+
+		@Override
+		public void setRemoteBitmap(Bitmap bitmap, boolean immediately) {
+		}
+
+		@Override
+		public void failDownloading(boolean immediately) {
+		}
+
+		@Override
+		public void setPlaceholder(boolean immediately) {
+		}
+
+		@Override
+		public LoadQueue.Token<ImageHolder> getLoadToken() {
+			return mLoadToken;
+		}
+
+		@Override
+		public void setLoadToken(LoadQueue.Token<ImageHolder> token) {
+			mLoadToken = token;
+		}
+	}
+
+	/**
+	 * Keeps bitmaps in memory cache with their orientations and shows them
+	 * in holders
+	 */
+	private class CoordinatorHandler implements
+			LoadCoordinator.Handler<ImageRequest, ImageHolder, OrientedBitmap> {
+
+		@Override
+		public OrientedBitmap getCached(ImageRequest request) {
+			Bitmap cachedBitmap = mCache.get(request.mKey);
+			Integer orientation = mOrientations.get(request.mKey);
+			if (cachedBitmap == null) {
+				if (orientation != null) {
+					mOrientations.remove(request.mKey);
+				}
+				return null;
+			}
+			return new OrientedBitmap(cachedBitmap,
+					orientation == null ? OrientedBitmap.ORIENTATION_NORMAL
+							: orientation);
+		}
+
+		/**
+		 * Largest variant of resource in memory cache, e.g. loaded by list
+		 * with smaller requested size
+		 */
+		@Override
+		public OrientedBitmap getCachedVariant(ImageRequest request) {
+			List<String> keys;
+			synchronized (mVariants) {
+				Set<String> variants = mVariants.get(request.mResource);
+				if (variants == null) {
+					return null;
+				}
+				keys = new ArrayList<String>(variants);
+			}
+			// variant may leave cache after its key was copied, try next one then
+			while (!keys.isEmpty()) {
+				String bestKey = null;
+				long bestArea = 0;
+				for (String key : keys) {
+					ImageRequest variant = parseInMemoryKey(key);
+					if (variant == null || !variant.mResource.equals(request.mResource)) {
+						continue;
+					}
+					long area = (long) variant.mWidth * variant.mHeight;
+					if (area > bestArea) {
+						bestArea = area;
+						bestKey = key;
+					}
+				}
+				if (bestKey == null) {
+					return null;
+				}
+				keys.remove(bestKey);
+				Bitmap bitmap = mCache.get(bestKey);
+				if (bitmap != null) {
+					Integer orientation = mOrientations.get(bestKey);
+					return new OrientedBitmap(bitmap,
+							orientation == null ? OrientedBitmap.ORIENTATION_NORMAL
+									: orientation);
+				}
+			}
+			return null;
+		}
+
+		@Override
+		public void onQueued(ImageRequest request) {
+			if (request.mResource.startsWith(RemoteLoader.SCHEME_CONTENT + ":")) {
+				mMediaStoreResolver.enqueue(Uri.parse(request.mResource));
+			}
+		}
+
+		@Override
+		public void onFinished(ImageRequest request, OrientedBitmap bitmap,
+				LoadEvent.Outcome outcome) {
+			boolean inLowMemory = outcome == LoadEvent.Outcome.OUT_OF_MEMORY;
+			Runtime runtime = Runtime.getRuntime();
+			if (inLowMemory || runtime.maxMemory() * MEMORY_THRESHOLD < runtime.totalMemory()) {
+				mCache.evictAll();
+				mOrientations.clear();
+				DecodeGovernor decodeGovernor = mDecodeGovernor;
+				if (decodeGovernor != null) {
+					decodeGovernor.onCacheWiped(inLowMemory);
+				}
+				System.gc();
+				Log.w(TAG, "Clearing cache because of low memory");
+			}
+			if (bitmap != null) {
+				putCached(request.mResource, request.mKey, bitmap);
+			}
+		}
+
+		@Override
+		public void setImage(ImageHolder holder, OrientedBitmap bitmap,
+				boolean immediately) {
+			setRemoteBitmap(holder, bitmap, immediately);
+		}
+
+		@Override
+		public void setFailure(ImageHolder holder, boolean immediately) {
+			holder.failDownloading(immediately);
+		}
+
+		@Override
+		public void setPlaceholder(ImageHolder holder, boolean immediately) {
+			holder.setPlaceholder(immediately);
+		}
+
+		@Override
+		public void onImageLoaded(LoadEvent event) {
+			notifyLoaded(event);
+		}
+	}
+
+	/**
+	 * Decodes recently used images from disk cache to memory cache with
+	 * background priority
+	 */
+	private class WarmCacheTask extends Thread {
+		private final RemoteLoader mDownloader;
+		private final boolean mOrientedDownload;
+		private volatile boolean mStop = false;
+
+		WarmCacheTask() {
+			super("WarmCacheThread");
+			mDownloader = new RemoteLoader(mContext, mDiskCache, mHttpTransport,
+					getFetchers(), getImageLimits());
+			mDownloader.setUrlTransformer(mUrlTransformer, mSizeBuckets);
+			mDownloader.setExactSizeDecoding(mExactSizeDecoding);
+			mDownloader.setBitmapConfigPolicy(mBitmapConfigPolicy);
+			mDownloader.setDecodeGovernor(mDecodeGovernor);
+			mDownloader.setMediaStoreResolver(mMediaStoreResolver);
+			mOrientedDownload = mDeferredRotation;
+		}
+
+		void stopSelf() {
+			mStop = true;
+			interrupt();
+		}
+
+		@Override
+		public void run() {
+			Process.setThreadPriority(Process.THREAD_PRIORITY_LOWEST);
+			List<String> keys;
+			try {
+				keys = mHotKeys.load();
+			} catch (IOException e) {
+				Log.w(TAG, "Could not read hot keys: " + e.getMessage());
+				return;
+			}
+			long budget = (long) (mCache.maxSize() * WARM_CACHE_FRACTION);
+			long warmed = 0;
+			for (String key : keys) {
+				if (mStop || warmed >= budget) {
+					return;
+				}
+				ImageRequest request = parseInMemoryKey(key);
+				// probes must not skew hit rate used by memory arbiter nor
+				// fail cache stats
+				if (request == null || mCache.containsKey(key)
+						|| mCoordinator.getFailureCache().peek(request.mResource)) {
+					continue;
+				}
+				OrientedBitmap bitmap;
+				try {
+					bitmap = mDownloader.loadLocalOrientedImage(request.mResource,
+							request.mWidth, request.mHeight, request.mCenterCrop,
+							request.mMediaStoreThumbnail, request.mEvent);
+					if (bitmap != null && !mOrientedDownload
+							&& bitmap.getExifOrientation() != OrientedBitmap.ORIENTATION_NORMAL) {
+						bitmap = new OrientedBitmap(bitmap.toBitmap(),
+								OrientedBitmap.ORIENTATION_NORMAL);
+					}
+				} catch (ImageLoader.ImageOutOfMemoryError e) {
+					return;
+				} catch (OutOfMemoryError e) {
+					return;
+				} catch (ImageRejectedException e) {
+					continue;
+				}
+				if (bitmap == null) {
+					continue;
+				}
+				Bitmap decoded = bitmap.getBitmap();
+				warmed += (long) decoded.getRowBytes() * decoded.getHeight();
+				synchronized (mCoordinator) {
+					if (mStop || mCache.containsKey(key)) {
+						continue;
+					}
+					putCached(request.mResource, key, bitmap);
+				}
+			}
+		}
+	}
+
 	public static final String IMAGE_CACHE_DIR_PREFIX = "ImageCache";
 
+	private static final String HOT_KEYS_FILE_PREFIX = "ImageCacheHotKeys-";
+	private static final int MAX_HOT_KEYS = 200;
+	/**
+	 * Part of memory cache that could be filled by warming
+	 */
+	private static final float WARM_CACHE_FRACTION = 0.5f;
+
 	private static final long FAIL_TIME_MILLIS = 10 * 1000;
+	private static final long REJECTED_FAIL_TIME_MILLIS = 10 * 60 * 1000;
+	/**
+	 * Previews are requested with this times smaller size
+	 */
+	private static final int PREVIEW_SCALE = 4;
+
+	private static final String CROP_KEY_SUFFIX = "_crop";
+	/**
+	 * Content uris decoded from original image instead of MediaStore thumbnail
+	 */
+	private static final String FULL_KEY_SUFFIX = "_full";
 
 	private final LruCache<String, Bitmap> mCache;
-	private final HashMap<String, Long> mFails;
+
+	/**
+	 * Exif orientations of cached bitmaps that are not rotated, pruned when
+	 * bitmaps leave cache, also by other loaders sharing it
+	 */
+	private final Map<String, Integer> mOrientations =
+			new ConcurrentHashMap<String, Integer>();
+
+	/**
+	 * Memory cache keys of variants of resources put by this loader, so two
+	 * phase loading finds variant cached with other size without scanning
+	 * cache. Pruned when bitmaps leave cache, guarded by itself.
+	 */
+	private final Map<String, Set<String>> mVariants =
+			new HashMap<String, Set<String>>();
+
+	/**
+	 * Kept by loader, memory cache references it weakly
+	 */
+	private final MemoryCache.OnEntryRemovedListener mEntryRemovedListener =
+			new MemoryCache.OnEntryRemovedListener() {
+				@Override
+				public void onEntryRemoved(String key) {
+					mOrientations.remove(key);
+					removeVariant(key);
+				}
+			};
 
 	private final DiskCache mDiskCache;
 
-	private final Lock mLock = new ReentrantLock();
+	private HttpTransport mHttpTransport = new UrlConnectionTransport();
+
+	private final Map<String, ImageFetcher> mFetchers = new HashMap<String, ImageFetcher>();
+
+	private ImageLimits mImageLimits;
+
+	private UrlTransformer mUrlTransformer;
+
+	private SizeBuckets mSizeBuckets = SizeBuckets.DEFAULT;
+
+	private boolean mExactSizeDecoding = false;
 
-	private final Condition mNotEmpty = this.mLock.newCondition();
-	public Map<ImageHolder, String> mViewResourceMap = new HashMap<ImageHolder, String>();
-	public List<String> mResourcesProcessingQueue = new ArrayList<String>();
+	private boolean mCropDecoding = false;
 
-	public List<String> mResourcesQueue = new ArrayList<String>();
+	private boolean mDeferredRotation = false;
+
+	private DecodeGovernor mDecodeGovernor;
+
+	private final MemoryArbiter mMemoryArbiter;
+
+	private final MediaStoreResolver mMediaStoreResolver;
+
+	private BitmapConfigPolicy mBitmapConfigPolicy = BitmapConfigPolicy.ARGB_8888;
+
+	private final Dispatcher mDispatcher;
+
+	/**
+	 * Binds holders to requests, its lock is taken after loader lock and
+	 * guards memory cache fills
+	 */
+	private final LoadCoordinator<ImageRequest, ImageHolder, OrientedBitmap> mCoordinator;
 
 	private final int mImageRequestedHeight;
 
 	private final int mImageRequestedWidth;
 
-	private final Activity mActivity;
+	private final Context mContext;
+
+	/**
+	 * Pending futures of {@link BitmapRequest}, failed on pause
+	 */
+	private final Set<BitmapFuture> mFutures = new HashSet<BitmapFuture>();
+
+	/**
+	 * True between resume and pause, guarded by loader lock
+	 */
+	private boolean mResumed = false;
+
+	private final List<LoadWorker<ImageRequest>> mWorkers =
+			new ArrayList<LoadWorker<ImageRequest>>();
+
+	private final int mNumberOfThreads;
+
+	private final LoadMetrics mLoadMetrics = new LoadMetrics();
+
+	private ImageLoadListener mLoadListener;
+
+	private LoaderStatsListener mStatsListener;
+
+	private long mStatsPeriodMillis;
 
-	private DownloadImageThread[] mDownloadImageThread;
+	private Timer mStatsTimer;
+
+	private final HotKeyStore mHotKeys;
+
+	private boolean mCacheWarming = false;
+
+	private WarmCacheTask mWarmCacheTask;
 	
 	@SuppressWarnings("deprecation")
 	@TargetApi(Build.VERSION_CODES.HONEYCOMB_MR2)
-	private void getDisplaySize(Activity activity, Point displaySize) {
-		Display display = activity.getWindowManager().getDefaultDisplay();
+	private void getDisplaySize(Context context, Point displaySize) {
+		WindowManager windowManager = (WindowManager) context
+				.getSystemService(Context.WINDOW_SERVICE);
+		Display display = windowManager.getDefaultDisplay();
 		if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB_MR2) {
 			display.getSize(displaySize);
 		} else {
@@ -173,39 +634,68 @@ public class RemoteImageLoader {
 	/**
      * Create class
      *
-     * @param activity
-     *            activity that should be owner
+     * @param context
+     *            activity that should be owner, or application context for
+     *            loader not tied to activity
      * @param requestedHeight
      *            requested height
      * @param requestedWidth
      *            requested width
+     * @see #createBackground(Context, int, int)
      */
-    public RemoteImageLoader(Activity activity, int requestedWidth,
+    public RemoteImageLoader(Context context, int requestedWidth,
                              int requestedHeight) {
-        this(activity, null, null, requestedWidth, requestedHeight);
+        this(context, null, null, requestedWidth, requestedHeight);
+    }
+
+    /**
+     * Create loader not tied to activity lifecycle, e.g. for notifications,
+     * widgets or rendering in background. Loader is started at once and
+     * delivers results through main looper. Call {@link #onActivityPause()}
+     * when it is not needed anymore.
+     *
+     * @param context
+     *            any context, only its application context is kept
+     * @param requestedHeight
+     *            requested height in px
+     * @param requestedWidth
+     *            requested width in px
+     */
+    @SuppressWarnings("UnusedDeclaration")
+    public static RemoteImageLoader createBackground(Context context, int requestedWidth,
+                                                     int requestedHeight) {
+        if (context == null) {
+            throw new IllegalArgumentException("Context could not be null");
+        }
+        RemoteImageLoader loader = new RemoteImageLoader(context.getApplicationContext(),
+                requestedWidth, requestedHeight);
+        loader.onActivityResume();
+        return loader;
     }
 
     /**
      * Create class
      *
-     * @param activity
-     *            activity that should be owner
+     * @param context
+     *            activity that should be owner, or application context for
+     *            loader not tied to activity
      * @param diskCache
      *            disk cache instance
      * @param memoryCache
-     *            memory cache instance
+     *            memory cache instance or null to create cache of at most
+     *            four screens, sized by {@link MemoryCache#getArbiter(Context)}
      * @param requestedHeight
      *            requested height in px
      * @param requestedWidth
      *            requested width in px
      */
-    public RemoteImageLoader(Activity activity,
+    public RemoteImageLoader(Context context,
                              DiskCache diskCache,
                              MemoryCache memoryCache,
                              int requestedWidth,
                              int requestedHeight) {
-        if (activity == null) {
-            throw new IllegalArgumentException("Activity could not be null");
+        if (context == null) {
+            throw new IllegalArgumentException("Context could not be null");
         }
         if (requestedWidth <= 0 || requestedHeight <= 0) {
             throw new IllegalArgumentException("Requested width and height have to be grater then" +
@@ -213,29 +703,66 @@ public class RemoteImageLoader {
         }
 
         if (diskCache == null) {
-            diskCache = new DiskCache(activity, IMAGE_CACHE_DIR_PREFIX);
+            diskCache = new DiskCache(context, IMAGE_CACHE_DIR_PREFIX);
         }
+        MemoryArbiter memoryArbiter = null;
         if (memoryCache == null) {
             Point displaySize = new Point();
-            getDisplaySize(activity, displaySize);
+            getDisplaySize(context, displaySize);
             int displayMemory = displaySize.x * displaySize.y * MemoryCache.BYTES_PER_PIXEL;
             int cacheSize = MemoryCache.NUMBER_OF_SCREENS_IN_MEMORY * displayMemory;
             memoryCache = new MemoryCache(cacheSize);
+            // screens are upper limit, arbiter shrinks cache to fit heap with other loaders
+            memoryArbiter = MemoryCache.getArbiter(context.getApplicationContext());
+            memoryArbiter.register(context.getClass().getSimpleName(), memoryCache,
+                    cacheSize);
         }
 
-        mActivity = activity;
+        mContext = context;
         mImageRequestedWidth = requestedWidth;
         mImageRequestedHeight = requestedHeight;
         mDiskCache = diskCache;
         mCache = memoryCache;
-        mFails = new HashMap<String, Long>();
+        memoryCache.addOnEntryRemovedListener(mEntryRemovedListener);
+        mMemoryArbiter = memoryArbiter;
+        // heap is shared by all loaders, so is budget of decodes
+        mDecodeGovernor = DecodeGovernor.getDefault();
+        mDecodeGovernor.addCache(memoryCache);
+        mMediaStoreResolver = new MediaStoreResolver(context.getContentResolver());
+        mHotKeys = new HotKeyStore(new File(context.getCacheDir(),
+                HOT_KEYS_FILE_PREFIX + context.getClass().getName()), MAX_HOT_KEYS);
+        if (context instanceof Activity) {
+            final Activity activity = (Activity) context;
+            mDispatcher = new Dispatcher() {
+                @Override
+                public void dispatch(Runnable runnable) {
+                    activity.runOnUiThread(runnable);
+                }
+            };
+        } else {
+            final Handler handler = new Handler(Looper.getMainLooper());
+            mDispatcher = new Dispatcher() {
+                @Override
+                public void dispatch(Runnable runnable) {
+                    // same as Activity#runOnUiThread
+                    if (Looper.myLooper() == Looper.getMainLooper()) {
+                        runnable.run();
+                    } else {
+                        handler.post(runnable);
+                    }
+                }
+            };
+        }
+        mCoordinator = new LoadCoordinator<ImageRequest, ImageHolder, OrientedBitmap>(
+                mDispatcher, Clock.SYSTEM, FAIL_TIME_MILLIS, REJECTED_FAIL_TIME_MILLIS,
+                new CoordinatorHandler());
 
         int numberOfThreads = 1;
         if (Build.VERSION.SDK_INT >= 10) {
             numberOfThreads = 3;
         }
 
-        this.mDownloadImageThread = new DownloadImageThread[numberOfThreads];
+        mNumberOfThreads = numberOfThreads;
 
     }
 
@@ -244,38 +771,51 @@ public class RemoteImageLoader {
 		super.finalize();
 	}
 
-	private List<ImageHolder> finishByResource(Bitmap bitmap, String resource, boolean inLowMemory) {
-		List<ImageHolder> imageHolders = new ArrayList<ImageHolder>();
-		this.mLock.lock();
-
-        Runtime runtime = Runtime.getRuntime();
-        if(inLowMemory || runtime.maxMemory() * MEMORY_THRESHOLD < runtime.totalMemory()) {
-            mCache.evictAll();
-            System.gc();
-            Log.w(TAG, "Clearing cache because of low memory");
-        }
-        if (bitmap == null) {
-            mFails.put(resource, System.currentTimeMillis());
-        } else {
-            mFails.remove(resource);
-            mCache.put(getInMemoryKey(resource), bitmap);
-        }
-		try {
-			for (ImageHolder imageHolder : this.mViewResourceMap.keySet()) {
-				String viewResource = this.mViewResourceMap.get(imageHolder);
-				if (viewResource.equals(resource)) {
-					imageHolders.add(imageHolder);
-                }
-			}
-			for (ImageHolder imageHolder : imageHolders) {
-				this.mViewResourceMap.remove(imageHolder);
+	/**
+	 * Put bitmap to memory cache with its orientation and index it as
+	 * variant of resource
+	 */
+	private void putCached(String resource, String key, OrientedBitmap bitmap) {
+		// indexed first, so eviction during put prunes index
+		synchronized (mVariants) {
+			Set<String> keys = mVariants.get(resource);
+			if (keys == null) {
+				keys = new HashSet<String>();
+				mVariants.put(resource, keys);
 			}
+			keys.add(key);
+		}
+		mCache.put(key, bitmap.getBitmap());
+		if (bitmap.getExifOrientation() == OrientedBitmap.ORIENTATION_NORMAL) {
+			mOrientations.remove(key);
+		} else {
+			mOrientations.put(key, bitmap.getExifOrientation());
+		}
+	}
 
-			this.mResourcesProcessingQueue.remove(resource);
-		} finally {
-			this.mLock.unlock();
+	private void removeVariant(String key) {
+		ImageRequest request = parseInMemoryKey(key);
+		if (request == null) {
+			return;
+		}
+		synchronized (mVariants) {
+			Set<String> keys = mVariants.get(request.mResource);
+			if (keys != null && keys.remove(key) && keys.isEmpty()) {
+				mVariants.remove(request.mResource);
+			}
 		}
-		return imageHolders;
+	}
+
+	/**
+	 * Holder stops waiting for its image, e.g. when its view is recycled or
+	 * detached. Image that is not needed by any holder is not downloaded.
+	 *
+	 * @param imageHolder
+	 *            holder passed to {@link #loadImage(ImageHolder, String)}
+	 */
+	@SuppressWarnings("UnusedDeclaration")
+	public synchronized void unbind(ImageHolder imageHolder) {
+		mCoordinator.unbind(imageHolder);
 	}
 
 	/**
@@ -294,32 +834,201 @@ public class RemoteImageLoader {
     @SuppressWarnings("UnusedDeclaration")
 	public synchronized void loadImage(ImageHolder imageHolder,
 			String resource, boolean immediately) {
-		this.removeFromProcess(imageHolder);
+		loadImage(imageHolder, resource, mImageRequestedWidth,
+				mImageRequestedHeight, mCropDecoding && isCenterCrop(imageHolder),
+				immediately);
+	}
+
+	/**
+	 * Create request of bitmap for consumers that are not views, e.g.
+	 * notifications or widgets. Requests share caches, queue and
+	 * deduplication with images loaded to holders.
+	 *
+	 * @param resource
+	 *            url or its tail to download
+	 */
+	@SuppressWarnings("UnusedDeclaration")
+	public BitmapRequest newRequest(String resource) {
+		return new BitmapRequest(this, resource, mImageRequestedWidth,
+				mImageRequestedHeight);
+	}
+
+	/**
+	 * Load image in two phases, e.g. for detail screen with large requested
+	 * size. Holder gets preview as soon as possible and then full image.
+	 * Preview is image of resource cached with other size (e.g. by list with
+	 * {@link #loadImage(ImageHolder, String)}), preview resource
+	 * or for content uri its MediaStore MINI_KIND thumbnail. Preview
+	 * requests are taken by loader threads before other requests. Content
+	 * uris are fully decoded instead of using MediaStore thumbnail.
+	 *
+	 * @param imageHolder
+	 *            image holder that should display image
+	 * @param resource
+	 *            url or its tail to download, can be null
+	 * @param previewResource
+	 *            small variant of resource, e.g. thumbnail url, can be null
+	 */
+	@SuppressWarnings("UnusedDeclaration")
+	public synchronized void loadImageWithPreview(ImageHolder imageHolder,
+			String resource, String previewResource, boolean immediately) {
+		boolean centerCrop = mCropDecoding && isCenterCrop(imageHolder);
+		ImageRequest request = newImageRequest(resource, mImageRequestedWidth,
+				mImageRequestedHeight, centerCrop, false);
+		String preview = previewResource;
+		if (preview == null && request != null
+				&& resource.startsWith(RemoteLoader.SCHEME_CONTENT + ":")) {
+			preview = resource;
+		}
+		ImageRequest previewRequest = newImageRequest(preview,
+				getPreviewSize(mImageRequestedWidth),
+				getPreviewSize(mImageRequestedHeight), centerCrop, true);
+		mCoordinator.loadWithPreview(imageHolder, request,
+				previewRequest == null ? null : new PreviewHolder(), previewRequest,
+				immediately);
+	}
+
+	private static int getPreviewSize(int size) {
+		return Math.max(1, size / PREVIEW_SCALE);
+	}
+
+	synchronized void loadImage(ImageHolder imageHolder, String resource,
+			int width, int height, boolean centerCrop, boolean immediately) {
+		mCoordinator.load(imageHolder, newImageRequest(resource, width, height,
+				centerCrop, true), false, immediately);
+	}
+
+	/**
+	 * @param mediaStoreThumbnail
+	 *            false if content uri should be decoded from original image
+	 * @return request or null if resource is empty
+	 */
+	private static ImageRequest newImageRequest(String resource, int width,
+			int height, boolean centerCrop, boolean mediaStoreThumbnail) {
 		if (TextUtils.isEmpty(resource)) {
-			imageHolder.setPlaceholder(immediately);
-			return;
+			return null;
 		}
-		Bitmap cachedBitmap = mCache.get(getInMemoryKey(resource));
-		if (cachedBitmap != null) {
-			imageHolder.setRemoteBitmap(cachedBitmap, immediately);
-			return;
+		String key = getInMemoryKey(resource, width, height, centerCrop);
+		if (!mediaStoreThumbnail && resource.startsWith(RemoteLoader.SCHEME_CONTENT + ":")) {
+			key += FULL_KEY_SUFFIX;
 		}
-		Long fail = mFails.get(resource);
-		if (fail != null && System.currentTimeMillis() - fail < FAIL_TIME_MILLIS) {
-			imageHolder.failDownloading(immediately);
+		return new ImageRequest(resource, width, height, centerCrop,
+				mediaStoreThumbnail, key, new LoadEvent(resource, Clock.SYSTEM));
+	}
+
+	/**
+	 * Start loading of future. Loader that is paused fails future at once
+	 * unless bitmap is in memory cache, nothing would complete it before
+	 * next resume.
+	 */
+	synchronized void submit(BitmapFuture future, String resource, int width,
+			int height, boolean centerCrop) {
+		loadImage(future.getHolder(), resource, width, height, centerCrop, true);
+		if (future.isDone()) {
+			// memory cache hit, failure or empty resource
 			return;
 		}
-		
-		imageHolder.setPlaceholder(immediately);
-		try {
-			this.putToProcess(resource, imageHolder);
-		} catch (InterruptedException e) {
-			// Ignore this error
+		if (mResumed) {
+			mFutures.add(future);
+		} else {
+			future.fail("Loader paused");
 		}
 	}
 
-    private String getInMemoryKey(String resource) {
-        return resource + "_" + mImageRequestedWidth + "x" + mImageRequestedHeight;
+	synchronized void removeFuture(BitmapFuture future) {
+		mFutures.remove(future);
+	}
+
+	/**
+	 * Run on ui thread
+	 */
+	void dispatch(Runnable runnable) {
+		mDispatcher.dispatch(runnable);
+	}
+
+    private static String getInMemoryKey(String resource, int width, int height,
+                                         boolean centerCrop) {
+        String key = resource + "_" + width + "x" + height;
+        return centerCrop ? key + CROP_KEY_SUFFIX : key;
+    }
+
+    /**
+     * Reverse of {@link #getInMemoryKey(String, int, int, boolean)}, also
+     * for keys of content uris decoded from original image
+     *
+     * @return request or null if key is malformed
+     */
+    private static ImageRequest parseInMemoryKey(String key) {
+        String tail = key;
+        boolean mediaStoreThumbnail = true;
+        if (tail.endsWith(FULL_KEY_SUFFIX)) {
+            mediaStoreThumbnail = false;
+            tail = tail.substring(0, tail.length() - FULL_KEY_SUFFIX.length());
+        }
+        boolean centerCrop = false;
+        if (tail.endsWith(CROP_KEY_SUFFIX)) {
+            centerCrop = true;
+            tail = tail.substring(0, tail.length() - CROP_KEY_SUFFIX.length());
+        }
+        int sizeStart = tail.lastIndexOf('_');
+        if (sizeStart <= 0) {
+            return null;
+        }
+        String resource = tail.substring(0, sizeStart);
+        String size = tail.substring(sizeStart + 1);
+        int separator = size.indexOf('x');
+        if (separator < 0) {
+            return null;
+        }
+        int width;
+        int height;
+        try {
+            width = Integer.parseInt(size.substring(0, separator));
+            height = Integer.parseInt(size.substring(separator + 1));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        if (width <= 0 || height <= 0) {
+            return null;
+        }
+        return new ImageRequest(resource, width, height, centerCrop,
+                mediaStoreThumbnail, key, new LoadEvent(resource, Clock.SYSTEM));
+    }
+
+    /**
+     * Snapshot keys of memory cache and write them on background thread
+     */
+    private void saveHotKeys() {
+        List<String> keys = new ArrayList<String>(mCache.snapshot().keySet());
+        // snapshot is ordered from least recently used
+        Collections.reverse(keys);
+        final List<String> hotKeys = new ArrayList<String>(
+                keys.subList(0, Math.min(keys.size(), MAX_HOT_KEYS)));
+        new Thread("SaveHotKeysThread") {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                try {
+                    mHotKeys.save(hotKeys);
+                } catch (IOException e) {
+                    Log.w(TAG, "Could not save hot keys: " + e.getMessage());
+                }
+            }
+        }.start();
+    }
+
+    private static void setRemoteBitmap(ImageHolder imageHolder,
+                                        OrientedBitmap bitmap, boolean immediately) {
+        if (imageHolder instanceof OrientedImageHolder) {
+            ((OrientedImageHolder) imageHolder).setRemoteBitmap(bitmap, immediately);
+        } else {
+            imageHolder.setRemoteBitmap(bitmap.copyOriented(), immediately);
+        }
+    }
+
+    private static boolean isCenterCrop(ImageHolder imageHolder) {
+        return imageHolder instanceof ScaleTypeImageHolder
+                && ((ScaleTypeImageHolder) imageHolder).getScaleType() == ScaleType.CENTER_CROP;
     }
 
     /**
@@ -327,113 +1036,354 @@ public class RemoteImageLoader {
 	 */
 	@SuppressWarnings("UnusedDeclaration")
     public void onActivityPause() {
-		for (int i = 0; i < this.mDownloadImageThread.length; i++) {
-			DownloadImageThread thread = this.mDownloadImageThread[i];
-			thread.stopSelf();
-			thread.interrupt();
-			this.mDownloadImageThread[i] = null;
+		for (LoadWorker<ImageRequest> worker : mWorkers) {
+			worker.stopSelf();
+			worker.interrupt();
+		}
+		mWorkers.clear();
+		// nothing would complete pending futures until next resume
+		List<BitmapFuture> futures;
+		synchronized (this) {
+			mResumed = false;
+			futures = new ArrayList<BitmapFuture>(mFutures);
+			mFutures.clear();
+		}
+		for (BitmapFuture future : futures) {
+			future.fail("Loader paused");
+		}
+		if (mStatsTimer != null) {
+			mStatsTimer.cancel();
+			mStatsTimer = null;
+		}
+		if (mWarmCacheTask != null) {
+			mWarmCacheTask.stopSelf();
+			mWarmCacheTask = null;
+		}
+		if (mCacheWarming) {
+			saveHotKeys();
 		}
 	}
 	
 	/**
-	 * Call it on activity onLowMemory
+	 * Set transport used for http and https resources. Shared by all download
+	 * threads. Takes effect on next {@link #onActivityResume()}.
+	 *
+	 * @param httpTransport
+	 *            transport, by default {@link UrlConnectionTransport}
 	 */
-    @SuppressWarnings("UnusedDeclaration")
-	public void onActivityLowMemory() {
-		this.mCache.evictAll();
+	@SuppressWarnings("UnusedDeclaration")
+	public void setHttpTransport(HttpTransport httpTransport) {
+		if (httpTransport == null) {
+			throw new IllegalArgumentException("Http transport could not be null");
+		}
+		mHttpTransport = httpTransport;
+	}
+
+	@SuppressWarnings("UnusedDeclaration")
+	public HttpTransport getHttpTransport() {
+		return mHttpTransport;
 	}
 
 	/**
-	 * Call it on activity Resume
+	 * Register fetcher for uri scheme. Overrides default fetchers (http,
+	 * https, content, android.resource, file, asset and data). Takes effect
+	 * on next {@link #onActivityResume()}.
+	 *
+	 * @param scheme
+	 *            uri scheme, e.g. "myapp"
+	 * @param fetcher
+	 *            thread safe fetcher
 	 */
-    @SuppressWarnings("UnusedDeclaration")
-	public void onActivityResume() {
-		for (int i = 0; i < this.mDownloadImageThread.length; i++) {
-			DownloadImageThread thread = new DownloadImageThread();
-			thread.setPriority(Thread.MIN_PRIORITY);
-			thread.setName(String.format("DownloadImageThread[%d]", i));
-			thread.start();
-			this.mDownloadImageThread[i] = thread;
-		}
-	}
-
-	private boolean putToProcess(String resource, ImageHolder imageHolder)
-			throws InterruptedException {
-		this.mLock.lock();
-		try {
-			this.mViewResourceMap.put(imageHolder, resource);
-			boolean contains = this.mResourcesQueue.contains(resource);
-			if (contains)
-				return false;
-			contains = this.mResourcesProcessingQueue.contains(resource);
-			if (contains)
-				return false;
-			this.mResourcesQueue.add(resource);
-			this.mNotEmpty.signal();
-			return true;
-		} finally {
-			this.mLock.unlock();
-		}
-	}
-
-	private synchronized void receivedDrawable(final Bitmap bitmap,
-                                               final String resource,
-                                               final boolean inLowMemory) {
-		this.mActivity.runOnUiThread(new Runnable() {
-			@Override
-			public void run() {
-                bitmapReceived(bitmap, resource, inLowMemory);
-			}
-		});
+	@SuppressWarnings("UnusedDeclaration")
+	public void registerFetcher(String scheme, ImageFetcher fetcher) {
+		if (TextUtils.isEmpty(scheme)) {
+			throw new IllegalArgumentException("Scheme could not be empty");
+		}
+		if (fetcher == null) {
+			throw new IllegalArgumentException("Fetcher could not be null");
+		}
+		synchronized (mFetchers) {
+			mFetchers.put(scheme.toLowerCase(Locale.US), fetcher);
+		}
 	}
 
-    private void bitmapReceived(Bitmap bitmap, String resource, boolean inLowMemory) {
-        final List<ImageHolder> imageHolders = finishByResource(bitmap, resource, inLowMemory);
-        if (bitmap != null) {
-            for (ImageHolder imageHolder : imageHolders) {
-                imageHolder.setRemoteBitmap(bitmap, false);
-            }
-        } else {
-            for (ImageHolder imageHolder : imageHolders) {
-                imageHolder.failDownloading(false);
-            }
-        }
-    }
+	/**
+	 * Set limits of images loaded by this loader. Takes effect on next
+	 * {@link #onActivityResume()}.
+	 *
+	 * @param imageLimits
+	 *            limits or null to use {@link ImageLimits#getDefault()}
+	 */
+	@SuppressWarnings("UnusedDeclaration")
+	public void setImageLimits(ImageLimits imageLimits) {
+		mImageLimits = imageLimits;
+	}
 
-    private void removeFromProcess(ImageHolder imageHolder) {
-		this.mLock.lock();
-		try {
-			String resource = this.mViewResourceMap.remove(imageHolder);
-			if (resource == null)
-				return;
-			boolean found = false;
-			for (ImageHolder imageHolderIter : this.mViewResourceMap.keySet()) {
-				String viewResource = this.mViewResourceMap
-						.get(imageHolderIter);
-				if (viewResource.equals(resource)) {
-					found = true;
-					break;
-				}
-			}
-			if (found)
-				return;
-			this.mResourcesQueue.remove(resource);
+	/**
+	 * Set transformer that rewrites resources to urls of images resized by
+	 * server. Memory cache keys stay unchanged. Takes effect on next
+	 * {@link #onActivityResume()}.
+	 *
+	 * @param urlTransformer
+	 *            transformer or null
+	 */
+	@SuppressWarnings("UnusedDeclaration")
+	public void setUrlTransformer(UrlTransformer urlTransformer) {
+		mUrlTransformer = urlTransformer;
+	}
+
+	/**
+	 * Set sizes to which requested size is snapped before passing it to
+	 * {@link UrlTransformer}. Takes effect on next {@link #onActivityResume()}.
+	 *
+	 * @param sizeBuckets
+	 *            buckets, by default {@link SizeBuckets#DEFAULT}
+	 */
+	@SuppressWarnings("UnusedDeclaration")
+	public void setSizeBuckets(SizeBuckets sizeBuckets) {
+		if (sizeBuckets == null) {
+			throw new IllegalArgumentException("Size buckets could not be null");
+		}
+		mSizeBuckets = sizeBuckets;
+	}
 
-		} finally {
-			this.mLock.unlock();
+	/**
+	 * Decode images scaled to cover requested size exactly instead of
+	 * sampling them by power of two, which can leave cached bitmaps up to
+	 * four times larger than displayed. Takes effect on next
+	 * {@link #onActivityResume()}.
+	 *
+	 * @param exactSizeDecoding
+	 *            true to enable exact size decoding, disabled by default
+	 * @see ImageLoader#getDecodeStats()
+	 */
+	@SuppressWarnings("UnusedDeclaration")
+	public void setExactSizeDecoding(boolean exactSizeDecoding) {
+		mExactSizeDecoding = exactSizeDecoding;
+	}
+
+	/**
+	 * Set policy selecting config of decoded bitmaps. Use
+	 * {@link BitmapConfigPolicy#AUTO} to decode opaque images with half of
+	 * memory. Takes effect on next {@link #onActivityResume()}.
+	 *
+	 * @param bitmapConfigPolicy
+	 *            policy, {@link BitmapConfigPolicy#ARGB_8888} by default
+	 */
+	@SuppressWarnings("UnusedDeclaration")
+	public void setBitmapConfigPolicy(BitmapConfigPolicy bitmapConfigPolicy) {
+		if (bitmapConfigPolicy == null) {
+			throw new IllegalArgumentException("Bitmap config policy could not be null");
 		}
+		mBitmapConfigPolicy = bitmapConfigPolicy;
+	}
+
+	/**
+	 * Decode only region of image visible in holders displaying with
+	 * {@link ScaleType#CENTER_CROP}. Region has aspect ratio of requested
+	 * size, so it should match aspect ratio of views. Cropped images are
+	 * cached separately. Requires API 10, JPEG and PNG images only.
+	 *
+	 * @param cropDecoding
+	 *            true to enable crop decoding, disabled by default
+	 * @see ScaleTypeImageHolder
+	 */
+	@SuppressWarnings("UnusedDeclaration")
+	public void setCropDecoding(boolean cropDecoding) {
+		mCropDecoding = cropDecoding;
 	}
 
-	private String takeToProcess() throws InterruptedException {
-		this.mLock.lock();
-		try {
-			while (this.mResourcesQueue.size() == 0)
-				this.mNotEmpty.await();
-			String resource = this.mResourcesQueue.remove(0);
-			this.mResourcesProcessingQueue.add(resource);
-			return resource;
-		} finally {
-			this.mLock.unlock();
+	/**
+	 * Keep decoded images in orientation stored in file and let holders
+	 * apply exif orientation while drawing. Rotating bitmap needs memory for
+	 * two bitmaps at once, which often fails for camera photos on older
+	 * devices. Holders that do not implement {@link OrientedImageHolder} get
+	 * rotated copy of cached bitmap. Takes effect on next
+	 * {@link #onActivityResume()}.
+	 *
+	 * @param deferredRotation
+	 *            true to enable deferred rotation, disabled by default
+	 */
+	@SuppressWarnings("UnusedDeclaration")
+	public void setDeferredRotation(boolean deferredRotation) {
+		mDeferredRotation = deferredRotation;
+	}
+
+	/**
+	 * @return arbiter dividing memory between caches of loaders, with
+	 *         current allocations, or null if memory cache was given to
+	 *         constructor
+	 */
+	@SuppressWarnings("UnusedDeclaration")
+	public MemoryArbiter getMemoryArbiter() {
+		return mMemoryArbiter;
+	}
+
+	/**
+	 * Save keys of most recently used images on
+	 * {@link #onActivityPause()} and decode them from disk cache to memory
+	 * cache on {@link #onActivityResume()}, also after process restart.
+	 * Images are decoded by background thread, without network, until half
+	 * of memory cache is filled. Keys are stored per activity class. Takes
+	 * effect on next {@link #onActivityResume()}.
+	 *
+	 * @param cacheWarming
+	 *            true to enable cache warming, disabled by default
+	 */
+	@SuppressWarnings("UnusedDeclaration")
+	public void setCacheWarming(boolean cacheWarming) {
+		mCacheWarming = cacheWarming;
+	}
+
+	/**
+	 * Set governor that admits decodes of all download threads only while
+	 * they fit memory budget together with memory cache. By default loader
+	 * uses {@link DecodeGovernor#getDefault()} shared with other loaders,
+	 * with budget of half of heap. Takes effect on next
+	 * {@link #onActivityResume()}.
+	 *
+	 * @param decodeGovernor
+	 *            governor or null to decode without admission control
+	 */
+	@SuppressWarnings("UnusedDeclaration")
+	public void setDecodeGovernor(DecodeGovernor decodeGovernor) {
+		mDecodeGovernor = decodeGovernor;
+	}
+
+	/**
+	 * @return decode governor, its counters show how often memory cache was
+	 *         wiped because of out of memory errors
+	 */
+	@SuppressWarnings("UnusedDeclaration")
+	public DecodeGovernor getDecodeGovernor() {
+		return mDecodeGovernor;
+	}
+
+	/**
+	 * @param loadListener
+	 *            listener receiving trace of every finished load or null
+	 */
+	@SuppressWarnings("UnusedDeclaration")
+	public void setImageLoadListener(ImageLoadListener loadListener) {
+		mLoadListener = loadListener;
+	}
+
+	/**
+	 * @return latency histograms of load stages and counters of sources and
+	 *         outcomes, always collected
+	 */
+	@SuppressWarnings("UnusedDeclaration")
+	public LoadMetrics getLoadMetrics() {
+		return mLoadMetrics;
+	}
+
+	/**
+	 * Set listener receiving periodic statistics snapshots while activity is
+	 * resumed. Listener is called on background thread. Takes effect on next
+	 * {@link #onActivityResume()}.
+	 *
+	 * @param statsListener
+	 *            listener or null to stop reporting
+	 * @param periodMillis
+	 *            time between snapshots
+	 */
+	@SuppressWarnings("UnusedDeclaration")
+	public void setStatsListener(LoaderStatsListener statsListener,
+			long periodMillis) {
+		if (statsListener != null && periodMillis <= 0) {
+			throw new IllegalArgumentException("Period has to be grater than 0");
+		}
+		mStatsListener = statsListener;
+		mStatsPeriodMillis = periodMillis;
+	}
+
+	/**
+	 * Snapshot of memory cache, copy buffer pool, disk cache, cache of failed
+	 * resources and queue. Reads disk cache directory, so it should not be
+	 * called on ui thread.
+	 */
+	@SuppressWarnings("UnusedDeclaration")
+	public LoaderStats getStats() {
+		LoadQueue<ImageRequest, ImageHolder> queue = mCoordinator.getQueue();
+		return new LoaderStats(System.currentTimeMillis(), mCache.stats(),
+				ByteArrayPool.getDefault().stats(), mDiskCache.stats(),
+				mCoordinator.getFailureCache().stats(), queue.queuedCount(),
+				queue.processingCount(), queue.holderCount());
+	}
+
+	private void notifyLoaded(LoadEvent event) {
+		mLoadMetrics.onImageLoaded(event);
+		ImageLoadListener loadListener = mLoadListener;
+		if (loadListener != null) {
+			loadListener.onImageLoaded(event);
+		}
+	}
+
+	/**
+	 * @return resolver caching metadata of MediaStore images and videos,
+	 *         clear it when MediaStore changes
+	 */
+	@SuppressWarnings("UnusedDeclaration")
+	public MediaStoreResolver getMediaStoreResolver() {
+		return mMediaStoreResolver;
+	}
+
+	private ImageLimits getImageLimits() {
+		return mImageLimits != null ? mImageLimits : ImageLimits.getDefault();
+	}
+
+	private Map<String, ImageFetcher> getFetchers() {
+		synchronized (mFetchers) {
+			return new HashMap<String, ImageFetcher>(mFetchers);
+		}
+	}
+
+	/**
+	 * Call it on activity onLowMemory
+	 */
+    @SuppressWarnings("UnusedDeclaration")
+	public void onActivityLowMemory() {
+		// warm cache thread fills both under coordinator lock
+		synchronized (mCoordinator) {
+			mCache.evictAll();
+			mOrientations.clear();
+		}
+		ByteArrayPool.getDefault().clear();
+	}
+
+	/**
+	 * Call it on activity Resume
+	 */
+    @SuppressWarnings("UnusedDeclaration")
+	public void onActivityResume() {
+		synchronized (this) {
+			mResumed = true;
+		}
+		if (mMemoryArbiter != null) {
+			// screen comes back, give memory to caches that were used recently
+			mMemoryArbiter.rebalance();
+		}
+		if (mCacheWarming && mWarmCacheTask == null) {
+			mWarmCacheTask = new WarmCacheTask();
+			mWarmCacheTask.start();
+		}
+		for (int i = 0; i < mNumberOfThreads; i++) {
+			LoadWorker<ImageRequest> worker = new LoadWorker<ImageRequest>(
+					mCoordinator.getQueue(), new DownloadImageHandler());
+			worker.setPriority(Thread.MIN_PRIORITY);
+			worker.setName(String.format("DownloadImageThread[%d]", i));
+			worker.start();
+			mWorkers.add(worker);
+		}
+		final LoaderStatsListener statsListener = mStatsListener;
+		if (statsListener != null && mStatsTimer == null) {
+			mStatsTimer = new Timer("LoaderStats", true);
+			mStatsTimer.schedule(new TimerTask() {
+				@Override
+				public void run() {
+					statsListener.onLoaderStats(getStats());
+				}
+			}, mStatsPeriodMillis, mStatsPeriodMillis);
 		}
 	}
 
@@ -1,192 +1,319 @@
 package com.appunite.imageloader;
 
 import java.io.File;
-import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.OutputStream;
-import java.net.URL;
-import java.net.URLConnection;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
 
 import android.content.ContentResolver;
 import android.content.Context;
 import android.database.Cursor;
 import android.graphics.Bitmap;
-import android.graphics.Matrix;
 import android.media.ExifInterface;
 import android.net.Uri;
+import android.os.Build;
 import android.provider.MediaStore;
 import android.text.TextUtils;
 
 public class RemoteLoader {
 
+	public static final String SCHEME_HTTP = "http";
+	public static final String SCHEME_HTTPS = "https";
+	public static final String SCHEME_CONTENT = "content";
+	public static final String SCHEME_ANDROID_RESOURCE = "android.resource";
+	public static final String SCHEME_FILE = "file";
+	public static final String SCHEME_ASSET = "asset";
+	public static final String SCHEME_DATA = "data";
+
+	private final Map<String, ImageFetcher> mFetchers;
 	private final DiskCache mDiskCache;
-	private byte[] mBuffer;
 	private final Context mContext;
+	private UrlTransformer mUrlTransformer;
+	private SizeBuckets mSizeBuckets = SizeBuckets.DEFAULT;
+	private boolean mExactSizeDecoding = false;
+	private BitmapConfigPolicy mConfigPolicy = BitmapConfigPolicy.ARGB_8888;
+	private DecodeGovernor mDecodeGovernor;
+	private MediaStoreResolver mMediaStoreResolver;
 
-	private byte[] getBuffer() {
-		if (mBuffer == null) {
-			mBuffer = new byte[1024];
+	static {
+		// HTTP connection reuse was buggy pre-froyo
+		if (Build.VERSION.SDK_INT < 8) {
+			System.setProperty("http.keepAlive", "false");
 		}
-		return mBuffer;
 	}
 
 	public RemoteLoader(Context context, DiskCache diskCache) {
+		this(context, diskCache, new UrlConnectionTransport());
+	}
+
+	public RemoteLoader(Context context, DiskCache diskCache,
+			HttpTransport httpTransport) {
+		this(context, diskCache, httpTransport, null);
+	}
+
+	/**
+	 * Create loader
+	 *
+	 * @param context
+	 *            context
+	 * @param diskCache
+	 *            disk cache for http resources
+	 * @param httpTransport
+	 *            transport for http resources
+	 * @param fetchers
+	 *            fetchers by lower case scheme that override or extend
+	 *            default ones, can be null
+	 */
+	public RemoteLoader(Context context, DiskCache diskCache,
+			HttpTransport httpTransport, Map<String, ImageFetcher> fetchers) {
+		this(context, diskCache, httpTransport, fetchers,
+				ImageLimits.getDefault());
+	}
+
+	/**
+	 * Create loader
+	 *
+	 * @param context
+	 *            context
+	 * @param diskCache
+	 *            disk cache for http resources
+	 * @param httpTransport
+	 *            transport for http resources
+	 * @param fetchers
+	 *            fetchers by lower case scheme that override or extend
+	 *            default ones, can be null
+	 * @param limits
+	 *            limits of http resources
+	 */
+	public RemoteLoader(Context context, DiskCache diskCache,
+			HttpTransport httpTransport, Map<String, ImageFetcher> fetchers,
+			ImageLimits limits) {
 		this.mContext = context;
 		mDiskCache = diskCache;
+		mFetchers = new HashMap<String, ImageFetcher>();
+		HttpFetcher httpFetcher = new HttpFetcher(diskCache, httpTransport,
+				ByteArrayPool.getDefault(), limits);
+		mFetchers.put(SCHEME_HTTP, httpFetcher);
+		mFetchers.put(SCHEME_HTTPS, httpFetcher);
+		ContentFetcher contentFetcher = new ContentFetcher(context);
+		mFetchers.put(SCHEME_CONTENT, contentFetcher);
+		mFetchers.put(SCHEME_ANDROID_RESOURCE, contentFetcher);
+		mFetchers.put(SCHEME_FILE, new FileFetcher(context));
+		mFetchers.put(SCHEME_ASSET, new AssetFetcher(context));
+		mFetchers.put(SCHEME_DATA, new DataUriFetcher());
+		if (fetchers != null) {
+			mFetchers.putAll(fetchers);
+		}
 	}
 
-	public File download(String resource) {
-		Uri uri = Uri.parse(resource);
-		String scheme = uri.getScheme();
-		if (scheme == null) {
-			return new File(resource);
-		} else if (scheme.equals("http") || scheme.equals("https")) {
-			return downloadFromHttp(resource);
-		} else if (scheme.equals("content")) {
-			return downloadFromContentProvider(resource, uri);
-		} else if (scheme.equals("file")) {
-			return new File(uri.getPath());
-		} else {
-			return null;
+	/**
+	 * Set transformer of fetched urls
+	 *
+	 * @param urlTransformer
+	 *            transformer or null
+	 * @param sizeBuckets
+	 *            buckets to which requested size is snapped before passing to
+	 *            transformer
+	 */
+	public void setUrlTransformer(UrlTransformer urlTransformer,
+			SizeBuckets sizeBuckets) {
+		if (sizeBuckets == null) {
+			throw new IllegalArgumentException("Size buckets could not be null");
 		}
+		mUrlTransformer = urlTransformer;
+		mSizeBuckets = sizeBuckets;
 	}
 
-	private File loadFromCache(String resource) {
-		synchronized (mDiskCache) {
-			File file = mDiskCache.getCacheFile(resource);
-			if (file.exists()) {
-				return file;
-			} else {
-				return null;
-			}
-		}
+	/**
+	 * @param exactSizeDecoding
+	 *            true if images should be scaled to cover requested size
+	 *            exactly instead of only sampling them by power of two
+	 */
+	public void setExactSizeDecoding(boolean exactSizeDecoding) {
+		mExactSizeDecoding = exactSizeDecoding;
 	}
 
-	private File downloadFromContentProvider(String resource, Uri uri) {
-		File cached = loadFromCache(resource);
-		if (cached != null) {
-			return cached;
+	public void setBitmapConfigPolicy(BitmapConfigPolicy configPolicy) {
+		if (configPolicy == null) {
+			throw new IllegalArgumentException("Config policy could not be null");
 		}
-		ContentResolver cr = mContext.getContentResolver();
-		try {
-			InputStream inputStream = cr.openInputStream(uri);
-			try {
-				return saveInDiskCache(inputStream, resource);
-			} finally {
-                if (inputStream != null) {
-				    inputStream.close();
-                }
-			}
-		} catch (FileNotFoundException e) {
-			return null;
-		} catch (IOException e) {
-			return null;
+		mConfigPolicy = configPolicy;
+	}
+
+	/**
+	 * @param decodeGovernor
+	 *            governor admitting decodes, shared by loaders, or null
+	 */
+	public void setDecodeGovernor(DecodeGovernor decodeGovernor) {
+		mDecodeGovernor = decodeGovernor;
+	}
+
+	/**
+	 * @param mediaStoreResolver
+	 *            resolver of MediaStore metadata, shared by loaders, or null
+	 *            to query MediaStore for each uri
+	 */
+	public void setMediaStoreResolver(MediaStoreResolver mediaStoreResolver) {
+		mMediaStoreResolver = mediaStoreResolver;
+	}
+
+	private String getFetchedResource(String resource, int requestedWidth,
+			int requestedHeight) {
+		if (mUrlTransformer == null) {
+			return resource;
 		}
+		String transformed = mUrlTransformer.transform(resource,
+				mSizeBuckets.snap(requestedWidth),
+				mSizeBuckets.snap(requestedHeight));
+		return transformed == null ? resource : transformed;
 	}
 
-	private File downloadFromHttp(String resource) {
-		File cached = loadFromCache(resource);
-		if (cached != null) {
-			return cached;
+	/**
+	 * Fetch resource to file. Resources not backed by file (e.g. content
+	 * provider streams) are copied to disk cache.
+	 *
+	 * @param resource
+	 *            resource to fetch
+	 * @return file with resource or null if it could not be fetched
+	 */
+	public File download(String resource) {
+		ImageSource source = fetch(resource);
+		if (source == null) {
+			return null;
 		}
 		try {
-			URL url = new URL(resource);
-			URLConnection connection;
-			connection = url.openConnection();
-			connection.connect();
-			InputStream inputStream = connection.getInputStream();
-			try {
-				return saveInDiskCache(inputStream, resource);
-			} finally {
-				inputStream.close();
+			if (source.getFile() != null) {
+				return source.getFile();
 			}
+			return saveInDiskCache(source, resource);
 		} catch (IOException e) {
 			return null;
+		} finally {
+			source.close();
 		}
 	}
 
-	private File saveInDiskCache(InputStream reader, String resource)
+	private File saveInDiskCache(ImageSource source, String resource)
 			throws IOException {
-		boolean success = false;
 		File diskCacheFile;
 		synchronized (mDiskCache) {
 			diskCacheFile = mDiskCache.getCacheFile(resource);
 		}
+		boolean success = false;
 		try {
-
-            OutputStream outputStream = new FileOutputStream(diskCacheFile);
+			OutputStream outputStream = new FileOutputStream(diskCacheFile);
 			try {
-				byte[] buffer = getBuffer();
-                int bytesRead;
-				while ((bytesRead = reader.read(buffer)) != -1) {
-					outputStream.write(buffer, 0, bytesRead);
+				if (source.hasData()) {
+					outputStream.write(source.getData(), 0, source.getLength());
+				} else {
+					StreamUtils.copy(source.getInputStream(), outputStream);
 				}
-
 				outputStream.flush();
 			} finally {
 				outputStream.close();
 			}
+			mDiskCache.recordPut();
 			success = true;
 			return diskCacheFile;
 		} finally {
 			if (!success) {
-                //noinspection ResultOfMethodCallIgnored
-                diskCacheFile.delete();
+				//noinspection ResultOfMethodCallIgnored
+				diskCacheFile.delete();
 			}
 		}
 	}
 
-	private int getImageOrientation(Uri uri) {
+	private ImageSource fetch(String resource) {
+		Uri uri = Uri.parse(resource);
+		String scheme = uri.getScheme();
+		ImageFetcher fetcher = mFetchers.get(scheme == null
+				? SCHEME_FILE : scheme.toLowerCase(Locale.US));
+		if (fetcher == null) {
+			return null;
+		}
+		try {
+			return fetcher.fetch(resource, uri);
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	private int getExifOrientation(Uri uri) {
 		ContentResolver cr = mContext.getContentResolver();
 		Cursor cursor = cr.query(uri, new String[] {
 				MediaStore.Images.ImageColumns.ORIENTATION,
 				MediaStore.Images.ImageColumns.DATA }, null, null, null);
         if (cursor == null) {
-            return 0;
+            return OrientedBitmap.ORIENTATION_NORMAL;
         }
 		try {
 			if (!cursor.moveToFirst())
-				return 0;
+				return OrientedBitmap.ORIENTATION_NORMAL;
 
 			int rotation = cursor.getInt(0);
 			if (rotation != 0)
-				return rotation;
+				return OrientedBitmap.fromRotation(rotation);
 
 			String filePath = cursor.getString(1);
 			if (TextUtils.isEmpty(filePath))
-				return rotation;
+				return OrientedBitmap.ORIENTATION_NORMAL;
 
-			return getImageOrientation(filePath);
+			return getExifOrientation(filePath);
 		} finally {
 			cursor.close();
 		}
 	}
 
-	public int getImageOrientation(String filePath) {
+	private int getExifOrientation(ImageSource source) {
+		ImageHeaderParser header = source.getHeader();
+		if (header == null) {
+			File file = source.getFile();
+			return file == null ? OrientedBitmap.ORIENTATION_NORMAL
+					: getExifOrientation(file.getAbsolutePath());
+		}
+		if (header.getFormat() != ImageHeaderParser.FORMAT_JPEG) {
+			return OrientedBitmap.ORIENTATION_NORMAL;
+		}
+		return header.getExifOrientation();
+	}
+
+	private static int getExifOrientation(String filePath) {
 		try {
 			ExifInterface exifReader = new ExifInterface(filePath);
-			int exifRotation = exifReader.getAttributeInt(
-					ExifInterface.TAG_ORIENTATION,
+			return exifReader.getAttributeInt(ExifInterface.TAG_ORIENTATION,
 					ExifInterface.ORIENTATION_NORMAL);
-			switch (exifRotation) {
-			case ExifInterface.ORIENTATION_NORMAL:
-				return 0;
-			case ExifInterface.ORIENTATION_ROTATE_90:
-				return 90;
-			case ExifInterface.ORIENTATION_ROTATE_180:
-				return 180;
-			case ExifInterface.ORIENTATION_ROTATE_270:
-				return 270;
-			}
-
 		} catch (IOException ignored) {
 		}
+		return OrientedBitmap.ORIENTATION_NORMAL;
+	}
+
+	public int getImageOrientation(String filePath) {
+		return getRotationFromExifOrientation(getExifOrientation(filePath));
+	}
+
+	private static int getRotationFromExifOrientation(int exifOrientation) {
+		switch (exifOrientation) {
+		case ExifInterface.ORIENTATION_NORMAL:
+			return 0;
+		case ExifInterface.ORIENTATION_ROTATE_90:
+			return 90;
+		case ExifInterface.ORIENTATION_ROTATE_180:
+			return 180;
+		case ExifInterface.ORIENTATION_ROTATE_270:
+			return 270;
+		}
 		return 0;
 	}
 
-	private Bitmap getThumbFromMediaStore(Uri uri) {
+	private OrientedBitmap getThumbFromMediaStore(Uri uri) {
+		MediaStoreResolver.Metadata metadata = mMediaStoreResolver == null
+				? null : mMediaStoreResolver.get(uri);
+		if (metadata != null) {
+			return getThumbFromMediaStore(metadata);
+		}
 		ContentResolver cr = mContext.getContentResolver();
 		String contentType = cr.getType(uri);
 		if (contentType != null && contentType.startsWith("video/")) {
@@ -197,12 +324,14 @@ public class RemoteLoader {
                 return null;
             }
 			try {
-				if (cursor.moveToFirst()) {
+				if (!cursor.moveToFirst()) {
 					return null;
 				}
 				long originId = cursor.getLong(0);
-                return MediaStore.Video.Thumbnails.getThumbnail(cr,
+                Bitmap thumb = MediaStore.Video.Thumbnails.getThumbnail(cr,
                         originId, MediaStore.Video.Thumbnails.MINI_KIND, null);
+				return thumb == null ? null : new OrientedBitmap(thumb,
+						OrientedBitmap.ORIENTATION_NORMAL);
 			} finally {
 				cursor.close();
 			}
@@ -221,7 +350,7 @@ public class RemoteLoader {
 				Bitmap curThumb = MediaStore.Images.Thumbnails.getThumbnail(cr,
 						originId, MediaStore.Images.Thumbnails.MINI_KIND, null);
 				if (curThumb != null) {
-					return getRotatedBitmap(curThumb, getImageOrientation(uri));
+					return new OrientedBitmap(curThumb, getExifOrientation(uri));
 				}
 			} finally {
 				cursor.close();
@@ -230,39 +359,216 @@ public class RemoteLoader {
 		return null;
 	}
 
+	private OrientedBitmap getThumbFromMediaStore(
+			MediaStoreResolver.Metadata metadata) {
+		ContentResolver cr = mContext.getContentResolver();
+		if (metadata.isVideo()) {
+			Bitmap thumb = MediaStore.Video.Thumbnails.getThumbnail(cr,
+					metadata.getId(), MediaStore.Video.Thumbnails.MINI_KIND,
+					null);
+			return thumb == null ? null : new OrientedBitmap(thumb,
+					OrientedBitmap.ORIENTATION_NORMAL);
+		}
+		Bitmap thumb = MediaStore.Images.Thumbnails.getThumbnail(cr,
+				metadata.getId(), MediaStore.Images.Thumbnails.MINI_KIND, null);
+		if (thumb == null) {
+			return null;
+		}
+		int exifOrientation = OrientedBitmap.fromRotation(metadata.getRotation());
+		if (metadata.getRotation() == 0 && !TextUtils.isEmpty(metadata.getData())) {
+			exifOrientation = getExifOrientation(metadata.getData());
+		}
+		return new OrientedBitmap(thumb, exifOrientation);
+	}
+
+	/**
+	 * Download and decode image
+	 *
+	 * @return bitmap or null if image could not be fetched or decoded
+	 * @throws ImageRejectedException
+	 *             if image exceeds limits or is not an image
+	 * @throws ImageLoader.ImageOutOfMemoryError
+	 *             if there is not enough memory to decode image
+	 */
 	public Bitmap downloadImage(String resource, int requestedWidth,
 			int requestedHeight) {
+		return downloadImage(resource, requestedWidth, requestedHeight, false);
+	}
+
+	/**
+	 * Download and decode image
+	 *
+	 * @param centerCrop
+	 *            true if image will be displayed center cropped to aspect
+	 *            ratio of requested size, only this region is decoded
+	 * @return bitmap or null if image could not be fetched or decoded
+	 * @throws ImageRejectedException
+	 *             if image exceeds limits or is not an image
+	 * @throws ImageLoader.ImageOutOfMemoryError
+	 *             if there is not enough memory to decode image
+	 */
+	public Bitmap downloadImage(String resource, int requestedWidth,
+			int requestedHeight, boolean centerCrop) {
+		return downloadImage(resource, requestedWidth, requestedHeight,
+				centerCrop, new LoadEvent(resource, Clock.SYSTEM));
+	}
+
+	/**
+	 * Decode image only if it does not have to be downloaded, i.e. http
+	 * resource is in disk cache or resource is local. Resources of custom
+	 * fetchers are not loaded.
+	 *
+	 * @return bitmap with orientation or null if image is not available
+	 *         without network or could not be decoded
+	 * @throws ImageRejectedException
+	 *             if image exceeds limits or is not an image
+	 * @throws ImageLoader.ImageOutOfMemoryError
+	 *             if there is not enough memory to decode image
+	 * @see #downloadOrientedImage(String, int, int, boolean)
+	 */
+	public OrientedBitmap loadLocalOrientedImage(String resource,
+			int requestedWidth, int requestedHeight, boolean centerCrop,
+			boolean mediaStoreThumbnail, LoadEvent event) {
+		String scheme = Uri.parse(resource).getScheme();
+		scheme = scheme == null ? SCHEME_FILE : scheme.toLowerCase(Locale.US);
+		if (scheme.equals(SCHEME_HTTP) || scheme.equals(SCHEME_HTTPS)) {
+			String fetched = getFetchedResource(resource, requestedWidth,
+					requestedHeight);
+			if (!mDiskCache.getCacheFile(fetched).exists()) {
+				return null;
+			}
+		} else if (!scheme.equals(SCHEME_FILE) && !scheme.equals(SCHEME_CONTENT)
+				&& !scheme.equals(SCHEME_ANDROID_RESOURCE)
+				&& !scheme.equals(SCHEME_ASSET) && !scheme.equals(SCHEME_DATA)) {
+			return null;
+		}
+		return downloadOrientedImage(resource, requestedWidth, requestedHeight,
+				centerCrop, mediaStoreThumbnail, event);
+	}
+
+	/**
+	 * Download and decode image recording stages, source and sizes in event
+	 *
+	 * @see #downloadImage(String, int, int, boolean)
+	 */
+	public Bitmap downloadImage(String resource, int requestedWidth,
+			int requestedHeight, boolean centerCrop, LoadEvent event) {
+		return downloadImage(resource, requestedWidth, requestedHeight,
+				centerCrop, true, event);
+	}
+
+	/**
+	 * Download and decode image recording stages, source and sizes in event
+	 *
+	 * @param mediaStoreThumbnail
+	 *            false if content uri should be decoded from original image
+	 *            instead of MediaStore MINI_KIND thumbnail
+	 * @see #downloadImage(String, int, int, boolean)
+	 */
+	public Bitmap downloadImage(String resource, int requestedWidth,
+			int requestedHeight, boolean centerCrop, boolean mediaStoreThumbnail,
+			LoadEvent event) {
+		OrientedBitmap bitmap = downloadOrientedImage(resource, requestedWidth,
+				requestedHeight, centerCrop, mediaStoreThumbnail, event);
+		if (bitmap == null) {
+			return null;
+		}
+		if (bitmap.getExifOrientation() == OrientedBitmap.ORIENTATION_NORMAL) {
+			return bitmap.getBitmap();
+		}
+		event.startStage(LoadEvent.Stage.TRANSFORM);
+		try {
+			return bitmap.toBitmap();
+		} catch (OutOfMemoryError e) {
+			throw new ImageLoader.ImageOutOfMemoryError(e, resource, 1);
+		} finally {
+			event.endStage(LoadEvent.Stage.TRANSFORM);
+		}
+	}
+
+	/**
+	 * Download and decode image without applying its orientation, so image
+	 * does not have to fit in memory twice
+	 *
+	 * @return bitmap with orientation or null if image could not be fetched
+	 *         or decoded
+	 * @throws ImageRejectedException
+	 *             if image exceeds limits or is not an image
+	 * @throws ImageLoader.ImageOutOfMemoryError
+	 *             if there is not enough memory to decode image
+	 * @see #downloadImage(String, int, int, boolean)
+	 */
+	public OrientedBitmap downloadOrientedImage(String resource,
+			int requestedWidth, int requestedHeight, boolean centerCrop) {
+		return downloadOrientedImage(resource, requestedWidth, requestedHeight,
+				centerCrop, new LoadEvent(resource, Clock.SYSTEM));
+	}
+
+	/**
+	 * Download and decode image without applying its orientation, recording
+	 * stages, source and sizes in event
+	 *
+	 * @see #downloadOrientedImage(String, int, int, boolean)
+	 */
+	public OrientedBitmap downloadOrientedImage(String resource,
+			int requestedWidth, int requestedHeight, boolean centerCrop,
+			LoadEvent event) {
+		return downloadOrientedImage(resource, requestedWidth, requestedHeight,
+				centerCrop, true, event);
+	}
+
+	/**
+	 * Download and decode image without applying its orientation, recording
+	 * stages, source and sizes in event
+	 *
+	 * @param mediaStoreThumbnail
+	 *            false if content uri should be decoded from original image
+	 *            instead of MediaStore MINI_KIND thumbnail
+	 * @see #downloadOrientedImage(String, int, int, boolean)
+	 */
+	public OrientedBitmap downloadOrientedImage(String resource,
+			int requestedWidth, int requestedHeight, boolean centerCrop,
+			boolean mediaStoreThumbnail, LoadEvent event) {
 		Uri uri = Uri.parse(resource);
 		String scheme = uri.getScheme();
-		if (scheme != null && scheme.equals("content")) {
-			Bitmap bitmap = getThumbFromMediaStore(uri);
+		if (mediaStoreThumbnail && scheme != null && scheme.equals(SCHEME_CONTENT)) {
+			// thumbnail is fetched and decoded by media store at once
+			event.startStage(LoadEvent.Stage.DECODE);
+			OrientedBitmap bitmap = getThumbFromMediaStore(uri);
+			event.endStage(LoadEvent.Stage.DECODE);
 			if (bitmap != null) {
+				event.setSource(LoadEvent.Source.LOCAL);
 				return bitmap;
 			}
 		}
-		File image = download(resource);
+		event.startStage(LoadEvent.Stage.FETCH);
+		ImageSource image = fetch(getFetchedResource(resource, requestedWidth,
+				requestedHeight));
+		event.endStage(LoadEvent.Stage.FETCH);
 		if (image == null) {
 			return null;
 		}
+		event.setSource(image.getSource());
+		event.setFetchedBytes(image.getSize(), image.getNetworkBytes());
 
-		String filePath = image.getAbsolutePath();
-		Bitmap bitmap = ImageLoader.loadImage(filePath, requestedHeight,
-				requestedWidth);
-		if (bitmap == null) {
-			return null;
+		try {
+			DecodeOptions options = new DecodeOptions(requestedWidth,
+					requestedHeight).setExactSize(mExactSizeDecoding)
+					.setConfigPolicy(mConfigPolicy).setCenterCrop(centerCrop)
+					.setGovernor(mDecodeGovernor);
+			Bitmap bitmap;
+			event.startStage(LoadEvent.Stage.DECODE);
+			try {
+				bitmap = ImageLoader.loadImage(image, options);
+			} finally {
+				event.endStage(LoadEvent.Stage.DECODE);
+			}
+			if (bitmap == null) {
+				return null;
+			}
+			return new OrientedBitmap(bitmap, getExifOrientation(image));
+		} finally {
+			image.close();
 		}
-		int imageOrientation = getImageOrientation(filePath);
-		return getRotatedBitmap(bitmap, imageOrientation);
-	}
-
-	private Bitmap getRotatedBitmap(Bitmap bitmap, int imageOrientation) {
-		if (imageOrientation == 0)
-			return bitmap;
-		if (bitmap == null)
-			return null;
-		Matrix matrix = new Matrix();
-		matrix.postRotate(imageOrientation);
-		return Bitmap.createBitmap(bitmap, 0, 0, bitmap.getWidth(),
-				bitmap.getHeight(), matrix, true);
 	}
 }
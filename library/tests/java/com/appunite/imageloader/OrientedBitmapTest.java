@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2013 Appunite.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.appunite.imageloader;
+
+import java.util.Locale;
+
+import junit.framework.TestCase;
+
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.graphics.Matrix;
+
+/**
+ * Checks that every exif orientation moves pixels of stored image to its
+ * upright position.
+ */
+public class OrientedBitmapTest extends TestCase {
+
+    private static final int WIDTH = 3;
+    private static final int HEIGHT = 2;
+
+    private Bitmap mBitmap;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mBitmap = Bitmap.createBitmap(WIDTH, HEIGHT, Bitmap.Config.ARGB_8888);
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                mBitmap.setPixel(x, y, color(x, y));
+            }
+        }
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mBitmap.recycle();
+        super.tearDown();
+    }
+
+    public void testMatrix() {
+        for (int orientation = OrientedBitmap.ORIENTATION_NORMAL;
+             orientation <= OrientedBitmap.ORIENTATION_ROTATE_270; orientation++) {
+            Matrix matrix = OrientedBitmap.getMatrix(orientation, WIDTH, HEIGHT);
+            for (int y = 0; y < HEIGHT; y++) {
+                for (int x = 0; x < WIDTH; x++) {
+                    float[] point = new float[] {x + 0.5f, y + 0.5f};
+                    matrix.mapPoints(point);
+                    int[] expected = expectedPosition(orientation, x, y);
+                    String message = message(orientation, x, y);
+                    assertEquals(message, expected[0] + 0.5f, point[0], 0.001f);
+                    assertEquals(message, expected[1] + 0.5f, point[1], 0.001f);
+                }
+            }
+        }
+    }
+
+    public void testCopyOrientedNormalReturnsSameBitmap() {
+        OrientedBitmap oriented = new OrientedBitmap(mBitmap,
+                OrientedBitmap.ORIENTATION_NORMAL);
+        assertSame(mBitmap, oriented.copyOriented());
+    }
+
+    public void testCopyOriented() {
+        for (int orientation = OrientedBitmap.ORIENTATION_FLIP_HORIZONTAL;
+             orientation <= OrientedBitmap.ORIENTATION_ROTATE_270; orientation++) {
+            Bitmap copy = new OrientedBitmap(mBitmap, orientation).copyOriented();
+            try {
+                assertNotSame(mBitmap, copy);
+                assertFalse(mBitmap.isRecycled());
+                boolean transposed = OrientedBitmap.isTransposed(orientation);
+                assertEquals(transposed ? HEIGHT : WIDTH, copy.getWidth());
+                assertEquals(transposed ? WIDTH : HEIGHT, copy.getHeight());
+                for (int y = 0; y < HEIGHT; y++) {
+                    for (int x = 0; x < WIDTH; x++) {
+                        int[] expected = expectedPosition(orientation, x, y);
+                        assertEquals(message(orientation, x, y), color(x, y),
+                                copy.getPixel(expected[0], expected[1]));
+                    }
+                }
+            } finally {
+                copy.recycle();
+            }
+        }
+    }
+
+    public void testInvalidOrientationIsNormal() {
+        assertEquals(OrientedBitmap.ORIENTATION_NORMAL,
+                new OrientedBitmap(mBitmap, 0).getExifOrientation());
+        assertEquals(OrientedBitmap.ORIENTATION_NORMAL,
+                new OrientedBitmap(mBitmap, 9).getExifOrientation());
+    }
+
+    /**
+     * Position of stored pixel in upright image, as defined by exif
+     */
+    private static int[] expectedPosition(int orientation, int x, int y) {
+        switch (orientation) {
+            case OrientedBitmap.ORIENTATION_FLIP_HORIZONTAL:
+                return new int[] {WIDTH - 1 - x, y};
+            case OrientedBitmap.ORIENTATION_ROTATE_180:
+                return new int[] {WIDTH - 1 - x, HEIGHT - 1 - y};
+            case OrientedBitmap.ORIENTATION_FLIP_VERTICAL:
+                return new int[] {x, HEIGHT - 1 - y};
+            case OrientedBitmap.ORIENTATION_TRANSPOSE:
+                return new int[] {y, x};
+            case OrientedBitmap.ORIENTATION_ROTATE_90:
+                return new int[] {HEIGHT - 1 - y, x};
+            case OrientedBitmap.ORIENTATION_TRANSVERSE:
+                return new int[] {HEIGHT - 1 - y, WIDTH - 1 - x};
+            case OrientedBitmap.ORIENTATION_ROTATE_270:
+                return new int[] {y, WIDTH - 1 - x};
+            default:
+                return new int[] {x, y};
+        }
+    }
+
+    private static int color(int x, int y) {
+        return Color.rgb(40 + x * 80, 40 + y * 160, 200);
+    }
+
+    private static String message(int orientation, int x, int y) {
+        return String.format(Locale.US, "orientation %d, pixel (%d, %d)",
+                orientation, x, y);
+    }
+}